@@ -0,0 +1,221 @@
+package com.study.hc.metrics;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * HdrHistogram风格的对数-线性直方图: 小于128的值每个值一个桶, 之后每个2的幂区间再线性分成128份,
+ * 相对误差小于1%. 桶的数量固定(约60KB), 记录只是一次数组自增, 不分配内存.
+ * <p>
+ * 不是线程安全的, 多线程记录用{@link LatencyRecorder}, 它给每个线程一份计数, 读取时合并成这个类的快照.
+ * <p>
+ * 值的单位由调用方决定, 一般是纳秒.
+ */
+public final class LatencyHistogram {
+
+    static final int SUB_BUCKET_BITS = 7;
+    static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    /** 能表示到Long.MAX_VALUE */
+    static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private static final double[] DEFAULT_PERCENTILES = {50, 90, 99, 99.9, 99.99};
+
+    private final long[] counts = new long[BUCKETS];
+    private long count;
+    private long sum;
+    private long min = Long.MAX_VALUE;
+    private long max;
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        int subBucket = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + shift * SUB_BUCKETS + subBucket;
+    }
+
+    /** 和这个桶里的值等价的最小值 */
+    static long lowestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        int subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+        return (long) (SUB_BUCKETS + subBucket) << shift;
+    }
+
+    /** 和这个桶里的值等价的最大值 */
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) {
+            return index;
+        }
+        int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+        return lowestEquivalentValue(index) + (1L << shift) - 1;
+    }
+
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts[indexOf(value)]++;
+        count++;
+        sum += value;
+        if (value < min) {
+            min = value;
+        }
+        if (value > max) {
+            max = value;
+        }
+    }
+
+    /**
+     * 记录一个值, 并修正协调遗漏(coordinated omission): 按固定间隔发请求的压测, 如果一个请求花了
+     * value, 那这期间本该发出却没有发出的请求, 会分别等待value - expectedInterval, value - 2 * expectedInterval ...
+     * 这些值也补记进来. expectedInterval &lt;= 0时不修正
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        record(value);
+        if (expectedInterval <= 0) {
+            return;
+        }
+        for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+            record(missing);
+        }
+    }
+
+    /**
+     * 把另一个直方图的计数加进来
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    /**
+     * 减去一个更早的快照, 得到两次快照之间的区间. 区间的最小/最大值只能从桶推算, 精度和百分位一样
+     */
+    public void subtract(LatencyHistogram earlier) {
+        long cumulativeMax = max;
+        count = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] -= earlier.counts[i];
+            if (counts[i] != 0) {
+                count += counts[i];
+                if (min == Long.MAX_VALUE) {
+                    min = lowestEquivalentValue(i);
+                }
+                max = Math.min(highestEquivalentValue(i), cumulativeMax);
+            }
+        }
+        sum -= earlier.sum;
+    }
+
+    /**
+     * 加上一个线程的原始计数, 格式见{@link LatencyRecorder.Writer}
+     */
+    void add(AtomicLongArray raw) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = raw.get(i);
+            counts[i] += n;
+            count += n;
+        }
+        sum += raw.get(LatencyRecorder.Writer.SUM);
+        min = Math.min(min, raw.get(LatencyRecorder.Writer.MIN));
+        max = Math.max(max, raw.get(LatencyRecorder.Writer.MAX));
+    }
+
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        sum = 0;
+        min = Long.MAX_VALUE;
+        max = 0;
+    }
+
+    public LatencyHistogram copy() {
+        LatencyHistogram copy = new LatencyHistogram();
+        copy.add(this);
+        return copy;
+    }
+
+    public long count() {
+        return count;
+    }
+
+    public long min() {
+        return count == 0 ? 0 : min;
+    }
+
+    public long max() {
+        return max;
+    }
+
+    public double mean() {
+        return count == 0 ? 0 : (double) sum / count;
+    }
+
+    /**
+     * 百分位值, 返回所在桶的上界(不超过最大值)
+     *
+     * @param percentile 0到100
+     */
+    public long valueAtPercentile(double percentile) {
+        if (count == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, 100) / 100.0));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= target) {
+                return Math.min(highestEquivalentValue(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * 一行摘要, 例如 "count=100, mean=1.204, p50=0.831, p90=2.490, p99=5.997, p99.9=13.173, p99.99=16.702, max=16.702"
+     *
+     * @param scale 输出时除以它, 比如纳秒记录、毫秒输出就是1e6
+     */
+    public String summary(double scale) {
+        StringBuilder out = new StringBuilder();
+        out.append("count=").append(count);
+        out.append(String.format(", mean=%.3f", mean() / scale));
+        for (double p : DEFAULT_PERCENTILES) {
+            out.append(", p").append(p == (long) p ? String.valueOf((long) p) : String.valueOf(p));
+            out.append(String.format("=%.3f", valueAtPercentile(p) / scale));
+        }
+        out.append(String.format(", max=%.3f", max / scale));
+        return out.toString();
+    }
+
+    /**
+     * 输出百分位分布表, 每行: 值 百分位 累计数量, 百分位按剩余部分减半递进(50, 75, 87.5 ...), 可以画成HdrHistogram那样的图
+     */
+    public void outputPercentiles(PrintStream out, double scale) {
+        out.printf("%12s %14s %10s%n", "Value", "Percentile", "TotalCount");
+        if (count == 0) {
+            return;
+        }
+        for (double remaining = 100; ; remaining /= 2) {
+            double percentile = 100 - remaining;
+            long target = Math.max(1, (long) Math.ceil(count * percentile / 100.0));
+            out.printf("%12.3f %14.10f %10d%n", valueAtPercentile(percentile) / scale, percentile / 100, target);
+            if (target >= count) {
+                break;
+            }
+        }
+        out.printf("%12.3f %14.10f %10d%n", max / scale, 1.0, count);
+    }
+}
@@ -0,0 +1,162 @@
+package com.study.hc.metrics;
+
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 多线程共用的延迟记录器, 所有压测程序都用它输出p50/p99/p99.9, 而不是平均值.
+ * <p>
+ * 每个记录线程有自己的一份计数({@link Writer}), 只有它自己写, 所以记录时没有锁也没有CAS,
+ * 只是几次lazySet, 也不分配内存. 读取线程把所有Writer的计数合并成一个{@link LatencyHistogram}:
+ * <ul>
+ * <li>{@link #snapshot()}: 从开始到现在的累计分布</li>
+ * <li>{@link #intervalSnapshot()}: 从上一次调用到现在的区间分布, 用来每秒输出一次, 或者丢掉预热阶段的数据</li>
+ * </ul>
+ * 读取时记录线程还在写, 快照中的各个桶不是同一时刻的值, 对统计来说可以接受.
+ * <p>
+ * {@link #writer()}和{@link #record(long)}创建的Writer属于当前线程, 线程结束后, 下一次读取或者有新线程加入时把它的计数合并到
+ * 一份已退役的计数中并丢掉这个Writer(每个约58KB), 线程池中的线程来来去去也不会越积越多.
+ * {@link #newWriter()}创建的Writer不知道由哪个线程使用, 会一直保留, 只适合数量固定的长期线程.
+ * <pre>
+ * LatencyRecorder recorder = new LatencyRecorder();
+ * // 任意线程
+ * long start = System.nanoTime();
+ * ...
+ * recorder.record(System.nanoTime() - start);
+ * // 统计线程
+ * System.out.println(recorder.intervalSnapshot().summary(1e6));
+ * </pre>
+ */
+public final class LatencyRecorder {
+
+    private final CopyOnWriteArrayList<Writer> writers = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Writer> currentWriter = ThreadLocal.withInitial(() -> newWriter(Thread.currentThread()));
+    /** 已经结束的线程的计数 */
+    private final LatencyHistogram retired = new LatencyHistogram();
+    /** 上一次intervalSnapshot()时的累计分布 */
+    private LatencyHistogram lastSnapshot = new LatencyHistogram();
+
+    /**
+     * 当前线程的Writer. 热路径上可以先取出来保存, 省掉每次ThreadLocal的查找
+     */
+    public Writer writer() {
+        return currentWriter.get();
+    }
+
+    /**
+     * 创建一个新的Writer, 只能由一个线程使用. 适合一个对象固定属于一个长期线程的场景(比如selector线程),
+     * 它不会被回收, 不要为短期线程反复创建
+     */
+    public Writer newWriter() {
+        return newWriter(null);
+    }
+
+    private synchronized Writer newWriter(Thread owner) {
+        // 一直没有人读取时, 也在新线程加入时清理一次
+        retireDeadWriters();
+        Writer writer = new Writer(owner);
+        writers.add(writer);
+        return writer;
+    }
+
+    private void retireDeadWriters() {
+        for (Writer writer : writers) {
+            if (writer.ownerDead()) {
+                // 线程结束之前的写入对isAlive()返回false之后的读取都可见, 这时的计数就是最终值
+                retired.add(writer.raw);
+                writers.remove(writer);
+            }
+        }
+    }
+
+    public void record(long value) {
+        currentWriter.get().record(value);
+    }
+
+    /**
+     * @see LatencyHistogram#recordWithExpectedInterval(long, long)
+     */
+    public void recordWithExpectedInterval(long value, long expectedInterval) {
+        currentWriter.get().recordWithExpectedInterval(value, expectedInterval);
+    }
+
+    /**
+     * 从开始到现在的累计分布
+     */
+    public synchronized LatencyHistogram snapshot() {
+        retireDeadWriters();
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (Writer writer : writers) {
+            histogram.add(writer.raw);
+        }
+        histogram.add(retired);
+        return histogram;
+    }
+
+    /**
+     * 从上一次调用(或创建)到现在的分布
+     */
+    public synchronized LatencyHistogram intervalSnapshot() {
+        LatencyHistogram current = snapshot();
+        LatencyHistogram interval = current.copy();
+        interval.subtract(lastSnapshot);
+        lastSnapshot = current;
+        return interval;
+    }
+
+    /**
+     * 一个线程的计数: 前{@link LatencyHistogram#BUCKETS}个是各个桶的数量, 后面是总和、最小值、最大值.
+     * 只有所属线程写, 用lazySet发布给读取线程
+     */
+    public static final class Writer {
+        static final int SUM = LatencyHistogram.BUCKETS;
+        static final int MIN = SUM + 1;
+        static final int MAX = SUM + 2;
+
+        private final AtomicLongArray raw = new AtomicLongArray(LatencyHistogram.BUCKETS + 3);
+        /** 所属线程, newWriter()创建的是null. 弱引用, 不让Writer拖住已经结束的线程对象 */
+        private final WeakReference<Thread> owner;
+
+        Writer(Thread owner) {
+            this.owner = owner == null ? null : new WeakReference<>(owner);
+            raw.set(MIN, Long.MAX_VALUE);
+        }
+
+        boolean ownerDead() {
+            if (owner == null) {
+                return false;
+            }
+            Thread thread = owner.get();
+            return thread == null || !thread.isAlive();
+        }
+
+        public void record(long value) {
+            if (value < 0) {
+                value = 0;
+            }
+            int index = LatencyHistogram.indexOf(value);
+            raw.lazySet(index, raw.get(index) + 1);
+            raw.lazySet(SUM, raw.get(SUM) + value);
+            if (value < raw.get(MIN)) {
+                raw.lazySet(MIN, value);
+            }
+            if (value > raw.get(MAX)) {
+                raw.lazySet(MAX, value);
+            }
+        }
+
+        /**
+         * @see LatencyHistogram#recordWithExpectedInterval(long, long)
+         */
+        public void recordWithExpectedInterval(long value, long expectedInterval) {
+            record(value);
+            if (expectedInterval <= 0) {
+                return;
+            }
+            for (long missing = value - expectedInterval; missing >= expectedInterval; missing -= expectedInterval) {
+                record(missing);
+            }
+        }
+    }
+}
@@ -1,47 +1,71 @@
 package com.study.hc.net.bio;
 
-import java.io.BufferedReader;
+import com.study.hc.net.nio.http.HttpParseException;
+import com.study.hc.net.nio.http.HttpRequestParser;
+import com.study.hc.net.nio.http.HttpResponses;
+
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
+/**
+ * 一个连接一个线程. -Dexecutor=cached|fixed|virtual 选择线程池(见{@link ConnectionExecutors}),
+ * -DmaxConnections 限制同时处理的连接数, -Dverbose=false 不打印请求内容(压测时使用).
+ * <p>
+ * 长连接: 一个连接上可以连续发多个请求, 也可以不等响应就连续发(pipelining), 处理 -DmaxRequests 个请求后
+ * 带上Connection: close关闭连接. 连接上超过 -DidleTimeoutMillis (默认30秒, 0表示不限制) 没有读到数据就关闭,
+ * 否则空闲或者半开的长连接会一直占着线程和连接数配额, 连接数到了上限之后就再也accept不了新连接.
+ * <p>
+ * 请求直接在字节缓冲区上用{@link HttpRequestParser}解析, 不再逐行解码成String,
+ * 同一批读到的请求的响应攒在写缓冲区里, 在下一次阻塞读之前一次写出.
+ */
 public class BIOServer2 {
 
-    private static ExecutorService threadPool = Executors.newCachedThreadPool();
+    private static final String EXECUTOR = System.getProperty("executor", "cached");
+    private static final int THREADS = Integer.getInteger("threads", 200);
+    private static final int MAX_CONNECTIONS = Integer.getInteger("maxConnections", 10000);
+    private static final boolean VERBOSE = !"false".equals(System.getProperty("verbose"));
+    /** 每个连接最多处理的请求数, 0表示不限制 */
+    private static final int MAX_REQUESTS = Integer.getInteger("maxRequests", 1000);
+    /** 读超时, 0表示不限制 */
+    private static final int IDLE_TIMEOUT_MILLIS = Integer.getInteger("idleTimeoutMillis", 30000);
+    private static final int BUFFER_SIZE = 8192;
+
+    private static final byte[] RESPONSE = HttpResponses.text(200, "OK", "Hello World", true);
+    private static final byte[] RESPONSE_CLOSE = HttpResponses.text(200, "OK", "Hello World", false);
+
+    /**
+     * 每个线程复用的读写缓冲区: 线程池中的线程处理完一个连接再处理下一个时不用重新分配.
+     * 虚拟线程每个连接一个, 这时就等于每个连接一份缓冲区
+     */
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+    private static final ThreadLocal<ByteBuffer> WRITE_BUFFER = ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    private static ExecutorService threadPool = ConnectionExecutors.newExecutor(EXECUTOR, THREADS);
+    private static Executor connectionExecutor = ConnectionExecutors.bounded(threadPool, MAX_CONNECTIONS);
 
     public static void main(String[] args) throws Exception {
-        ServerSocket serverSocket = new ServerSocket(8080);
-        System.out.println("服务器启动成功");
+        ServerSocket serverSocket = new ServerSocket(8080, 1024);
+        System.out.println("服务器启动成功, executor=" + EXECUTOR + ", maxConnections=" + MAX_CONNECTIONS);
         while (!serverSocket.isClosed()) {
+            // 连接数达到上限时阻塞在这里, 新连接留在backlog中
             Socket request = serverSocket.accept();
-            System.out.println("收到新连接 : " + request.toString());
-            threadPool.execute(() -> {
+            if (VERBOSE) {
+                System.out.println("收到新连接 : " + request.toString());
+            }
+            connectionExecutor.execute(() -> {
                 try {
-                    // 接收数据、打印
-                    InputStream inputStream = request.getInputStream();
-                    BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, "utf-8"));
-                    String msg;
-                    while ((msg = reader.readLine()) != null) {
-                        if (msg.length() == 0) {
-                            break;
-                        }
-                        System.out.println(msg);
-                    }
-
-                    System.out.println("收到数据,来自："+ request.toString());
-                    // 响应结果 200
-                    OutputStream outputStream = request.getOutputStream();
-                    outputStream.write("HTTP/1.1 200 OK\r\n".getBytes());
-                    outputStream.write("Content-Length: 11\r\n\r\n".getBytes());
-                    outputStream.write("Hello World".getBytes());
-                    outputStream.flush();
+                    handle(request);
                 } catch (IOException e) {
-                    e.printStackTrace();
+                    if (VERBOSE) {
+                        e.printStackTrace();
+                    }
                 } finally {
                     try {
                         request.close();
@@ -53,4 +77,82 @@ public class BIOServer2 {
         }
         serverSocket.close();
     }
+
+    /**
+     * 处理一个连接上的所有请求, 返回时连接可以关闭了
+     */
+    private static void handle(Socket socket) throws IOException {
+        socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
+        InputStream in = socket.getInputStream();
+        OutputStream out = socket.getOutputStream();
+        ByteBuffer readBuffer = READ_BUFFER.get();
+        ByteBuffer writeBuffer = WRITE_BUFFER.get();
+        // 上一个连接可能留下了没处理完的数据
+        readBuffer.clear();
+        readBuffer.flip();
+        writeBuffer.clear();
+        HttpRequestParser parser = new HttpRequestParser();
+        int requests = 0;
+        while (true) {
+            // 1、 解析缓冲区中所有完整的请求, 响应先放进写缓冲区
+            boolean close = false;
+            try {
+                while (parser.parse(readBuffer)) {
+                    requests++;
+                    if (VERBOSE) {
+                        System.out.println(parser.method() + " " + parser.uri() + ", 来自：" + socket);
+                    }
+                    boolean keepAlive = parser.isKeepAlive() && (MAX_REQUESTS <= 0 || requests < MAX_REQUESTS);
+                    write(out, writeBuffer, keepAlive ? RESPONSE : RESPONSE_CLOSE);
+                    if (!keepAlive) {
+                        close = true;
+                        break;
+                    }
+                }
+            } catch (HttpParseException e) {
+                write(out, writeBuffer, HttpResponses.error(e.status()));
+                close = true;
+            }
+            // 2、 没有完整的请求了, 阻塞读之前把攒下的响应一次写出
+            flush(out, writeBuffer);
+            if (close) {
+                return;
+            }
+            // 3、 读更多数据, 不完整的请求留在缓冲区中(compact后前移), 解析器从上次停下的地方继续
+            readBuffer.compact();
+            int n;
+            try {
+                n = in.read(readBuffer.array(), readBuffer.arrayOffset() + readBuffer.position(), readBuffer.remaining());
+            } catch (SocketTimeoutException e) {
+                // 空闲超时, 返回后关闭连接
+                if (VERBOSE) {
+                    System.out.println("连接空闲超时, 关闭: " + socket);
+                }
+                return;
+            }
+            if (n == -1) {
+                return;
+            }
+            readBuffer.position(readBuffer.position() + n);
+            readBuffer.flip();
+        }
+    }
+
+    private static void write(OutputStream out, ByteBuffer buffer, byte[] data) throws IOException {
+        if (buffer.remaining() < data.length) {
+            flush(out, buffer);
+            if (buffer.remaining() < data.length) {
+                out.write(data);
+                return;
+            }
+        }
+        buffer.put(data);
+    }
+
+    private static void flush(OutputStream out, ByteBuffer buffer) throws IOException {
+        if (buffer.position() > 0) {
+            out.write(buffer.array(), buffer.arrayOffset(), buffer.position());
+            buffer.clear();
+        }
+    }
 }
@@ -0,0 +1,134 @@
+package com.study.hc.net.bio;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 大量长连接下, 阻塞式服务器(平台线程/虚拟线程)和NIO reactor服务器的对比.
+ * <p>
+ * 依次在子进程中启动每个服务器(都监听8080), 再在另一个子进程中用NIOClient建立 -Dconnections 个长连接,
+ * 按 -Drate 的固定速率(开环)发请求, 最后汇总各个服务器的吞吐和延迟分布. 服务器的输出写到临时文件里.
+ * <pre>
+ * java -Dconnections=10000 -Drate=20000 -Dduration=20 -Dtargets=bio-virtual,nio-v3 com.study.hc.net.bio.ConnectionBenchmark
+ * </pre>
+ * 虚拟线程需要在JDK 21+上运行, 老版本上bio-virtual会退回平台线程(服务器日志中有提示).
+ */
+public class ConnectionBenchmark {
+
+    static final int PORT = 8080;
+    static final int CONNECTIONS = Integer.getInteger("connections", 10000);
+    static final int RATE = Integer.getInteger("rate", 20000);
+    static final int DURATION_SECONDS = Integer.getInteger("duration", 20);
+    static final int WARMUP_SECONDS = Integer.getInteger("warmup", 5);
+    static final int CLIENT_THREADS = Integer.getInteger("clientThreads", 2);
+
+    /** 名字 -> 启动服务器的JVM参数和主类 */
+    static final Map<String, List<String>> SERVERS = new LinkedHashMap<>();
+
+    static {
+        int maxConnections = CONNECTIONS + 1000;
+        SERVERS.put("bio-virtual", Arrays.asList("-Dexecutor=virtual", "-Dverbose=false",
+                "-DmaxConnections=" + maxConnections, "com.study.hc.net.bio.BIOServer2"));
+        SERVERS.put("bio-cached", Arrays.asList("-Dexecutor=cached", "-Dverbose=false", "-Xss256k",
+                "-DmaxConnections=" + maxConnections, "com.study.hc.net.bio.BIOServer2"));
+        SERVERS.put("nio-v3", Arrays.asList("-Dport=" + PORT, "-DreadIdleTimeout=0", "com.study.hc.net.nio.NIOServerV3"));
+        SERVERS.put("tony", Arrays.asList("com.study.hc.net.nio.TonyNioHttpServer"));
+        SERVERS.put("netty", Arrays.asList("-Dport=" + PORT, "com.study.hc.net.netty.http.HttpHelloWorldServer"));
+    }
+
+    public static void main(String[] args) throws Exception {
+        String[] targets = System.getProperty("targets", String.join(",", SERVERS.keySet())).split(",");
+        Map<String, List<String>> results = new LinkedHashMap<>();
+        for (String target : targets) {
+            List<String> server = SERVERS.get(target);
+            if (server == null) {
+                throw new IllegalArgumentException("unknown target: " + target + ", expected " + SERVERS.keySet());
+            }
+            System.out.println("==== " + target + " ====");
+            results.put(target, run(target, server));
+        }
+        System.out.println();
+        System.out.println("==== " + CONNECTIONS + "个长连接, " + RATE + " req/s ====");
+        for (Map.Entry<String, List<String>> result : results.entrySet()) {
+            for (String line : result.getValue()) {
+                System.out.printf("%-12s %s%n", result.getKey(), line);
+            }
+        }
+    }
+
+    private static List<String> run(String target, List<String> server) throws Exception {
+        File log = File.createTempFile(target + "-", ".log");
+        Process serverProcess = new ProcessBuilder(java(server))
+                .redirectErrorStream(true)
+                .redirectOutput(log)
+                .start();
+        List<String> summary = new ArrayList<>();
+        try {
+            if (!awaitPort(serverProcess, 10_000)) {
+                summary.add("服务器没有启动, 日志: " + log);
+                return summary;
+            }
+            // 子进程的输出按UTF-8读, 不依赖平台默认编码
+            Process client = new ProcessBuilder(java(Arrays.asList(
+                    "-Dsun.stdout.encoding=UTF-8",
+                    "-Dport=" + PORT,
+                    "-Dconnections=" + CONNECTIONS,
+                    "-Dthreads=" + CLIENT_THREADS,
+                    "-Drate=" + RATE,
+                    "-Dduration=" + DURATION_SECONDS,
+                    "-Dwarmup=" + WARMUP_SECONDS,
+                    "com.study.hc.net.nio.NIOClient")))
+                    .redirectErrorStream(true)
+                    .start();
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    System.out.println(line);
+                    // NIOClient最后输出的两行摘要
+                    if (line.startsWith("请求数") || line.startsWith("延迟")) {
+                        summary.add(line);
+                    }
+                }
+            }
+            client.waitFor();
+            System.out.println("服务器日志: " + log);
+        } finally {
+            serverProcess.destroy();
+            serverProcess.waitFor();
+        }
+        return summary;
+    }
+
+    /** 用当前JVM和classpath启动子进程 */
+    private static List<String> java(List<String> args) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.addAll(args);
+        return command;
+    }
+
+    private static boolean awaitPort(Process process, long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (System.currentTimeMillis() < deadline && process.isAlive()) {
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("127.0.0.1", PORT), 100);
+                return true;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        return false;
+    }
+}
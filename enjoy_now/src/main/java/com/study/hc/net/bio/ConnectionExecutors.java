@@ -0,0 +1,110 @@
+package com.study.hc.net.bio;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * 阻塞式服务器(一个连接一个线程)用的线程池, 通过 -Dexecutor 选择:
+ * <ul>
+ * <li>cached(默认): 每个连接一个平台线程, 线程数就是连接数, 连接一多就受限于内存和调度</li>
+ * <li>fixed: 固定数量的平台线程, 连接数超过线程数就排队</li>
+ * <li>virtual: 每个连接一个虚拟线程(JDK 21+). 阻塞读写时虚拟线程让出载体线程,
+ * 代码还是简单的阻塞写法, 但不再有线程数的上限. 编译目标是Java 8, 所以通过反射创建;
+ * 运行在老版本JDK上时退回cached</li>
+ * </ul>
+ * 虚拟线程很便宜, 没有线程池替我们限制并发, 所以再用{@link #bounded(Executor, int)}加一个信号量:
+ * 达到上限时accept线程阻塞, 新连接留在内核的backlog里.
+ */
+public final class ConnectionExecutors {
+
+    private ConnectionExecutors() {
+    }
+
+    /**
+     * @param mode    cached, fixed 或 virtual
+     * @param threads fixed模式的线程数
+     */
+    public static ExecutorService newExecutor(String mode, int threads) {
+        switch (mode) {
+            case "cached":
+                return Executors.newCachedThreadPool();
+            case "fixed":
+                return Executors.newFixedThreadPool(threads);
+            case "virtual":
+                try {
+                    Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+                    return (ExecutorService) method.invoke(null);
+                } catch (ReflectiveOperationException e) {
+                    System.err.println("当前JDK(" + System.getProperty("java.version") + ")不支持虚拟线程, 使用cached线程池");
+                    return Executors.newCachedThreadPool();
+                }
+            default:
+                throw new IllegalArgumentException("unknown executor: " + mode + ", expected cached, fixed or virtual");
+        }
+    }
+
+    /**
+     * 创建线程的工厂, virtual为true并且JDK支持时创建虚拟线程, 否则是普通的平台线程
+     */
+    public static ThreadFactory threadFactory(boolean virtual) {
+        if (virtual) {
+            try {
+                // Thread.ofVirtual().factory(), Thread.Builder是public接口, 通过它反射调用
+                Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                Method factory = Class.forName("java.lang.Thread$Builder").getMethod("factory");
+                return (ThreadFactory) factory.invoke(builder);
+            } catch (ReflectiveOperationException e) {
+                System.err.println("当前JDK(" + System.getProperty("java.version") + ")不支持虚拟线程, 使用平台线程");
+            }
+        }
+        return Thread::new;
+    }
+
+    /** 当前JDK是否支持虚拟线程 */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("ofVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 用信号量限制同时执行的任务数(也就是同时处理的连接数), 达到上限时execute()阻塞, 直到有任务结束.
+     * 和jcip中的BoundedExecutor是同一个做法
+     *
+     * @param maxConcurrent 0或负数表示不限制
+     */
+    public static Executor bounded(Executor executor, int maxConcurrent) {
+        if (maxConcurrent <= 0) {
+            return executor;
+        }
+        Semaphore semaphore = new Semaphore(maxConcurrent);
+        return command -> {
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RejectedExecutionException(e);
+            }
+            try {
+                executor.execute(() -> {
+                    try {
+                        command.run();
+                    } finally {
+                        semaphore.release();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                semaphore.release();
+                throw e;
+            }
+        };
+    }
+}
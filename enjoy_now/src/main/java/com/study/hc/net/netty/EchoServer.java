@@ -16,36 +16,33 @@
 package com.study.hc.net.netty;
 
 import io.netty.bootstrap.ServerBootstrap;
-import io.netty.channel.ChannelFuture;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelInitializer;
-import io.netty.channel.ChannelOption;
 import io.netty.channel.ChannelPipeline;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.util.concurrent.GenericFutureListener;
 
 /**
  * Echoes back any received data from a client.
+ * <p>
+ * Transport, event loop sizing and socket options come from the {@code netty.*} system properties,
+ * see {@link ServerTransport}. The backlog defaults to 100 here.
  */
 public final class EchoServer {
     static final int PORT = Integer.parseInt(System.getProperty("port", "8080"));
 
     public static void main(String[] args) throws Exception {
         // Configure the server.
-        // 创建EventLoopGroup   accept线程组 NioEventLoop
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        // 创建EventLoopGroup   I/O线程组
-        EventLoopGroup workerGroup2 = new NioEventLoopGroup(1);
+        // 创建accept线程组和I/O线程组, epoll可用时用EpollEventLoop, 否则NioEventLoop
+        ServerTransport transport = ServerTransport.fromSystemProperties()
+                .backlog(Integer.getInteger("netty.backlog", 100))
+                .build();
         try {
-            // 服务端启动引导工具类
-            ServerBootstrap b = new ServerBootstrap();
-            // 配置服务端处理的reactor线程组以及服务端的其他配置
-            b.group(bossGroup, workerGroup2).channel(NioServerSocketChannel.class).option(ChannelOption.SO_BACKLOG, 100)
-                    .handler(new LoggingHandler(LogLevel.DEBUG)).childHandler(new ChannelInitializer<SocketChannel>() {
+            // 服务端启动引导工具类, 配置服务端处理的reactor线程组以及服务端的其他配置
+            ServerBootstrap b = transport.configure(new ServerBootstrap());
+            b.handler(new LoggingHandler(LogLevel.DEBUG)).childHandler(new ChannelInitializer<SocketChannel>() {
                 @Override
                 public void initChannel(SocketChannel ch) throws Exception {
                     ChannelPipeline p = ch.pipeline();
@@ -53,13 +50,12 @@ public final class EchoServer {
                 }
             });
             // 通过bind启动服务
-            ChannelFuture f = b.bind(PORT).sync();
+            Channel ch = transport.bind(b, PORT).get(0);
             // 阻塞主线程，知道网络服务被关闭
-            f.channel().closeFuture().sync();
+            ch.closeFuture().sync();
         } finally {
             // 关闭线程组
-            bossGroup.shutdownGracefully();
-            workerGroup2.shutdownGracefully();
+            transport.shutdownGracefully();
         }
     }
 }
@@ -0,0 +1,233 @@
+package com.study.hc.net.netty;
+
+import com.study.hc.net.netty.chat.server.WebSocketServerInitializer;
+import com.study.hc.net.netty.http.HttpHelloWorldServerInitializer;
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.socket.SocketChannel;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Counts socket writes per message for the HTTP and WebSocket pipelines, with flush consolidation
+ * off and on.
+ * <p>
+ * Each round a blocking client sends {@code -Dbatch} pipelined requests (or text frames) in a single
+ * write and waits for all the responses. A handler at the head of the server pipeline counts the
+ * flushes that actually carry data, each of which is one write/writev syscall. On Linux the
+ * process-wide write syscall count from /proc/self/io is reported too, minus the client's own writes.
+ * <pre>
+ * java -Drounds=2000 -Dbatch=16 com.study.hc.net.netty.FlushBenchmark
+ * </pre>
+ */
+public final class FlushBenchmark {
+
+    static final int ROUNDS = Integer.getInteger("rounds", 2000);
+    static final int BATCH = Integer.getInteger("batch", 16);
+
+    private static final byte[] HTTP_REQUEST = "GET / HTTP/1.1\r\nHost: localhost\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HELLO_WORLD = "Hello World".getBytes(StandardCharsets.US_ASCII);
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-10s %-14s %10s %10s %12s %14s%n",
+                "pipeline", "consolidation", "messages", "flushes", "flushes/msg", "syscalls/msg");
+        for (boolean websocket : new boolean[]{false, true}) {
+            for (int consolidation : new int[]{0, 256}) {
+                run(websocket, consolidation);
+            }
+        }
+    }
+
+    private static void run(boolean websocket, int consolidation) throws Exception {
+        ServerTransport transport = ServerTransport.builder()
+                .bossThreads(1)
+                .workerThreads(1)
+                .flushConsolidation(consolidation, false)
+                .build();
+        AtomicLong flushes = new AtomicLong();
+        Function<ServerTransport, ChannelHandler> initializer = websocket
+                ? t -> new WebSocketServerInitializer(null, t)
+                : t -> new HttpHelloWorldServerInitializer(null, t);
+        try {
+            ServerBootstrap b = transport.configure(new ServerBootstrap());
+            b.childHandler(new ChannelInitializer<SocketChannel>() {
+                @Override
+                protected void initChannel(SocketChannel ch) {
+                    ch.pipeline().addLast(initializer.apply(transport));
+                    // after the real initializer has run, so this ends up in front of the consolidation handler
+                    ch.pipeline().addFirst(new FlushCounter(flushes));
+                }
+            });
+            Channel server = transport.bind(b, 0).get(0);
+            int port = ((InetSocketAddress) server.localAddress()).getPort();
+            try (Socket socket = new Socket("127.0.0.1", port)) {
+                socket.setTcpNoDelay(true);
+                Client client = websocket ? new WebSocketClient(socket) : new HttpClient(socket);
+                // warm up, then count
+                client.round();
+                flushes.set(0);
+                long syscallsBefore = writeSyscalls();
+                for (int i = 0; i < ROUNDS; i++) {
+                    client.round();
+                }
+                long syscalls = writeSyscalls() - syscallsBefore - ROUNDS;
+                long messages = (long) ROUNDS * BATCH;
+                System.out.printf("%-10s %-14s %10d %10d %12.3f %14s%n",
+                        websocket ? "websocket" : "http", consolidation > 0 ? "on" : "off", messages, flushes.get(),
+                        (double) flushes.get() / messages,
+                        syscallsBefore < 0 ? "n/a" : String.format("%.3f", (double) syscalls / messages));
+            }
+            server.close().sync();
+        } finally {
+            transport.shutdownGracefully();
+        }
+    }
+
+    /** write syscalls of this process so far, -1 when /proc is not available */
+    private static long writeSyscalls() {
+        try {
+            for (String line : Files.readAllLines(Paths.get("/proc/self/io"))) {
+                if (line.startsWith("syscw:")) {
+                    return Long.parseLong(line.substring(6).trim());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            // not Linux
+        }
+        return -1;
+    }
+
+    /**
+     * Counts flushes that follow at least one write, i.e. the ones that reach the socket
+     */
+    private static final class FlushCounter extends ChannelOutboundHandlerAdapter {
+        private final AtomicLong flushes;
+        private boolean pending;
+
+        FlushCounter(AtomicLong flushes) {
+            this.flushes = flushes;
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) {
+            pending = true;
+            ctx.write(msg, promise);
+        }
+
+        @Override
+        public void flush(ChannelHandlerContext ctx) {
+            if (pending) {
+                pending = false;
+                flushes.incrementAndGet();
+            }
+            ctx.flush();
+        }
+    }
+
+    private interface Client {
+        /** sends BATCH messages in one write, waits for all the responses */
+        void round() throws IOException;
+    }
+
+    private static final class HttpClient implements Client {
+        private final OutputStream out;
+        private final InputStream in;
+        private final byte[] batch;
+        private final byte[] buffer = new byte[64 * 1024];
+        private int matched;
+
+        HttpClient(Socket socket) throws IOException {
+            this.out = socket.getOutputStream();
+            this.in = socket.getInputStream();
+            ByteArrayOutputStream requests = new ByteArrayOutputStream();
+            for (int i = 0; i < BATCH; i++) {
+                requests.write(HTTP_REQUEST);
+            }
+            this.batch = requests.toByteArray();
+        }
+
+        @Override
+        public void round() throws IOException {
+            out.write(batch);
+            int responses = 0;
+            while (responses < BATCH) {
+                int n = in.read(buffer);
+                if (n < 0) {
+                    throw new IOException("connection closed");
+                }
+                // every response ends with the body "Hello World", which does not overlap itself
+                for (int i = 0; i < n; i++) {
+                    if (buffer[i] == HELLO_WORLD[matched]) {
+                        if (++matched == HELLO_WORLD.length) {
+                            responses++;
+                            matched = 0;
+                        }
+                    } else {
+                        matched = buffer[i] == HELLO_WORLD[0] ? 1 : 0;
+                    }
+                }
+            }
+        }
+    }
+
+    private static final class WebSocketClient implements Client {
+        private final OutputStream out;
+        private final DataInputStream in;
+        private final byte[] batch;
+
+        WebSocketClient(Socket socket) throws IOException {
+            this.out = socket.getOutputStream();
+            this.in = new DataInputStream(socket.getInputStream());
+            out.write(("GET /websocket HTTP/1.1\r\n"
+                    + "Host: localhost\r\n"
+                    + "Upgrade: websocket\r\n"
+                    + "Connection: Upgrade\r\n"
+                    + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                    + "Sec-WebSocket-Version: 13\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            // skip the 101 response
+            int state = 0;
+            while (state < 4) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("handshake failed");
+                }
+                state = (b == '\r' && (state & 1) == 0) || (b == '\n' && (state & 1) == 1) ? state + 1 : 0;
+            }
+            // BATCH masked text frames "hello", mask key 0 so the payload goes as is
+            ByteArrayOutputStream frames = new ByteArrayOutputStream();
+            for (int i = 0; i < BATCH; i++) {
+                frames.write(0x81);
+                frames.write(0x80 | 5);
+                frames.write(new byte[4]);
+                frames.write("hello".getBytes(StandardCharsets.US_ASCII));
+            }
+            this.batch = frames.toByteArray();
+        }
+
+        @Override
+        public void round() throws IOException {
+            out.write(batch);
+            for (int i = 0; i < BATCH; i++) {
+                in.readUnsignedByte();
+                int length = in.readUnsignedByte() & 0x7f;
+                in.skipBytes(length);
+            }
+        }
+    }
+}
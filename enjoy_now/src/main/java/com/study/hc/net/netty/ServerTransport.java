@@ -0,0 +1,267 @@
+package com.study.hc.net.netty;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.ServerChannel;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.handler.flush.FlushConsolidationHandler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transport and sizing for the Netty servers, so the same handler code can be tuned per box
+ * without code changes.
+ * <p>
+ * {@link #fromSystemProperties()} reads:
+ * <ul>
+ * <li>{@code netty.transport}: {@code auto} (default, epoll when available), {@code epoll} or {@code nio}</li>
+ * <li>{@code netty.bossThreads}: accept event loops, default 1</li>
+ * <li>{@code netty.workerThreads}: I/O event loops, default 0 = Netty's default (2 * cores)</li>
+ * <li>{@code netty.backlog}: SO_BACKLOG, default 1024</li>
+ * <li>{@code netty.tcpNoDelay}: TCP_NODELAY on accepted channels, default true</li>
+ * <li>{@code netty.reusePort}: SO_REUSEPORT, binds one server channel per boss event loop so the kernel
+ * spreads incoming connections across them. Epoll only, default false</li>
+ * <li>{@code netty.writeBufferLowWaterMark} / {@code netty.writeBufferHighWaterMark}: bytes, default 32K / 64K</li>
+ * <li>{@code netty.flushConsolidation}: flushes issued while a read is in progress are held until the read
+ * loop ends, or until this many have piled up. Default 256, 0 disables it</li>
+ * <li>{@code netty.consolidateWhenNoReadInProgress}: also coalesce flushes issued outside a read (e.g. from
+ * another thread) by deferring them to a task on the event loop. Default false</li>
+ * </ul>
+ * <pre>
+ * ServerTransport transport = ServerTransport.fromSystemProperties().build();
+ * ServerBootstrap b = transport.configure(new ServerBootstrap()).childHandler(...);
+ * Channel ch = transport.bind(b, PORT).get(0);
+ * ...
+ * transport.shutdownGracefully();
+ * </pre>
+ */
+public final class ServerTransport {
+
+    /** Same as FlushConsolidationHandler's own default */
+    private static final int DEFAULT_FLUSH_CONSOLIDATION = 256;
+
+    private final boolean epoll;
+    private final int backlog;
+    private final boolean tcpNoDelay;
+    private final boolean reusePort;
+    private final WriteBufferWaterMark writeBufferWaterMark;
+    private final int bindCount;
+    private final int explicitFlushAfterFlushes;
+    private final boolean consolidateWhenNoReadInProgress;
+    private final EventLoopGroup bossGroup;
+    private final EventLoopGroup workerGroup;
+
+    private ServerTransport(Builder builder) {
+        this.epoll = useEpoll(builder.transport);
+        this.backlog = builder.backlog;
+        this.tcpNoDelay = builder.tcpNoDelay;
+        this.reusePort = builder.reusePort && epoll;
+        if (builder.reusePort && !epoll) {
+            System.err.println("SO_REUSEPORT requires the epoll transport, binding a single server channel");
+        }
+        this.writeBufferWaterMark = new WriteBufferWaterMark(builder.lowWaterMark, builder.highWaterMark);
+        this.bindCount = reusePort ? builder.bossThreads : 1;
+        this.explicitFlushAfterFlushes = builder.explicitFlushAfterFlushes;
+        this.consolidateWhenNoReadInProgress = builder.consolidateWhenNoReadInProgress;
+        if (epoll) {
+            this.bossGroup = new EpollEventLoopGroup(builder.bossThreads);
+            this.workerGroup = new EpollEventLoopGroup(builder.workerThreads);
+        } else {
+            this.bossGroup = new NioEventLoopGroup(builder.bossThreads);
+            this.workerGroup = new NioEventLoopGroup(builder.workerThreads);
+        }
+    }
+
+    private static boolean useEpoll(String transport) {
+        switch (transport) {
+            case "nio":
+                return false;
+            case "epoll":
+                if (!Epoll.isAvailable()) {
+                    throw new IllegalStateException("epoll transport is not available", Epoll.unavailabilityCause());
+                }
+                return true;
+            case "auto":
+                return Epoll.isAvailable();
+            default:
+                throw new IllegalArgumentException("unknown transport: " + transport + ", expected auto, epoll or nio");
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder populated from the {@code netty.*} system properties, defaults for anything unset
+     */
+    public static Builder fromSystemProperties() {
+        return builder()
+                .transport(System.getProperty("netty.transport", "auto"))
+                .bossThreads(Integer.getInteger("netty.bossThreads", 1))
+                .workerThreads(Integer.getInteger("netty.workerThreads", 0))
+                .backlog(Integer.getInteger("netty.backlog", 1024))
+                .tcpNoDelay(!"false".equals(System.getProperty("netty.tcpNoDelay")))
+                .reusePort(Boolean.getBoolean("netty.reusePort"))
+                .writeBufferWaterMark(Integer.getInteger("netty.writeBufferLowWaterMark", 32 * 1024),
+                        Integer.getInteger("netty.writeBufferHighWaterMark", 64 * 1024))
+                .flushConsolidation(Integer.getInteger("netty.flushConsolidation",
+                        DEFAULT_FLUSH_CONSOLIDATION),
+                        Boolean.getBoolean("netty.consolidateWhenNoReadInProgress"));
+    }
+
+    public boolean isEpoll() {
+        return epoll;
+    }
+
+    public Class<? extends ServerChannel> serverChannelClass() {
+        return epoll ? EpollServerSocketChannel.class : NioServerSocketChannel.class;
+    }
+
+    public EventLoopGroup bossGroup() {
+        return bossGroup;
+    }
+
+    public EventLoopGroup workerGroup() {
+        return workerGroup;
+    }
+
+    /**
+     * Sets the event loop groups, channel class and socket options on the bootstrap.
+     * The caller still adds its own handler and childHandler.
+     */
+    public ServerBootstrap configure(ServerBootstrap b) {
+        b.group(bossGroup, workerGroup)
+         .channel(serverChannelClass())
+         .option(ChannelOption.SO_BACKLOG, backlog)
+         .childOption(ChannelOption.TCP_NODELAY, tcpNoDelay)
+         .childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, writeBufferWaterMark);
+        if (reusePort) {
+            b.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        return b;
+    }
+
+    /**
+     * Binds the port, once per boss event loop with SO_REUSEPORT (each bind registers its server channel on
+     * the next boss loop), otherwise once. Blocks until all channels are bound.
+     */
+    public List<Channel> bind(ServerBootstrap b, int port) throws InterruptedException {
+        List<Channel> channels = new ArrayList<>(bindCount);
+        for (int i = 0; i < bindCount; i++) {
+            channels.add(b.bind(port).sync().channel());
+        }
+        return channels;
+    }
+
+    /**
+     * Puts a {@link FlushConsolidationHandler} at the head of the pipeline, unless disabled. Being first,
+     * it sees every flush issued by the handlers (and the SslHandler) after it.
+     */
+    public void addFlushConsolidation(ChannelPipeline pipeline) {
+        if (explicitFlushAfterFlushes > 0) {
+            pipeline.addFirst(new FlushConsolidationHandler(explicitFlushAfterFlushes, consolidateWhenNoReadInProgress));
+        }
+    }
+
+    public void shutdownGracefully() {
+        bossGroup.shutdownGracefully();
+        workerGroup.shutdownGracefully();
+    }
+
+    @Override
+    public String toString() {
+        return (epoll ? "epoll" : "nio") + " transport, " + bindCount + " server channel(s), backlog " + backlog
+                + ", TCP_NODELAY " + tcpNoDelay + ", write buffer " + writeBufferWaterMark
+                + ", flush consolidation " + (explicitFlushAfterFlushes > 0 ? explicitFlushAfterFlushes : "off");
+    }
+
+    public static final class Builder {
+        private String transport = "auto";
+        private int bossThreads = 1;
+        private int workerThreads;
+        private int backlog = 1024;
+        private boolean tcpNoDelay = true;
+        private boolean reusePort;
+        private int lowWaterMark = 32 * 1024;
+        private int highWaterMark = 64 * 1024;
+        private int explicitFlushAfterFlushes = DEFAULT_FLUSH_CONSOLIDATION;
+        private boolean consolidateWhenNoReadInProgress;
+
+        private Builder() {
+        }
+
+        /** auto, epoll or nio */
+        public Builder transport(String transport) {
+            this.transport = transport;
+            return this;
+        }
+
+        public Builder bossThreads(int bossThreads) {
+            if (bossThreads < 1) {
+                throw new IllegalArgumentException("bossThreads: " + bossThreads);
+            }
+            this.bossThreads = bossThreads;
+            return this;
+        }
+
+        /** 0 uses Netty's default of twice the number of cores */
+        public Builder workerThreads(int workerThreads) {
+            if (workerThreads < 0) {
+                throw new IllegalArgumentException("workerThreads: " + workerThreads);
+            }
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public Builder tcpNoDelay(boolean tcpNoDelay) {
+            this.tcpNoDelay = tcpNoDelay;
+            return this;
+        }
+
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        public Builder writeBufferWaterMark(int low, int high) {
+            if (low < 0 || high < low) {
+                throw new IllegalArgumentException("writeBufferWaterMark: low " + low + ", high " + high);
+            }
+            this.lowWaterMark = low;
+            this.highWaterMark = high;
+            return this;
+        }
+
+        /**
+         * @param explicitFlushAfterFlushes flush at the latest after this many held flushes, 0 disables consolidation
+         */
+        public Builder flushConsolidation(int explicitFlushAfterFlushes, boolean consolidateWhenNoReadInProgress) {
+            if (explicitFlushAfterFlushes < 0) {
+                throw new IllegalArgumentException("explicitFlushAfterFlushes: " + explicitFlushAfterFlushes);
+            }
+            this.explicitFlushAfterFlushes = explicitFlushAfterFlushes;
+            this.consolidateWhenNoReadInProgress = consolidateWhenNoReadInProgress;
+            return this;
+        }
+
+        public ServerTransport build() {
+            return new ServerTransport(this);
+        }
+    }
+}
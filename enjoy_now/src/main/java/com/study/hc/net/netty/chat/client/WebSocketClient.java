@@ -15,9 +15,11 @@
  */
 package com.study.hc.net.netty.chat.client;
 
+import com.study.hc.net.netty.chat.compression.DeflateOptions;
 import io.netty.bootstrap.Bootstrap;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.Channel;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.EventLoopGroup;
@@ -33,7 +35,6 @@ import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketVersion;
-import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketClientCompressionHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
@@ -90,6 +91,7 @@ public final class WebSocketClient {
             sslCtx = null;
         }
 
+        final DeflateOptions deflate = DeflateOptions.fromSystemProperties().build();
         EventLoopGroup group = new NioEventLoopGroup();
         try {
             // Connect with V13 (RFC 6455 aka HyBi-17). You can change it to V08 or V00.
@@ -112,9 +114,13 @@ public final class WebSocketClient {
                      }
                      p.addLast(
                              new HttpClientCodec(),
-                             new HttpObjectAggregator(8192),
-                             WebSocketClientCompressionHandler.INSTANCE,
-                             handler);
+                             new HttpObjectAggregator(8192));
+                     // offers permessage-deflate per the ws.deflate.* system properties
+                     ChannelHandler compression = deflate.newClientHandler();
+                     if (compression != null) {
+                         p.addLast(compression);
+                     }
+                     p.addLast(handler);
                  }
              });
 
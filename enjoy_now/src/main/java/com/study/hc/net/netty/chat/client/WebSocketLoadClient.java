@@ -0,0 +1,424 @@
+package com.study.hc.net.netty.chat.client;
+
+import com.study.hc.metrics.LatencyHistogram;
+import com.study.hc.metrics.LatencyRecorder;
+import com.study.hc.net.netty.chat.compression.DeflateOptions;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpClientCodec;
+import io.netty.handler.codec.http.HttpObjectAggregator;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketClientHandshakerFactory;
+import io.netty.handler.codec.http.websocketx.WebSocketClientProtocolHandler;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketVersion;
+import io.netty.handler.ssl.SslContext;
+import io.netty.handler.ssl.SslContextBuilder;
+import io.netty.handler.ssl.util.InsecureTrustManagerFactory;
+import io.netty.util.CharsetUtil;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import io.netty.util.concurrent.ScheduledFuture;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Headless load generator for the WebSocket server: many sessions on one shared
+ * {@link NioEventLoopGroup}, each sending text (or binary) messages at a fixed rate.
+ * <p>
+ * Every message starts with the time it was due to be sent and the sending session's id, so any
+ * session receiving it records the latency in a {@link LatencyRecorder}: the round trip against
+ * {@code -Dmode=echo}, the fan-out delay against the chat rooms. Sending is open loop: a message that
+ * could not go out on time (the channel was not writable) is sent late with its original time, so the
+ * wait is part of its latency. With {@code -Drate=0} each session instead keeps exactly one message of
+ * its own in flight (closed loop, for maximum throughput against the echo server).
+ * <p>
+ * At most {@code connectConcurrency} handshakes run at a time. The connection setup time (TCP connect
+ * and WebSocket handshake) is reported once all sessions are up, then throughput and latency every
+ * second and overall, without the warmup.
+ * <pre>
+ * java -Dmode=echo com.study.hc.net.netty.chat.server.WebSocketServer
+ * java -Dsessions=5000 -Drate=2 -Dsize=128 -Dduration=30 com.study.hc.net.netty.chat.client.WebSocketLoadClient
+ * java -Dsessions=100 -Drate=0 -Dframe=binary com.study.hc.net.netty.chat.client.WebSocketLoadClient
+ * </pre>
+ * Against the chat rooms every message is delivered to the whole room, so use {@code -Drooms} to spread
+ * the sessions over that many rooms ({@code /join room-N}) and keep the fan-out realistic.
+ * Compression is offered per the {@code ws.deflate.*} system properties, see {@link DeflateOptions}.
+ */
+public final class WebSocketLoadClient {
+
+    static final String URL = System.getProperty("url", "ws://127.0.0.1:8080/websocket");
+    static final int SESSIONS = Integer.getInteger("sessions", 1000);
+    /** event loop threads, 0 for Netty's default */
+    static final int THREADS = Integer.getInteger("threads", 0);
+    static final int CONNECT_CONCURRENCY = Integer.getInteger("connectConcurrency", 256);
+    static final int SETUP_TIMEOUT_SECONDS = Integer.getInteger("setupTimeout", 10);
+    /** messages per second per session, 0 for closed loop */
+    static final double RATE = Double.parseDouble(System.getProperty("rate", "1"));
+    static final int SIZE = Math.max(Integer.getInteger("size", 64), Stamp.LENGTH);
+    static final boolean BINARY = "binary".equals(System.getProperty("frame", "text"));
+    static final int ROOMS = Integer.getInteger("rooms", 0);
+    static final int DURATION_SECONDS = Integer.getInteger("duration", 10);
+    static final int WARMUP_SECONDS = Integer.getInteger("warmup", 2);
+
+    public static void main(String[] args) throws Exception {
+        URI uri = new URI(URL);
+        String scheme = uri.getScheme() == null? "ws" : uri.getScheme();
+        if (!"ws".equalsIgnoreCase(scheme) && !"wss".equalsIgnoreCase(scheme)) {
+            System.err.println("Only WS(S) is supported.");
+            return;
+        }
+        final boolean ssl = "wss".equalsIgnoreCase(scheme);
+        final String host = uri.getHost() == null? "127.0.0.1" : uri.getHost();
+        final int port = uri.getPort() != -1 ? uri.getPort() : ssl ? 443 : 80;
+        final SslContext sslCtx = ssl
+                ? SslContextBuilder.forClient().trustManager(InsecureTrustManagerFactory.INSTANCE).build() : null;
+        final DeflateOptions deflate = DeflateOptions.fromSystemProperties().build();
+
+        System.out.println("Load " + uri + ": " + SESSIONS + " sessions, "
+                + (RATE > 0 ? RATE + " msg/s each" : "closed loop") + ", " + SIZE + " byte " + (BINARY ? "binary" : "text")
+                + " messages" + (ROOMS > 0 ? ", " + ROOMS + " rooms" : "") + ", " + deflate
+                + ", warmup " + WARMUP_SECONDS + "s, duration " + DURATION_SECONDS + "s");
+
+        final Stats stats = new Stats();
+        EventLoopGroup group = new NioEventLoopGroup(THREADS);
+        ChannelGroup sessions = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+        try {
+            Bootstrap b = new Bootstrap();
+            b.group(group)
+             .channel(NioSocketChannel.class)
+             .option(ChannelOption.TCP_NODELAY, true)
+             .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, SETUP_TIMEOUT_SECONDS * 1000);
+
+            // 1. open the sessions, at most CONNECT_CONCURRENCY handshakes in flight
+            Semaphore setups = new Semaphore(CONNECT_CONCURRENCY);
+            long setupStart = System.nanoTime();
+            for (int id = 0; id < SESSIONS; id++) {
+                setups.acquire();
+                final LoadSession session = new LoadSession(id, stats, setups);
+                ChannelFuture connect = b.clone().handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ChannelPipeline p = ch.pipeline();
+                        if (sslCtx != null) {
+                            p.addLast(sslCtx.newHandler(ch.alloc(), host, port));
+                        }
+                        p.addLast(new HttpClientCodec(), new HttpObjectAggregator(8192));
+                        ChannelHandler compression = deflate.newClientHandler();
+                        if (compression != null) {
+                            p.addLast(compression);
+                        }
+                        p.addLast(new WebSocketClientProtocolHandler(WebSocketClientHandshakerFactory.newHandshaker(
+                                uri, WebSocketVersion.V13, null, true, new DefaultHttpHeaders(), Math.max(65536, SIZE))));
+                        p.addLast(session);
+                    }
+                }).connect(host, port);
+                sessions.add(connect.channel());
+                connect.addListener(f -> {
+                    if (!f.isSuccess()) {
+                        session.setupFailed();
+                    }
+                });
+            }
+            setups.acquire(CONNECT_CONCURRENCY);
+            long setupElapsed = System.nanoTime() - setupStart;
+            System.out.printf("Connected %d sessions in %.3f s, %d failed%n",
+                    stats.connected.sum(), setupElapsed / 1e9, stats.failed.sum());
+            System.out.println("Setup (ms): " + stats.setup.snapshot().summary(1e6));
+
+            // 2. drop the warmup, then one line per second
+            Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+            LatencyHistogram warmup = stats.latency.intervalSnapshot();
+            long[] last = stats.counters();
+            long[] first = last;
+            long start = System.nanoTime();
+            for (int second = 1; second <= DURATION_SECONDS; second++) {
+                Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+                long[] now = stats.counters();
+                System.out.printf("%ds: sent %d/s, received %d/s, %d open, latency (ms): %s%n", second,
+                        now[0] - last[0], now[2] - last[2], stats.connected.sum() - stats.closed.sum(),
+                        stats.latency.intervalSnapshot().summary(1e6));
+                last = now;
+            }
+            long elapsed = System.nanoTime() - start;
+            stats.running = false;
+
+            // 3. the whole measured period
+            LatencyHistogram histogram = stats.latency.snapshot();
+            histogram.subtract(warmup);
+            double seconds = elapsed / 1e9;
+            System.out.printf("Sent: %.0f msg/s, %.2f MB/s; received: %.0f msg/s, %.2f MB/s; unstamped %d, closed %d%n",
+                    (last[0] - first[0]) / seconds, (last[1] - first[1]) / seconds / 1e6,
+                    (last[2] - first[2]) / seconds, (last[3] - first[3]) / seconds / 1e6,
+                    stats.unstamped.sum(), stats.closed.sum());
+            System.out.println("Latency (ms): " + histogram.summary(1e6));
+            histogram.outputPercentiles(System.out, 1e6);
+        } finally {
+            stats.running = false;
+            sessions.close().awaitUninterruptibly();
+            group.shutdownGracefully();
+        }
+    }
+
+    /**
+     * Counters and recorders shared by all sessions
+     */
+    static final class Stats {
+        final LatencyRecorder latency = new LatencyRecorder();
+        final LatencyRecorder setup = new LatencyRecorder();
+        final LongAdder sent = new LongAdder();
+        final LongAdder sentBytes = new LongAdder();
+        final LongAdder received = new LongAdder();
+        final LongAdder receivedBytes = new LongAdder();
+        /** received messages without a readable stamp */
+        final LongAdder unstamped = new LongAdder();
+        final LongAdder connected = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        /** sessions closed after the handshake */
+        final LongAdder closed = new LongAdder();
+        volatile boolean running = true;
+
+        long[] counters() {
+            return new long[] {sent.sum(), sentBytes.sum(), received.sum(), receivedBytes.sum()};
+        }
+    }
+
+    /**
+     * The first {@link #LENGTH} bytes of every message: the due time ({@link System#nanoTime()}) and
+     * the session id in upper case hex, then a space. Upper case hex comes back unchanged from the
+     * upper-casing echo.
+     */
+    static final class Stamp {
+        static final int LENGTH = 16 + 8 + 1;
+        private static final byte[] DIGITS = "0123456789ABCDEF".getBytes(CharsetUtil.US_ASCII);
+
+        static void write(ByteBuf out, long time, int session) {
+            for (int shift = 60; shift >= 0; shift -= 4) {
+                out.writeByte(DIGITS[(int) (time >>> shift) & 0xF]);
+            }
+            for (int shift = 28; shift >= 0; shift -= 4) {
+                out.writeByte(DIGITS[(session >>> shift) & 0xF]);
+            }
+            out.writeByte(' ');
+        }
+
+        /** -1 if not a hex digit */
+        private static int digit(byte b) {
+            if (b >= '0' && b <= '9') {
+                return b - '0';
+            }
+            b |= 0x20;
+            return b >= 'a' && b <= 'f' ? b - 'a' + 10 : -1;
+        }
+
+        /** The due time, the caller checks {@link #valid} first */
+        static long time(ByteBuf in) {
+            long time = 0;
+            for (int i = in.readerIndex(), end = i + 16; i < end; i++) {
+                time = time << 4 | digit(in.getByte(i));
+            }
+            return time;
+        }
+
+        static int session(ByteBuf in) {
+            int session = 0;
+            for (int i = in.readerIndex() + 16, end = i + 8; i < end; i++) {
+                session = session << 4 | digit(in.getByte(i));
+            }
+            return session;
+        }
+
+        static boolean valid(ByteBuf in) {
+            if (in.readableBytes() < LENGTH || in.getByte(in.readerIndex() + LENGTH - 1) != ' ') {
+                return false;
+            }
+            for (int i = in.readerIndex(), end = i + LENGTH - 1; i < end; i++) {
+                if (digit(in.getByte(i)) < 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * One session, after the WebSocket protocol handler. Only touched by its channel's event loop,
+     * except for the setup permit.
+     */
+    static final class LoadSession extends SimpleChannelInboundHandler<WebSocketFrame> {
+        /** the rest of every message after the stamp, chat-like filler */
+        private static final byte[] FILLER = filler(SIZE - Stamp.LENGTH);
+
+        private final int id;
+        private final Stats stats;
+        private final Semaphore setups;
+        private final long intervalNanos = RATE > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / RATE) : 0;
+        private boolean setupDone;
+        private long setupStart;
+        private LatencyRecorder.Writer latency;
+        private ScheduledFuture<?> ticker;
+        /** open loop: when the next message is due */
+        private long nextSendTime;
+
+        LoadSession(int id, Stats stats, Semaphore setups) {
+            this.id = id;
+            this.stats = stats;
+            this.setups = setups;
+        }
+
+        private static byte[] filler(int length) {
+            byte[] words = "hello everyone in the room, load test message ".getBytes(CharsetUtil.US_ASCII);
+            byte[] filler = new byte[length];
+            for (int i = 0; i < length; i++) {
+                filler[i] = words[i % words.length];
+            }
+            return filler;
+        }
+
+        @Override
+        public void handlerAdded(ChannelHandlerContext ctx) {
+            // the event loop's writer, shared with the other sessions on it
+            latency = stats.latency.writer();
+            setupStart = System.nanoTime();
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            ctx.executor().schedule(() -> {
+                if (!setupDone) {
+                    ctx.close();
+                }
+            }, SETUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt == WebSocketClientProtocolHandler.ClientHandshakeStateEvent.HANDSHAKE_COMPLETE) {
+                stats.setup.writer().record(System.nanoTime() - setupStart);
+                stats.connected.increment();
+                setupDone();
+                if (ROOMS > 0) {
+                    ctx.write(new TextWebSocketFrame("/join room-" + id % ROOMS));
+                }
+                if (intervalNanos > 0) {
+                    // spread the sessions over the interval instead of sending all at once
+                    long delay = ThreadLocalRandom.current().nextLong(intervalNanos);
+                    nextSendTime = System.nanoTime() + delay;
+                    ticker = ctx.executor().scheduleAtFixedRate(() -> sendDue(ctx), delay, intervalNanos, TimeUnit.NANOSECONDS);
+                    ctx.flush();
+                } else {
+                    send(ctx, System.nanoTime());
+                    ctx.flush();
+                }
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+
+        /**
+         * Sends every message that is due. While the channel is not writable they wait, and go out
+         * later with their original due time.
+         */
+        private void sendDue(ChannelHandlerContext ctx) {
+            long now = System.nanoTime();
+            boolean sent = false;
+            while (nextSendTime <= now && ctx.channel().isWritable() && stats.running) {
+                send(ctx, nextSendTime);
+                nextSendTime += intervalNanos;
+                sent = true;
+            }
+            if (sent) {
+                ctx.flush();
+            }
+        }
+
+        private void send(ChannelHandlerContext ctx, long dueTime) {
+            ByteBuf payload = ctx.alloc().buffer(SIZE);
+            Stamp.write(payload, dueTime, id);
+            payload.writeBytes(FILLER);
+            ctx.write(BINARY ? new BinaryWebSocketFrame(payload) : new TextWebSocketFrame(payload), ctx.voidPromise());
+            stats.sent.increment();
+            stats.sentBytes.add(SIZE);
+        }
+
+        @Override
+        public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+            if (intervalNanos > 0 && setupDone && ctx.channel().isWritable()) {
+                sendDue(ctx);
+            }
+            super.channelWritabilityChanged(ctx);
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) {
+            ByteBuf payload = frame.content();
+            if (!(frame instanceof TextWebSocketFrame || frame instanceof BinaryWebSocketFrame)) {
+                return;
+            }
+            long now = System.nanoTime();
+            stats.received.increment();
+            stats.receivedBytes.add(payload.readableBytes());
+            if (!Stamp.valid(payload)) {
+                stats.unstamped.increment();
+                return;
+            }
+            latency.record(now - Stamp.time(payload));
+            if (intervalNanos == 0 && Stamp.session(payload) == id && stats.running) {
+                send(ctx, now);
+                ctx.flush();
+            }
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (ticker != null) {
+                ticker.cancel(false);
+            }
+            if (setupDone) {
+                stats.closed.increment();
+            } else {
+                setupFailed();
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!(cause instanceof IOException) && stats.running) {
+                cause.printStackTrace();
+            }
+            ctx.close();
+        }
+
+        void setupFailed() {
+            if (!setupDone) {
+                stats.failed.increment();
+                setupDone();
+            }
+        }
+
+        private void setupDone() {
+            setupDone = true;
+            setups.release();
+        }
+    }
+}
@@ -0,0 +1,177 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocket13FrameEncoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.compression.PerMessageDeflateServerExtensionHandshaker;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * CPU per message and bytes on the wire of server to client text messages at different sizes, for:
+ * <ul>
+ * <li>no compression</li>
+ * <li>Netty's own permessage-deflate (context takeover, every message compressed)</li>
+ * <li>{@link DeflateEncoder} with context takeover, with no context takeover, and with no context
+ * takeover plus the default 256 byte threshold</li>
+ * </ul>
+ * Sender and receiver are EmbeddedChannels with the real WebSocket frame codecs, so the byte counts
+ * are complete frames as they would go on the wire. CPU is this thread's CPU time, split into the
+ * sending (compress and frame) and receiving (parse and inflate) side. The messages are chat-like
+ * text, random words from a small vocabulary.
+ * <pre>
+ * java -Dmessages=20000 com.study.hc.net.netty.chat.compression.CompressionBenchmark
+ * </pre>
+ */
+public final class CompressionBenchmark {
+
+    static final int MESSAGES = Integer.getInteger("messages", 20000);
+    static final int[] SIZES = {32, 128, 512, 2048, 8192, 32768};
+    static final int BATCH = 256;
+
+    private static final String[] WORDS = {
+            "the", "a", "message", "room", "lobby", "hello", "anyone", "here", "server", "netty", "socket",
+            "frame", "latency", "throughput", "deploy", "tonight", "ok", "thanks", "see", "you", "later",
+            "buffer", "event", "loop", "java", "pool", "channel", "write", "flush", "read", "bytes", "why",
+            "is", "it", "slow", "fast", "again", "please", "check", "logs", "metrics", "dashboard", "green"};
+
+    public static void main(String[] args) {
+        List<Config> configs = Arrays.asList(
+                new Config("off", () -> null, () -> null),
+                new Config("netty", CompressionBenchmark::nettyEncoder, CompressionBenchmark::nettyDecoder),
+                ours("takeover", 0, false),
+                ours("no-takeover", 0, true),
+                ours("no-takeover+256", 256, true));
+
+        System.out.printf("%8s  %-16s %12s %8s %14s %14s%n",
+                "size", "compression", "wire B/msg", "ratio", "send us/msg", "receive us/msg");
+        for (int size : SIZES) {
+            List<byte[]> messages = messages(size, 64);
+            for (Config config : configs) {
+                // once to warm up, then measured
+                run(config, messages, MESSAGES / 4);
+                Result r = run(config, messages, MESSAGES);
+                System.out.printf("%8d  %-16s %12.1f %8.3f %14.2f %14.2f%n",
+                        size, config.name, (double) r.wireBytes / MESSAGES,
+                        (double) r.wireBytes / ((long) (size + frameHeader(size)) * MESSAGES),
+                        r.sendNanos / 1e3 / MESSAGES, r.receiveNanos / 1e3 / MESSAGES);
+            }
+        }
+    }
+
+    private static Config ours(String name, int minSize, boolean noContextTakeover) {
+        DeflateOptions options = DeflateOptions.builder().minSize(minSize)
+                .serverNoContextTakeover(noContextTakeover).build();
+        return new Config(name,
+                () -> new DeflateEncoder(options.pool, options.minSize, noContextTakeover),
+                () -> new InflateDecoder(options.pool, noContextTakeover, options.maxMessageSize));
+    }
+
+    private static ChannelHandler nettyEncoder() {
+        WebSocketServerExtension extension = new PerMessageDeflateServerExtensionHandshaker()
+                .handshakeExtension(new WebSocketExtensionData(DeflateOptions.PERMESSAGE_DEFLATE, Collections.emptyMap()));
+        return extension.newExtensionEncoder();
+    }
+
+    private static ChannelHandler nettyDecoder() {
+        WebSocketClientExtension extension = new PerMessageDeflateClientExtensionHandshaker()
+                .handshakeExtension(new WebSocketExtensionData(DeflateOptions.PERMESSAGE_DEFLATE, Collections.emptyMap()));
+        return extension.newExtensionDecoder();
+    }
+
+    private static Result run(Config config, List<byte[]> messages, int count) {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        EmbeddedChannel sender = channel(new WebSocket13FrameEncoder(false), config.encoder.get());
+        EmbeddedChannel receiver = channel(new WebSocket13FrameDecoder(false, true, 1 << 20), config.decoder.get());
+        Result result = new Result();
+        List<ByteBuf> wire = new ArrayList<>(BATCH * 2);
+        for (int sent = 0; sent < count; ) {
+            int batch = Math.min(BATCH, count - sent);
+            long start = threads.getCurrentThreadCpuTime();
+            for (int i = 0; i < batch; i++) {
+                sender.writeOutbound(new TextWebSocketFrame(Unpooled.wrappedBuffer(messages.get((sent + i) % messages.size()))));
+                for (ByteBuf buf; (buf = sender.readOutbound()) != null; ) {
+                    result.wireBytes += buf.readableBytes();
+                    wire.add(buf);
+                }
+            }
+            long encoded = threads.getCurrentThreadCpuTime();
+            for (ByteBuf buf : wire) {
+                receiver.writeInbound(buf);
+            }
+            wire.clear();
+            for (int i = 0; i < batch; i++) {
+                WebSocketFrame frame = receiver.readInbound();
+                if (i == 0 && !ByteBufUtil.equals(frame.content(), Unpooled.wrappedBuffer(messages.get(sent % messages.size())))) {
+                    throw new IllegalStateException(config.name + ": message corrupted");
+                }
+                frame.release();
+            }
+            result.sendNanos += encoded - start;
+            result.receiveNanos += threads.getCurrentThreadCpuTime() - encoded;
+            sent += batch;
+        }
+        sender.finishAndReleaseAll();
+        receiver.finishAndReleaseAll();
+        return result;
+    }
+
+    private static EmbeddedChannel channel(ChannelHandler codec, ChannelHandler extension) {
+        return extension == null ? new EmbeddedChannel(codec) : new EmbeddedChannel(codec, extension);
+    }
+
+    private static int frameHeader(int size) {
+        return size < 126 ? 2 : size <= 0xFFFF ? 4 : 10;
+    }
+
+    private static List<byte[]> messages(int size, int count) {
+        Random random = new Random(size);
+        List<byte[]> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder(size + 16)
+                    .append("{\"room\":\"lobby\",\"user\":\"user").append(random.nextInt(1000)).append("\",\"text\":\"");
+            while (text.length() < size - 2) {
+                text.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+            }
+            text.setLength(Math.max(0, size - 2));
+            messages.add(text.append("\"}").toString().substring(0, size).getBytes(StandardCharsets.US_ASCII));
+        }
+        return messages;
+    }
+
+    private static final class Config {
+        final String name;
+        final Supplier<ChannelHandler> encoder;
+        final Supplier<ChannelHandler> decoder;
+
+        Config(String name, Supplier<ChannelHandler> encoder, Supplier<ChannelHandler> decoder) {
+            this.name = name;
+            this.encoder = encoder;
+            this.decoder = decoder;
+        }
+    }
+
+    private static final class Result {
+        long wireBytes;
+        long sendNanos;
+        long receiveNanos;
+    }
+}
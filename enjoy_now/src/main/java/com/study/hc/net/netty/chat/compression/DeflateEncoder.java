@@ -0,0 +1,125 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+
+import java.util.List;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses outgoing messages per permessage-deflate.
+ * <p>
+ * Only complete (unfragmented) text and binary messages of at least {@code minSize} bytes are
+ * compressed; everything else, fragments included, goes out as is with RSV1 clear. Without context
+ * takeover the deflater is borrowed from the event loop's {@link ZlibPool} for the one message, and a
+ * message that would not get smaller is sent uncompressed. With context takeover the channel keeps its
+ * own deflater, and every message it compresses has to be sent compressed.
+ */
+final class DeflateEncoder extends WebSocketExtensionEncoder {
+
+    /** Sync flush marker ending every compressed message, stripped before sending (RFC 7692 7.2.1) */
+    private static final int TAIL_LENGTH = 4;
+
+    private final ZlibPool pool;
+    private final int minSize;
+    private final boolean noContextTakeover;
+    private Deflater deflater;
+
+    DeflateEncoder(ZlibPool pool, int minSize, boolean noContextTakeover) {
+        this.pool = pool;
+        this.minSize = minSize;
+        this.noContextTakeover = noContextTakeover;
+    }
+
+    @Override
+    public boolean acceptOutboundMessage(Object msg) throws Exception {
+        if (!(msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)) {
+            return false;
+        }
+        WebSocketFrame frame = (WebSocketFrame) msg;
+        return frame.isFinalFragment()
+                && (frame.rsv() & WebSocketExtension.RSV1) == 0
+                && frame.content().readableBytes() >= Math.max(minSize, 1);
+    }
+
+    @Override
+    protected void encode(ChannelHandlerContext ctx, WebSocketFrame msg, List<Object> out) throws Exception {
+        ByteBuf payload = msg.content();
+        Deflater deflater = noContextTakeover ? pool.acquireDeflater() : channelDeflater();
+        ByteBuf compressed;
+        try {
+            compressed = deflate(ctx, deflater, payload);
+        } finally {
+            if (noContextTakeover) {
+                pool.releaseDeflater(deflater);
+            }
+        }
+        if (noContextTakeover && compressed.readableBytes() >= payload.readableBytes()) {
+            // incompressible, the next message starts from scratch anyway
+            compressed.release();
+            out.add(msg.retain());
+            return;
+        }
+        int rsv = msg.rsv() | WebSocketExtension.RSV1;
+        out.add(msg instanceof TextWebSocketFrame
+                ? new TextWebSocketFrame(true, rsv, compressed)
+                : new BinaryWebSocketFrame(true, rsv, compressed));
+    }
+
+    private Deflater channelDeflater() {
+        if (deflater == null) {
+            deflater = pool.newDeflater();
+        }
+        return deflater;
+    }
+
+    /**
+     * Deflates the readable bytes with a sync flush, straight between heap arrays
+     */
+    private static ByteBuf deflate(ChannelHandlerContext ctx, Deflater deflater, ByteBuf payload) {
+        int length = payload.readableBytes();
+        ByteBuf input = null;
+        if (payload.hasArray()) {
+            deflater.setInput(payload.array(), payload.arrayOffset() + payload.readerIndex(), length);
+        } else {
+            input = ctx.alloc().heapBuffer(length);
+            input.writeBytes(payload, payload.readerIndex(), length);
+            deflater.setInput(input.array(), input.arrayOffset(), length);
+        }
+        ByteBuf out = ctx.alloc().heapBuffer(length / 2 + 64);
+        try {
+            for (;;) {
+                int writable = out.writableBytes();
+                int n = deflater.deflate(out.array(), out.arrayOffset() + out.writerIndex(), writable, Deflater.SYNC_FLUSH);
+                out.writerIndex(out.writerIndex() + n);
+                if (n < writable) {
+                    break;
+                }
+                out.ensureWritable(Math.max(out.capacity() >> 1, 64));
+            }
+            out.writerIndex(out.writerIndex() - TAIL_LENGTH);
+            return out;
+        } catch (RuntimeException e) {
+            out.release();
+            throw e;
+        } finally {
+            if (input != null) {
+                input.release();
+            }
+        }
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        if (deflater != null) {
+            deflater.end();
+            deflater = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+}
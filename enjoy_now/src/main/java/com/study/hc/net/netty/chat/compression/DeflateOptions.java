@@ -0,0 +1,156 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.channel.ChannelHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandler;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandler;
+
+/**
+ * permessage-deflate (RFC 7692) settings for the WebSocket server and client.
+ * <p>
+ * {@link #fromSystemProperties()} reads:
+ * <ul>
+ * <li>{@code ws.deflate}: negotiate compression at all, default true</li>
+ * <li>{@code ws.deflate.level}: 0-9, default 6</li>
+ * <li>{@code ws.deflate.minSize}: messages with a smaller payload are sent uncompressed, default 256.
+ * Below a few hundred bytes the deflate header, block overhead and CPU usually outweigh the saving</li>
+ * <li>{@code ws.deflate.serverNoContextTakeover}: the server compresses every message on its own,
+ * default true. Costs some ratio, but no deflater (~256KB native memory at the default level) has to
+ * live per connection: they come from a small per-event-loop pool instead</li>
+ * <li>{@code ws.deflate.clientNoContextTakeover}: ask the client to do the same, so the server's
+ * inflaters are pooled too. Default false</li>
+ * <li>{@code ws.deflate.maxMessageSize}: limit of an inflated message, default 1MB</li>
+ * </ul>
+ * Only the default 15-bit window is supported ({@code java.util.zip} cannot use a smaller one), so offers
+ * that insist on a smaller server window are declined and the connection goes on uncompressed.
+ */
+public final class DeflateOptions {
+
+    static final String PERMESSAGE_DEFLATE = "permessage-deflate";
+    static final String SERVER_NO_CONTEXT = "server_no_context_takeover";
+    static final String CLIENT_NO_CONTEXT = "client_no_context_takeover";
+    static final String SERVER_MAX_WINDOW = "server_max_window_bits";
+    static final String CLIENT_MAX_WINDOW = "client_max_window_bits";
+    static final int MAX_WINDOW_BITS = 15;
+
+    final boolean enabled;
+    final int level;
+    final int minSize;
+    final boolean serverNoContextTakeover;
+    final boolean clientNoContextTakeover;
+    final int maxMessageSize;
+    /** shared by all channels using these options, one pool per event loop */
+    final ZlibPool pool;
+
+    private DeflateOptions(Builder builder) {
+        this.enabled = builder.enabled;
+        this.level = builder.level;
+        this.minSize = builder.minSize;
+        this.serverNoContextTakeover = builder.serverNoContextTakeover;
+        this.clientNoContextTakeover = builder.clientNoContextTakeover;
+        this.maxMessageSize = builder.maxMessageSize;
+        this.pool = new ZlibPool(level);
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * A builder populated from the {@code ws.deflate.*} system properties, defaults for anything unset
+     */
+    public static Builder fromSystemProperties() {
+        return builder()
+                .enabled(!"false".equals(System.getProperty("ws.deflate")))
+                .level(Integer.getInteger("ws.deflate.level", 6))
+                .minSize(Integer.getInteger("ws.deflate.minSize", 256))
+                .serverNoContextTakeover(!"false".equals(System.getProperty("ws.deflate.serverNoContextTakeover")))
+                .clientNoContextTakeover(Boolean.getBoolean("ws.deflate.clientNoContextTakeover"))
+                .maxMessageSize(Integer.getInteger("ws.deflate.maxMessageSize", 1024 * 1024));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * The handler negotiating the extension on the server, to put before the WebSocket protocol handler,
+     * or null when compression is disabled
+     */
+    public ChannelHandler newServerHandler() {
+        return enabled ? new WebSocketServerExtensionHandler(new PerMessageDeflateServerHandshaker(this)) : null;
+    }
+
+    /**
+     * The handler offering the extension from the client, to put before the client handshake handler,
+     * or null when compression is disabled
+     */
+    public ChannelHandler newClientHandler() {
+        return enabled ? new WebSocketClientExtensionHandler(new PerMessageDeflateClientHandshaker(this)) : null;
+    }
+
+    @Override
+    public String toString() {
+        if (!enabled) {
+            return "permessage-deflate off";
+        }
+        return "permessage-deflate level " + level + ", min size " + minSize
+                + (serverNoContextTakeover ? ", server no context takeover" : "")
+                + (clientNoContextTakeover ? ", client no context takeover" : "");
+    }
+
+    public static final class Builder {
+        private boolean enabled = true;
+        private int level = 6;
+        private int minSize = 256;
+        private boolean serverNoContextTakeover = true;
+        private boolean clientNoContextTakeover;
+        private int maxMessageSize = 1024 * 1024;
+
+        private Builder() {
+        }
+
+        public Builder enabled(boolean enabled) {
+            this.enabled = enabled;
+            return this;
+        }
+
+        public Builder level(int level) {
+            if (level < 0 || level > 9) {
+                throw new IllegalArgumentException("level: " + level + " (expected: 0-9)");
+            }
+            this.level = level;
+            return this;
+        }
+
+        /** payloads below this many bytes are not compressed, 0 compresses everything */
+        public Builder minSize(int minSize) {
+            if (minSize < 0) {
+                throw new IllegalArgumentException("minSize: " + minSize);
+            }
+            this.minSize = minSize;
+            return this;
+        }
+
+        public Builder serverNoContextTakeover(boolean serverNoContextTakeover) {
+            this.serverNoContextTakeover = serverNoContextTakeover;
+            return this;
+        }
+
+        public Builder clientNoContextTakeover(boolean clientNoContextTakeover) {
+            this.clientNoContextTakeover = clientNoContextTakeover;
+            return this;
+        }
+
+        public Builder maxMessageSize(int maxMessageSize) {
+            if (maxMessageSize < 1) {
+                throw new IllegalArgumentException("maxMessageSize: " + maxMessageSize);
+            }
+            this.maxMessageSize = maxMessageSize;
+            return this;
+        }
+
+        public DeflateOptions build() {
+            return new DeflateOptions(this);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.ContinuationWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Inflates incoming messages sent with RSV1 set, fragmented ones included; other messages pass through.
+ * Without context takeover the inflater is borrowed from the event loop's {@link ZlibPool} from the
+ * first to the last frame of a message.
+ */
+final class InflateDecoder extends WebSocketExtensionDecoder {
+
+    private static final byte[] TAIL = {0x00, 0x00, (byte) 0xff, (byte) 0xff};
+
+    private final ZlibPool pool;
+    private final boolean noContextTakeover;
+    private final int maxMessageSize;
+    /** the message being inflated, null between messages */
+    private Inflater inflater;
+    private Inflater channelInflater;
+    private int messageSize;
+
+    InflateDecoder(ZlibPool pool, boolean noContextTakeover, int maxMessageSize) {
+        this.pool = pool;
+        this.noContextTakeover = noContextTakeover;
+        this.maxMessageSize = maxMessageSize;
+    }
+
+    @Override
+    public boolean acceptInboundMessage(Object msg) throws Exception {
+        if (msg instanceof ContinuationWebSocketFrame) {
+            return inflater != null;
+        }
+        return (msg instanceof TextWebSocketFrame || msg instanceof BinaryWebSocketFrame)
+                && (((WebSocketFrame) msg).rsv() & WebSocketExtension.RSV1) != 0;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, WebSocketFrame msg, List<Object> out) throws Exception {
+        if (inflater == null) {
+            inflater = noContextTakeover ? pool.acquireInflater() : channelInflater();
+            messageSize = 0;
+        }
+        ByteBuf payload = msg.content();
+        ByteBuf inflated = ctx.alloc().heapBuffer(payload.readableBytes() * 2 + 64);
+        boolean success = false;
+        try {
+            ByteBuf input = null;
+            try {
+                if (payload.hasArray()) {
+                    inflater.setInput(payload.array(), payload.arrayOffset() + payload.readerIndex(), payload.readableBytes());
+                } else {
+                    input = ctx.alloc().heapBuffer(payload.readableBytes());
+                    input.writeBytes(payload, payload.readerIndex(), payload.readableBytes());
+                    inflater.setInput(input.array(), input.arrayOffset(), input.readableBytes());
+                }
+                inflate(inflated);
+            } finally {
+                if (input != null) {
+                    input.release();
+                }
+            }
+            if (msg.isFinalFragment()) {
+                inflater.setInput(TAIL);
+                inflate(inflated);
+            }
+            success = true;
+        } finally {
+            if (!success) {
+                inflated.release();
+                endMessage();
+            }
+        }
+
+        int rsv = msg.rsv() & ~WebSocketExtension.RSV1;
+        boolean last = msg.isFinalFragment();
+        if (msg instanceof TextWebSocketFrame) {
+            out.add(new TextWebSocketFrame(last, rsv, inflated));
+        } else if (msg instanceof BinaryWebSocketFrame) {
+            out.add(new BinaryWebSocketFrame(last, rsv, inflated));
+        } else {
+            out.add(new ContinuationWebSocketFrame(last, rsv, inflated));
+        }
+        if (last) {
+            endMessage();
+        }
+    }
+
+    private void inflate(ByteBuf out) throws DataFormatException, TooLongFrameException {
+        for (;;) {
+            if (!out.isWritable()) {
+                out.ensureWritable(Math.max(out.capacity() >> 1, 256));
+            }
+            int n = inflater.inflate(out.array(), out.arrayOffset() + out.writerIndex(), out.writableBytes());
+            out.writerIndex(out.writerIndex() + n);
+            messageSize += n;
+            if (messageSize > maxMessageSize) {
+                throw new TooLongFrameException("inflated message larger than " + maxMessageSize + " bytes");
+            }
+            if (inflater.needsDictionary()) {
+                throw new CorruptedFrameException("deflate stream needs a preset dictionary");
+            }
+            if (inflater.finished() || (n == 0 && inflater.needsInput())) {
+                return;
+            }
+        }
+    }
+
+    private Inflater channelInflater() {
+        if (channelInflater == null) {
+            channelInflater = pool.newInflater();
+        }
+        return channelInflater;
+    }
+
+    private void endMessage() {
+        if (inflater == null) {
+            return;
+        }
+        if (noContextTakeover) {
+            pool.releaseInflater(inflater);
+        } else if (inflater.finished()) {
+            // the peer ended the stream (BFINAL), so there is no context to carry over
+            inflater.reset();
+        }
+        inflater = null;
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        endMessage();
+        if (channelInflater != null) {
+            channelInflater.end();
+            channelInflater = null;
+        }
+        super.handlerRemoved(ctx);
+    }
+}
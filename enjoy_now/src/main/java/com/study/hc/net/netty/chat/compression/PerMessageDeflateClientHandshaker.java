@@ -0,0 +1,91 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketClientExtensionHandshaker;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Offers permessage-deflate with the context takeover wishes of {@link DeflateOptions}, and accepts
+ * whatever the server answers except a client window below 15 bits.
+ */
+final class PerMessageDeflateClientHandshaker implements WebSocketClientExtensionHandshaker {
+
+    private final DeflateOptions options;
+
+    PerMessageDeflateClientHandshaker(DeflateOptions options) {
+        this.options = options;
+    }
+
+    @Override
+    public WebSocketExtensionData newRequestData() {
+        Map<String, String> parameters = new HashMap<>(4);
+        if (options.serverNoContextTakeover) {
+            parameters.put(DeflateOptions.SERVER_NO_CONTEXT, null);
+        }
+        if (options.clientNoContextTakeover) {
+            parameters.put(DeflateOptions.CLIENT_NO_CONTEXT, null);
+        }
+        return new WebSocketExtensionData(DeflateOptions.PERMESSAGE_DEFLATE, parameters);
+    }
+
+    @Override
+    public WebSocketClientExtension handshakeExtension(WebSocketExtensionData answer) {
+        if (!DeflateOptions.PERMESSAGE_DEFLATE.equals(answer.name())) {
+            return null;
+        }
+        boolean serverNoContext = false;
+        boolean clientNoContext = options.clientNoContextTakeover;
+        for (Map.Entry<String, String> parameter : answer.parameters().entrySet()) {
+            switch (parameter.getKey()) {
+                case DeflateOptions.SERVER_NO_CONTEXT:
+                    serverNoContext = true;
+                    break;
+                case DeflateOptions.CLIENT_NO_CONTEXT:
+                    clientNoContext = true;
+                    break;
+                case DeflateOptions.SERVER_MAX_WINDOW:
+                    // any server window inflates with 15 bits
+                    break;
+                case DeflateOptions.CLIENT_MAX_WINDOW:
+                    if (!String.valueOf(DeflateOptions.MAX_WINDOW_BITS).equals(parameter.getValue())) {
+                        return null;
+                    }
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return new Extension(serverNoContext, clientNoContext);
+    }
+
+    private final class Extension implements WebSocketClientExtension {
+        private final boolean serverNoContext;
+        private final boolean clientNoContext;
+
+        Extension(boolean serverNoContext, boolean clientNoContext) {
+            this.serverNoContext = serverNoContext;
+            this.clientNoContext = clientNoContext;
+        }
+
+        @Override
+        public int rsv() {
+            return WebSocketExtension.RSV1;
+        }
+
+        @Override
+        public WebSocketExtensionEncoder newExtensionEncoder() {
+            return new DeflateEncoder(options.pool, options.minSize, clientNoContext);
+        }
+
+        @Override
+        public WebSocketExtensionDecoder newExtensionDecoder() {
+            return new InflateDecoder(options.pool, serverNoContext, options.maxMessageSize);
+        }
+    }
+}
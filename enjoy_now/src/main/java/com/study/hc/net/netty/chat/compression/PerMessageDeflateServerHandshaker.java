@@ -0,0 +1,92 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionData;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionDecoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketExtensionEncoder;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtension;
+import io.netty.handler.codec.http.websocketx.extensions.WebSocketServerExtensionHandshaker;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Accepts a client's permessage-deflate offer on the terms of {@link DeflateOptions}: no context
+ * takeover on a side when either the options or the client ask for it. Offers requiring a server
+ * window below 15 bits, or with unknown parameters, are declined.
+ */
+final class PerMessageDeflateServerHandshaker implements WebSocketServerExtensionHandshaker {
+
+    private final DeflateOptions options;
+
+    PerMessageDeflateServerHandshaker(DeflateOptions options) {
+        this.options = options;
+    }
+
+    @Override
+    public WebSocketServerExtension handshakeExtension(WebSocketExtensionData offer) {
+        if (!DeflateOptions.PERMESSAGE_DEFLATE.equals(offer.name())) {
+            return null;
+        }
+        boolean serverNoContext = options.serverNoContextTakeover;
+        boolean clientNoContext = options.clientNoContextTakeover;
+        for (Map.Entry<String, String> parameter : offer.parameters().entrySet()) {
+            switch (parameter.getKey()) {
+                case DeflateOptions.SERVER_NO_CONTEXT:
+                    serverNoContext = true;
+                    break;
+                case DeflateOptions.CLIENT_NO_CONTEXT:
+                    clientNoContext = true;
+                    break;
+                case DeflateOptions.SERVER_MAX_WINDOW:
+                    if (!String.valueOf(DeflateOptions.MAX_WINDOW_BITS).equals(parameter.getValue())) {
+                        return null;
+                    }
+                    break;
+                case DeflateOptions.CLIENT_MAX_WINDOW:
+                    // the client may limit its window, any window inflates with 15 bits
+                    break;
+                default:
+                    return null;
+            }
+        }
+        return new Extension(serverNoContext, clientNoContext);
+    }
+
+    private final class Extension implements WebSocketServerExtension {
+        private final boolean serverNoContext;
+        private final boolean clientNoContext;
+
+        Extension(boolean serverNoContext, boolean clientNoContext) {
+            this.serverNoContext = serverNoContext;
+            this.clientNoContext = clientNoContext;
+        }
+
+        @Override
+        public int rsv() {
+            return WebSocketExtension.RSV1;
+        }
+
+        @Override
+        public WebSocketExtensionEncoder newExtensionEncoder() {
+            return new DeflateEncoder(options.pool, options.minSize, serverNoContext);
+        }
+
+        @Override
+        public WebSocketExtensionDecoder newExtensionDecoder() {
+            return new InflateDecoder(options.pool, clientNoContext, options.maxMessageSize);
+        }
+
+        @Override
+        public WebSocketExtensionData newReponseData() {
+            Map<String, String> parameters = new HashMap<>(4);
+            if (serverNoContext) {
+                parameters.put(DeflateOptions.SERVER_NO_CONTEXT, null);
+            }
+            if (clientNoContext) {
+                parameters.put(DeflateOptions.CLIENT_NO_CONTEXT, null);
+            }
+            return new WebSocketExtensionData(DeflateOptions.PERMESSAGE_DEFLATE, parameters);
+        }
+    }
+}
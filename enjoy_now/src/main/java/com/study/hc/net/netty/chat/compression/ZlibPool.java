@@ -0,0 +1,95 @@
+package com.study.hc.net.netty.chat.compression;
+
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayDeque;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Raw (no zlib header) Deflaters and Inflaters kept per event loop, for messages compressed without
+ * context takeover: such a message borrows one, resets and returns it before the codec call ends, so a
+ * loop rarely needs more than one of each however many connections it serves.
+ * <p>
+ * Each pool is only touched by its own thread. The native memory is freed with {@code end()} when an
+ * instance does not fit back into the pool and when the event loop thread terminates.
+ */
+final class ZlibPool {
+
+    private static final int MAX_POOLED = 4;
+
+    private final int level;
+
+    private final FastThreadLocal<ArrayDeque<Deflater>> deflaters = new FastThreadLocal<ArrayDeque<Deflater>>() {
+        @Override
+        protected ArrayDeque<Deflater> initialValue() {
+            return new ArrayDeque<>(MAX_POOLED);
+        }
+
+        @Override
+        protected void onRemoval(ArrayDeque<Deflater> pool) {
+            for (Deflater deflater : pool) {
+                deflater.end();
+            }
+            pool.clear();
+        }
+    };
+
+    private final FastThreadLocal<ArrayDeque<Inflater>> inflaters = new FastThreadLocal<ArrayDeque<Inflater>>() {
+        @Override
+        protected ArrayDeque<Inflater> initialValue() {
+            return new ArrayDeque<>(MAX_POOLED);
+        }
+
+        @Override
+        protected void onRemoval(ArrayDeque<Inflater> pool) {
+            for (Inflater inflater : pool) {
+                inflater.end();
+            }
+            pool.clear();
+        }
+    };
+
+    ZlibPool(int level) {
+        this.level = level;
+    }
+
+    Deflater newDeflater() {
+        return new Deflater(level, true);
+    }
+
+    Inflater newInflater() {
+        return new Inflater(true);
+    }
+
+    Deflater acquireDeflater() {
+        Deflater deflater = deflaters.get().pollFirst();
+        return deflater != null ? deflater : newDeflater();
+    }
+
+    /** Takes back a deflater in the state {@link #acquireDeflater()} handed it out */
+    void releaseDeflater(Deflater deflater) {
+        deflater.reset();
+        ArrayDeque<Deflater> pool = deflaters.get();
+        if (pool.size() < MAX_POOLED) {
+            pool.offerFirst(deflater);
+        } else {
+            deflater.end();
+        }
+    }
+
+    Inflater acquireInflater() {
+        Inflater inflater = inflaters.get().pollFirst();
+        return inflater != null ? inflater : newInflater();
+    }
+
+    void releaseInflater(Inflater inflater) {
+        inflater.reset();
+        ArrayDeque<Inflater> pool = inflaters.get();
+        if (pool.size() < MAX_POOLED) {
+            pool.offerFirst(inflater);
+        } else {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.study.hc.net.netty.chat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.Channel;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.ChannelMatcher;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.util.concurrent.GlobalEventExecutor;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named rooms of WebSocket channels with fan-out of each message to every member.
+ * <p>
+ * A message is encoded once into a complete, unmasked WebSocket frame in a pooled direct buffer, and
+ * each member gets a retained duplicate of it: N members cost one encode and N small duplicate objects,
+ * not N frames. The raw frame bytes pass through the frame encoders, which only handle
+ * {@code WebSocketFrame}s, so broadcasts go out uncompressed even when permessage-deflate was
+ * negotiated (the extension allows that per message, and shared bytes cannot carry a per-connection
+ * deflate context).
+ * <p>
+ * Membership uses a {@link ChannelGroup} per room. A room exists only while it has members: it is created
+ * by the first {@link #join} and removed when its last member leaves. Both the number of rooms and the
+ * length of their names are capped, so clients cannot grow the hub without bound by joining made-up
+ * rooms. A member
+ * whose outbound buffer is past the high water mark ({@code Channel#isWritable()} is false) gets
+ * the {@link SlowConsumerPolicy} instead of the message, so one slow reader cannot make the server
+ * buffer without bound.
+ */
+public final class BroadcastHub {
+
+    public enum SlowConsumerPolicy {
+        /** skip the message for that member, it stays in the room */
+        DROP,
+        /** close the member's connection */
+        DISCONNECT
+    }
+
+    public static final int DEFAULT_MAX_ROOMS = 10000;
+    public static final int DEFAULT_MAX_ROOM_NAME_LENGTH = 64;
+
+    private static final int OPCODE_TEXT = 0x1;
+
+    private final SlowConsumerPolicy policy;
+    private final ByteBufAllocator alloc;
+    private final int maxRooms;
+    private final int maxRoomNameLength;
+    private final ConcurrentMap<String, Room> rooms = new ConcurrentHashMap<>();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder disconnected = new LongAdder();
+    private final ChannelMatcher writable = this::writableOrSlow;
+
+    public BroadcastHub(SlowConsumerPolicy policy) {
+        this(policy, DEFAULT_MAX_ROOMS, DEFAULT_MAX_ROOM_NAME_LENGTH);
+    }
+
+    public BroadcastHub(SlowConsumerPolicy policy, int maxRooms, int maxRoomNameLength) {
+        this(policy, PooledByteBufAllocator.DEFAULT, maxRooms, maxRoomNameLength);
+    }
+
+    public BroadcastHub(SlowConsumerPolicy policy, ByteBufAllocator alloc, int maxRooms, int maxRoomNameLength) {
+        if (maxRooms < 1 || maxRoomNameLength < 1) {
+            throw new IllegalArgumentException("maxRooms: " + maxRooms + ", maxRoomNameLength: " + maxRoomNameLength);
+        }
+        this.policy = policy;
+        this.alloc = alloc;
+        this.maxRooms = maxRooms;
+        this.maxRoomNameLength = maxRoomNameLength;
+    }
+
+    /**
+     * Adds a channel whose WebSocket handshake has completed to the room of that name, creating the room
+     * if it has no members yet. The channel has to {@link Room#leave} it again, also when it closes, or
+     * the room is never removed.
+     *
+     * @return the room, or null if the name is empty or too long, or the room would exceed the room limit
+     */
+    public Room join(String name, Channel channel) {
+        if (name.isEmpty() || name.length() > maxRoomNameLength) {
+            return null;
+        }
+        // atomic per name against the last member's leave() removing the room
+        return rooms.compute(name, (n, room) -> {
+            if (room == null) {
+                if (rooms.size() >= maxRooms) {
+                    return null;
+                }
+                room = new Room(n);
+            }
+            room.members.add(channel);
+            return room;
+        });
+    }
+
+    public int maxRooms() {
+        return maxRooms;
+    }
+
+    public int maxRoomNameLength() {
+        return maxRoomNameLength;
+    }
+
+    /** Rooms that currently have members */
+    public int roomCount() {
+        return rooms.size();
+    }
+
+    /** Messages not delivered to a slow member under {@link SlowConsumerPolicy#DROP} */
+    public long dropped() {
+        return dropped.sum();
+    }
+
+    /** Members closed under {@link SlowConsumerPolicy#DISCONNECT} */
+    public long disconnected() {
+        return disconnected.sum();
+    }
+
+    private boolean writableOrSlow(Channel channel) {
+        if (channel.isWritable()) {
+            return true;
+        }
+        if (policy == SlowConsumerPolicy.DISCONNECT) {
+            disconnected.increment();
+            channel.close();
+        } else {
+            dropped.increment();
+        }
+        return false;
+    }
+
+    /**
+     * Encodes a final, unmasked text frame: header and UTF-8 payload in one buffer
+     */
+    static ByteBuf encodeTextFrame(ByteBufAllocator alloc, CharSequence text) {
+        int length = ByteBufUtil.utf8Bytes(text);
+        ByteBuf frame = textFrameHeader(alloc, length);
+        ByteBufUtil.writeUtf8(frame, text);
+        return frame;
+    }
+
+    /**
+     * Encodes a final, unmasked text frame from an already UTF-8 encoded payload, a plain copy.
+     * The payload's indexes are unchanged.
+     */
+    static ByteBuf encodeTextFrame(ByteBufAllocator alloc, ByteBuf utf8) {
+        int length = utf8.readableBytes();
+        ByteBuf frame = textFrameHeader(alloc, length);
+        frame.writeBytes(utf8, utf8.readerIndex(), length);
+        return frame;
+    }
+
+    /** A buffer sized for the whole frame, holding its header */
+    private static ByteBuf textFrameHeader(ByteBufAllocator alloc, int length) {
+        int headerLength = length < 126 ? 2 : length <= 0xFFFF ? 4 : 10;
+        ByteBuf frame = alloc.directBuffer(headerLength + length);
+        frame.writeByte(0x80 | OPCODE_TEXT);
+        if (length < 126) {
+            frame.writeByte(length);
+        } else if (length <= 0xFFFF) {
+            frame.writeByte(126);
+            frame.writeShort(length);
+        } else {
+            frame.writeByte(127);
+            frame.writeLong(length);
+        }
+        return frame;
+    }
+
+    public final class Room {
+        private final String name;
+        private final ChannelGroup members;
+
+        private Room(String name) {
+            this.name = name;
+            this.members = new DefaultChannelGroup(name, GlobalEventExecutor.INSTANCE);
+        }
+
+        public String name() {
+            return name;
+        }
+
+        /**
+         * Removes the channel, and the room from the hub if that was its last member. A closed channel
+         * has already left the group by itself, this still removes the emptied room.
+         */
+        public void leave(Channel channel) {
+            rooms.computeIfPresent(name, (n, room) -> {
+                if (room != this) {
+                    return room;
+                }
+                members.remove(channel);
+                return members.isEmpty() ? null : this;
+            });
+        }
+
+        public int size() {
+            return members.size();
+        }
+
+        /**
+         * Sends a text message to every member, encoded once. Can be called from any thread; writes to
+         * members on other event loops are handed to those loops.
+         */
+        public void broadcast(CharSequence text) {
+            if (members.isEmpty()) {
+                return;
+            }
+            // the group writes a retained duplicate per member and releases this reference afterwards
+            members.writeAndFlush(encodeTextFrame(alloc, text), writable, true);
+        }
+
+        /**
+         * Same for a message that is already UTF-8 bytes, copied into the frame as is without decoding.
+         * The payload stays owned by the caller, its indexes are unchanged.
+         */
+        public void broadcast(ByteBuf utf8) {
+            if (members.isEmpty()) {
+                return;
+            }
+            members.writeAndFlush(encodeTextFrame(alloc, utf8), writable, true);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.study.hc.net.netty.chat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.util.AsciiString;
+import io.netty.util.CharsetUtil;
+
+/**
+ * Chat over a {@link BroadcastHub}: the connection joins the "lobby" room once its handshake is done,
+ * messages are broadcast to all members of the current room (the sender included), and
+ * {@code /join <room>} switches rooms. Messages go from the received payload into the shared frame
+ * with one copy, never becoming Strings. A join the hub rejects (name too long, too many rooms) is
+ * answered with an error message and the connection stays in its room; the connection leaves its room
+ * when it closes, so emptied rooms are removed.
+ */
+public class ChatMessageHandler implements TextMessageHandler {
+
+    static final String DEFAULT_ROOM = "lobby";
+    private static final AsciiString JOIN = AsciiString.cached("/join ");
+
+    private final BroadcastHub hub;
+    private BroadcastHub.Room room;
+
+    public ChatMessageHandler(BroadcastHub hub) {
+        this.hub = hub;
+    }
+
+    @Override
+    public void handshakeComplete(ChannelHandlerContext ctx) {
+        room = hub.join(DEFAULT_ROOM, ctx.channel());
+        if (room == null) {
+            ctx.writeAndFlush(new TextWebSocketFrame("too many rooms")).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+        // runs on the event loop like the other callbacks, so room is the current one
+        ctx.channel().closeFuture().addListener(f -> room.leave(ctx.channel()));
+    }
+
+    @Override
+    public void onText(ChannelHandlerContext ctx, ByteBuf payload) {
+        if (room == null) {
+            return;
+        }
+        if (Utf8Transforms.startsWith(payload, JOIN)) {
+            int length = payload.readableBytes() - JOIN.length();
+            // a char is at most 3 UTF-8 bytes, don't decode what is too long anyway (the hub checks the exact limit)
+            String name = length > hub.maxRoomNameLength() * 3 ? null
+                    : payload.toString(payload.readerIndex() + JOIN.length(), length, CharsetUtil.UTF_8).trim();
+            if (name != null && name.equals(room.name())) {
+                return;
+            }
+            // join first, so the connection stays where it is if the hub says no
+            BroadcastHub.Room joined = name == null ? null : hub.join(name, ctx.channel());
+            if (joined == null) {
+                ctx.writeAndFlush(new TextWebSocketFrame("join rejected: room name must be 1-"
+                        + hub.maxRoomNameLength() + " characters and at most " + hub.maxRooms() + " rooms can exist"));
+                return;
+            }
+            room.leave(ctx.channel());
+            room = joined;
+        } else {
+            room.broadcast(payload);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.study.hc.net.netty.chat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+
+/**
+ * Application logic for text messages, plugged into {@link WebSocketFrameHandler}. It sees the UTF-8
+ * payload as a {@link ByteBuf} instead of a decoded String, so a message can be inspected, transformed
+ * (see {@link Utf8Transforms}) and sent on without a charset pass or a heap copy.
+ * <p>
+ * One instance per channel, called on its event loop.
+ */
+public interface TextMessageHandler {
+
+    /**
+     * The WebSocket handshake of the channel has completed
+     */
+    default void handshakeComplete(ChannelHandlerContext ctx) throws Exception {
+    }
+
+    /**
+     * A complete text message. The payload is valid UTF-8 (checked by the protocol handler), owned by this
+     * message alone and released after the call: it may be modified in place, and must be retained to be
+     * used afterwards, e.g. written out.
+     */
+    void onText(ChannelHandlerContext ctx, ByteBuf payload) throws Exception;
+
+    /**
+     * A complete binary message, same ownership rules as {@link #onText}. Not supported unless overridden:
+     * the exception closes the connection.
+     */
+    default void onBinary(ChannelHandlerContext ctx, ByteBuf payload) throws Exception {
+        throw new UnsupportedOperationException("unsupported frame type: binary");
+    }
+}
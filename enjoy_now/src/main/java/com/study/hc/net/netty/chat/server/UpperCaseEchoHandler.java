@@ -0,0 +1,26 @@
+package com.study.hc.net.netty.chat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+
+/**
+ * Echoes text messages back in upper case (ASCII letters, see {@link Utf8Transforms}), binary messages as is. The received
+ * payload is upper-cased in place and written back as the new frame's content: no String, no second
+ * buffer, one small frame object per message.
+ */
+public class UpperCaseEchoHandler implements TextMessageHandler {
+
+    @Override
+    public void onText(ChannelHandlerContext ctx, ByteBuf payload) {
+        Utf8Transforms.toUpperCaseAscii(payload);
+        ctx.writeAndFlush(new TextWebSocketFrame(payload.retain()));
+    }
+
+    /** Binary messages come back unchanged */
+    @Override
+    public void onBinary(ChannelHandlerContext ctx, ByteBuf payload) {
+        ctx.writeAndFlush(new BinaryWebSocketFrame(payload.retain()));
+    }
+}
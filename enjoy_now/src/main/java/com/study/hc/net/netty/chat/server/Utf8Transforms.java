@@ -0,0 +1,84 @@
+package com.study.hc.net.netty.chat.server;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.AsciiString;
+
+/**
+ * Byte-level transforms of UTF-8 payloads in ByteBufs, no decoding to String.
+ * <p>
+ * Case mapping covers ASCII letters only: every byte of a multi-byte UTF-8 sequence has its high
+ * bit set and is left alone, so the result is still valid UTF-8, but unlike
+ * {@code String.toUpperCase(Locale.US)} letters outside ASCII keep their case. Eight bytes are
+ * tested and mapped at once with word arithmetic, one byte at a time only for the tail.
+ */
+public final class Utf8Transforms {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_7_BITS = 0x7F7F7F7F7F7F7F7FL;
+
+    private Utf8Transforms() {
+    }
+
+    /**
+     * Upper-cases the readable bytes in place, indexes unchanged
+     */
+    public static void toUpperCaseAscii(ByteBuf buf) {
+        toUpperCaseAscii(buf, buf.readerIndex(), buf.writerIndex());
+    }
+
+    /**
+     * Writes the upper-cased readable bytes of src to dst; src's indexes are unchanged
+     */
+    public static void toUpperCaseAscii(ByteBuf src, ByteBuf dst) {
+        int length = src.readableBytes();
+        int start = dst.writerIndex();
+        dst.writeBytes(src, src.readerIndex(), length);
+        toUpperCaseAscii(dst, start, start + length);
+    }
+
+    private static void toUpperCaseAscii(ByteBuf buf, int i, int end) {
+        for (; i + 8 <= end; i += 8) {
+            long word = buf.getLong(i);
+            long lower = lowerCaseMask(word);
+            if (lower != 0) {
+                // 0x80 >>> 2 = 0x20, the case bit
+                buf.setLong(i, word ^ (lower >>> 2));
+            }
+        }
+        for (; i < end; i++) {
+            byte b = buf.getByte(i);
+            if (b >= 'a' && b <= 'z') {
+                buf.setByte(i, b - ('a' - 'A'));
+            }
+        }
+    }
+
+    /**
+     * Whether the readable bytes start with the given ASCII prefix
+     */
+    public static boolean startsWith(ByteBuf buf, AsciiString prefix) {
+        int length = prefix.length();
+        if (buf.readableBytes() < length) {
+            return false;
+        }
+        int start = buf.readerIndex();
+        for (int i = 0; i < length; i++) {
+            if (buf.getByte(start + i) != prefix.byteAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 0x80 in every byte of the word that is an ASCII 'a'..'z', 0 elsewhere. Adding to the low seven
+     * bits of each byte cannot carry into the next one.
+     */
+    private static long lowerCaseMask(long word) {
+        long low7 = word & LOW_7_BITS;
+        long atLeastA = low7 + (0x80 - 'a') * ONES;
+        long aboveZ = low7 + (0x80 - 'z' - 1) * ONES;
+        return atLeastA & ~aboveZ & ~word & HIGH_BITS;
+    }
+}
@@ -15,29 +15,55 @@
  */
 package com.study.hc.net.netty.chat.server;
 
-import java.util.Locale;
+import java.io.IOException;
 
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
 import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
 
 /**
- * Echoes uppercase content of text frames.
+ * Hands the payload of text frames to a {@link TextMessageHandler} as a ByteBuf, without decoding it.
  */
 public class WebSocketFrameHandler extends SimpleChannelInboundHandler<WebSocketFrame> {
 
+    private final TextMessageHandler handler;
+
+    public WebSocketFrameHandler(TextMessageHandler handler) {
+        this.handler = handler;
+    }
+
+    @Override
+    public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+        if (evt instanceof WebSocketServerProtocolHandler.HandshakeComplete) {
+            handler.handshakeComplete(ctx);
+        }
+        super.userEventTriggered(ctx, evt);
+    }
+
     @Override
     protected void channelRead0(ChannelHandlerContext ctx, WebSocketFrame frame) throws Exception {
         // ping and pong frames already handled
 
         if (frame instanceof TextWebSocketFrame) {
-            // Send the uppercase string back.
-            String request = ((TextWebSocketFrame) frame).text();
-            ctx.channel().writeAndFlush(new TextWebSocketFrame(request.toUpperCase(Locale.US)));
+            handler.onText(ctx, frame.content());
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            handler.onBinary(ctx, frame.content());
         } else {
             String message = "unsupported frame type: " + frame.getClass().getName();
             throw new UnsupportedOperationException(message);
         }
     }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        // last handler, also sees the HTTP phase's errors. Broadcasts use void promises, so a failed
+        // write to a member that went away ends up here too
+        if (!(cause instanceof IOException)) {
+            cause.printStackTrace();
+        }
+        ctx.close();
+    }
 }
@@ -15,6 +15,8 @@
  */
 package com.study.hc.net.netty.chat.server;
 
+import com.study.hc.net.netty.http.RouteMatch;
+import com.study.hc.net.netty.http.Router;
 import io.netty.buffer.ByteBuf;
 import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelFuture;
@@ -43,7 +45,13 @@ import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
  */
 public class WebSocketIndexPageHandler extends SimpleChannelInboundHandler<FullHttpRequest> {
 
+    private static final Router ROUTER = Router.builder()
+            .get("/", WebSocketIndexPageHandler::sendIndexPage)
+            .get("/index.html", WebSocketIndexPageHandler::sendIndexPage)
+            .build();
+
     private final String websocketPath;
+    private final RouteMatch match = new RouteMatch(ROUTER.maxParams());
 
     public WebSocketIndexPageHandler(String websocketPath) {
         this.websocketPath = websocketPath;
@@ -64,27 +72,26 @@ public class WebSocketIndexPageHandler extends SimpleChannelInboundHandler<FullH
         }
 
         // Send the index page
-        if ("/".equals(req.uri()) || "/index.html".equals(req.uri())) {
-            String webSocketLocation = getWebSocketLocation(ctx.pipeline(), req, websocketPath);
-            ByteBuf content = WebSocketServerIndexPage.getContent(webSocketLocation);
-            FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
-
-            res.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
-            HttpUtil.setContentLength(res, content.readableBytes());
-
-            sendHttpResponse(ctx, req, res);
+        if (ROUTER.route(req.method(), req.uri(), match) == RouteMatch.Status.FOUND) {
+            match.handler().handle(ctx, req, match);
         } else {
             sendHttpResponse(ctx, req, new DefaultFullHttpResponse(HTTP_1_1, NOT_FOUND));
         }
     }
 
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
-        ctx.close();
+    private static void sendIndexPage(ChannelHandlerContext ctx, HttpRequest req, RouteMatch match) {
+        String websocketPath = ((WebSocketIndexPageHandler) ctx.handler()).websocketPath;
+        String webSocketLocation = getWebSocketLocation(ctx.pipeline(), req, websocketPath);
+        ByteBuf content = WebSocketServerIndexPage.getContent(webSocketLocation);
+        FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, "text/html; charset=UTF-8");
+        HttpUtil.setContentLength(res, content.readableBytes());
+
+        sendHttpResponse(ctx, req, res);
     }
 
-    private static void sendHttpResponse(ChannelHandlerContext ctx, FullHttpRequest req, FullHttpResponse res) {
+    private static void sendHttpResponse(ChannelHandlerContext ctx, HttpRequest req, FullHttpResponse res) {
         // Generate an error page if response getStatus code is not OK (200).
         if (res.status().code() != 200) {
             ByteBuf buf = Unpooled.copiedBuffer(res.status().toString(), CharsetUtil.UTF_8);
@@ -15,17 +15,17 @@
  */
 package com.study.hc.net.netty.chat.server;
 
+import com.study.hc.net.netty.ServerTransport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
 import io.netty.handler.ssl.SslContextBuilder;
 import io.netty.handler.ssl.util.SelfSignedCertificate;
 
+import java.util.Locale;
+
 /**
  * A HTTP server which serves Web Socket requests at:
  *
@@ -44,11 +44,24 @@ import io.netty.handler.ssl.util.SelfSignedCertificate;
  * <li>Firefox 7+ (draft-ietf-hybi-thewebsocketprotocol-10)
  * <li>Firefox 11+ (RFC 6455 aka draft-ietf-hybi-thewebsocketprotocol-17)
  * </ul>
+ *
+ * Transport, event loop sizing and socket options come from the {@code netty.*} system properties,
+ * see {@link ServerTransport}. Members that fall behind by more than the write buffer high water mark
+ * are handled per {@code -DslowConsumer=drop|disconnect} (default drop), see {@link BroadcastHub}.
+ * {@code -DmaxRooms} and {@code -DmaxRoomNameLength} limit the rooms clients can create with {@code /join}.
+ * {@code -Dmode=echo} replaces the chat rooms with the upper-case echo, see {@link UpperCaseEchoHandler}.
+ * Compression is configured with the {@code ws.deflate.*} system properties, see
+ * {@link com.study.hc.net.netty.chat.compression.DeflateOptions}.
  */
 public final class WebSocketServer {
 
     static final boolean SSL = System.getProperty("ssl") != null;
     static final int PORT = Integer.parseInt(System.getProperty("port", SSL? "8443" : "8080"));
+    static final BroadcastHub.SlowConsumerPolicy SLOW_CONSUMER =
+            BroadcastHub.SlowConsumerPolicy.valueOf(System.getProperty("slowConsumer", "drop").toUpperCase(Locale.ROOT));
+    static final int MAX_ROOMS = Integer.getInteger("maxRooms", BroadcastHub.DEFAULT_MAX_ROOMS);
+    static final int MAX_ROOM_NAME_LENGTH = Integer.getInteger("maxRoomNameLength", BroadcastHub.DEFAULT_MAX_ROOM_NAME_LENGTH);
+    static final boolean ECHO = "echo".equals(System.getProperty("mode", "chat"));
 
     public static void main(String[] args) throws Exception {
         // Configure SSL.
@@ -60,24 +73,23 @@ public final class WebSocketServer {
             sslCtx = null;
         }
 
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        ServerTransport transport = ServerTransport.fromSystemProperties().build();
         try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.group(bossGroup, workerGroup)
-             .channel(NioServerSocketChannel.class)
-             .handler(new LoggingHandler(LogLevel.INFO))
-             .childHandler(new WebSocketServerInitializer(sslCtx));
+            ServerBootstrap b = transport.configure(new ServerBootstrap());
+            b.handler(new LoggingHandler(LogLevel.INFO))
+             .childHandler(ECHO
+                     ? new WebSocketServerInitializer(sslCtx, transport, UpperCaseEchoHandler::new)
+                     : new WebSocketServerInitializer(sslCtx, transport, new BroadcastHub(SLOW_CONSUMER, MAX_ROOMS, MAX_ROOM_NAME_LENGTH)));
 
-            Channel ch = b.bind(PORT).sync().channel();
+            Channel ch = transport.bind(b, PORT).get(0);
+            System.out.println(transport);
 
             System.out.println("Open your web browser and navigate to " +
                     (SSL? "https" : "http") + "://127.0.0.1:" + PORT + '/');
 
             ch.closeFuture().sync();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            transport.shutdownGracefully();
         }
     }
 }
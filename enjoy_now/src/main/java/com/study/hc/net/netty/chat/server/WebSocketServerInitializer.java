@@ -15,15 +15,19 @@
  */
 package com.study.hc.net.netty.chat.server;
 
+import com.study.hc.net.netty.ServerTransport;
+import com.study.hc.net.netty.chat.compression.DeflateOptions;
+import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpObjectAggregator;
 import io.netty.handler.codec.http.HttpServerCodec;
 import io.netty.handler.codec.http.websocketx.WebSocketServerProtocolHandler;
-import io.netty.handler.codec.http.websocketx.extensions.compression.WebSocketServerCompressionHandler;
 import io.netty.handler.ssl.SslContext;
 
+import java.util.function.Supplier;
+
 /**
  */
 public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel> {
@@ -31,9 +35,36 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
     private static final String WEBSOCKET_PATH = "/websocket";
 
     private final SslContext sslCtx;
+    private final ServerTransport transport;
+    private final Supplier<? extends TextMessageHandler> messageHandlers;
+    private final DeflateOptions deflate;
+
+    public WebSocketServerInitializer(SslContext sslCtx, ServerTransport transport) {
+        this(sslCtx, transport, new BroadcastHub(BroadcastHub.SlowConsumerPolicy.DROP));
+    }
+
+    /** Chat over the given hub */
+    public WebSocketServerInitializer(SslContext sslCtx, ServerTransport transport, BroadcastHub hub) {
+        this(sslCtx, transport, () -> new ChatMessageHandler(hub));
+    }
+
+    /**
+     * @param messageHandlers creates the text message handler of each channel
+     */
+    public WebSocketServerInitializer(SslContext sslCtx, ServerTransport transport,
+                                      Supplier<? extends TextMessageHandler> messageHandlers) {
+        this(sslCtx, transport, messageHandlers, DeflateOptions.fromSystemProperties().build());
+    }
 
-    public WebSocketServerInitializer(SslContext sslCtx) {
+    /**
+     * @param deflate permessage-deflate settings, see {@link DeflateOptions}
+     */
+    public WebSocketServerInitializer(SslContext sslCtx, ServerTransport transport,
+                                      Supplier<? extends TextMessageHandler> messageHandlers, DeflateOptions deflate) {
         this.sslCtx = sslCtx;
+        this.transport = transport;
+        this.messageHandlers = messageHandlers;
+        this.deflate = deflate;
     }
 
     @Override
@@ -44,9 +75,14 @@ public class WebSocketServerInitializer extends ChannelInitializer<SocketChannel
         }
         pipeline.addLast(new HttpServerCodec());
         pipeline.addLast(new HttpObjectAggregator(65536));
-        pipeline.addLast(new WebSocketServerCompressionHandler());
+        ChannelHandler compression = deflate.newServerHandler();
+        if (compression != null) {
+            pipeline.addLast(compression);
+        }
         pipeline.addLast(new WebSocketServerProtocolHandler(WEBSOCKET_PATH, null, true));
         pipeline.addLast(new WebSocketIndexPageHandler(WEBSOCKET_PATH));
-        pipeline.addLast(new WebSocketFrameHandler());
+        pipeline.addLast(new WebSocketFrameHandler(messageHandlers.get()));
+        // Message handlers call writeAndFlush per frame; frames read together go out in one flush
+        transport.addFlushConsolidation(pipeline);
     }
 }
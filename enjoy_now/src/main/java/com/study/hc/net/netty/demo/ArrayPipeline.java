@@ -0,0 +1,354 @@
+package com.study.hc.net.netty.demo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.function.UnaryOperator;
+
+// -----数组形式调用------和PipelineDemo的链表对比, 见PipelineBenchmark
+
+/**
+ * 可以执行的责任链: 处理器放在数组中, 修改时编译成一个不可变的快照.
+ * <ul>
+ * <li>编译时为每个上下文算好每种事件的下一个处理器, 没有覆盖某个事件的处理器直接跳过, 见{@link PipelineContext}</li>
+ * <li>事件分为入站(active、read、exception, 从前往后)和出站(write、flush, 从后往前), 出站事件走到头交给{@link Transport}</li>
+ * <li>修改(addLast、remove等)是写时复制: 复制数组、重新编译, 再用CAS替换快照, 失败就重试. 传递事件只读一次volatile,
+ * 读写双方都不加锁; 正在传递的事件继续用旧快照</li>
+ * </ul>
+ * 修改是O(n)的, 但比传递事件少得多; 传递事件是O(真正处理这个事件的处理器数量).
+ */
+public final class ArrayPipeline {
+
+    /**
+     * 出站事件的终点, 比如真正写到socket
+     */
+    public interface Transport {
+        void write(Object msg) throws Exception;
+
+        void flush() throws Exception;
+    }
+
+    private static final AtomicReferenceFieldUpdater<ArrayPipeline, Chain> CHAIN =
+            AtomicReferenceFieldUpdater.newUpdater(ArrayPipeline.class, Chain.class, "chain");
+
+    private final Transport transport;
+    private final PipelineHandler head = new HeadHandler();
+    private final PipelineHandler tail = new TailHandler();
+    private volatile Chain chain;
+
+    public ArrayPipeline(Transport transport) {
+        this.transport = transport;
+        this.chain = new Chain(new String[0], new PipelineHandler[0]);
+    }
+
+    // ------ 修改 ------
+
+    public ArrayPipeline addFirst(String name, PipelineHandler handler) {
+        update(c -> c.insert(0, name, handler));
+        return this;
+    }
+
+    public ArrayPipeline addLast(String name, PipelineHandler handler) {
+        update(c -> c.insert(c.names.length, name, handler));
+        return this;
+    }
+
+    /**
+     * 加在名字为baseName的处理器之前
+     *
+     * @throws IllegalArgumentException 没有baseName, 或者name已经存在
+     */
+    public ArrayPipeline addBefore(String baseName, String name, PipelineHandler handler) {
+        update(c -> c.insert(c.indexOfExisting(baseName), name, handler));
+        return this;
+    }
+
+    public ArrayPipeline addAfter(String baseName, String name, PipelineHandler handler) {
+        update(c -> c.insert(c.indexOfExisting(baseName) + 1, name, handler));
+        return this;
+    }
+
+    /**
+     * @return 被删除的处理器, 没有这个名字返回null
+     */
+    public PipelineHandler remove(String name) {
+        Chain removedFrom = update(c -> {
+            int index = c.indexOf(name);
+            return index < 0 ? null : c.remove(index);
+        });
+        return removedFrom == null ? null : removedFrom.handlers[removedFrom.indexOf(name)];
+    }
+
+    /**
+     * 用newHandler替换名字为name的处理器, 新的名字是newName
+     *
+     * @return 被替换的处理器
+     * @throws IllegalArgumentException 没有name, 或者newName和其它处理器重名
+     */
+    public PipelineHandler replace(String name, String newName, PipelineHandler newHandler) {
+        Chain replacedIn = update(c -> {
+            int index = c.indexOfExisting(name);
+            return c.remove(index).insert(index, newName, newHandler);
+        });
+        return replacedIn.handlers[replacedIn.indexOf(name)];
+    }
+
+    /**
+     * CAS替换快照, 直到成功. change返回null表示不需要修改
+     *
+     * @return 被替换掉的快照, 没有修改返回null
+     */
+    private Chain update(UnaryOperator<Chain> change) {
+        for (;;) {
+            Chain current = chain;
+            Chain next = change.apply(current);
+            if (next == null) {
+                return null;
+            }
+            if (CHAIN.compareAndSet(this, current, next)) {
+                return current;
+            }
+        }
+    }
+
+    public PipelineHandler get(String name) {
+        Chain c = chain;
+        int index = c.indexOf(name);
+        return index < 0 ? null : c.handlers[index];
+    }
+
+    public List<String> names() {
+        return Collections.unmodifiableList(Arrays.asList(chain.names));
+    }
+
+    // ------ 事件入口, 入站从head开始, 出站从tail开始 ------
+
+    public void fireChannelActive() {
+        chain.head.nextActive.invokeChannelActive();
+    }
+
+    public void fireChannelRead(Object msg) {
+        chain.head.nextRead.invokeChannelRead(msg);
+    }
+
+    public void fireExceptionCaught(Throwable cause) {
+        chain.head.nextException.invokeExceptionCaught(cause);
+    }
+
+    public void write(Object msg) {
+        chain.tail.prevWrite.invokeWrite(msg);
+    }
+
+    public void flush() {
+        chain.tail.prevFlush.invokeFlush();
+    }
+
+    public void writeAndFlush(Object msg) {
+        // 同一个快照上写出和flush
+        PipelineContext tail = chain.tail;
+        tail.write(msg);
+        tail.flush();
+    }
+
+    @Override
+    public String toString() {
+        return "ArrayPipeline" + names();
+    }
+
+    /**
+     * 一个编译好的快照, 创建之后不再修改
+     */
+    private final class Chain {
+        final String[] names;
+        final PipelineHandler[] handlers;
+        /** head, 用户的处理器, tail */
+        final PipelineContext[] contexts;
+        final PipelineContext head;
+        final PipelineContext tail;
+
+        Chain(String[] names, PipelineHandler[] handlers) {
+            this.names = names;
+            this.handlers = handlers;
+            int n = names.length;
+            contexts = new PipelineContext[n + 2];
+            contexts[0] = new PipelineContext("head", ArrayPipeline.this.head, ArrayPipeline.this);
+            for (int i = 0; i < n; i++) {
+                contexts[i + 1] = new PipelineContext(names[i], handlers[i], ArrayPipeline.this);
+            }
+            contexts[n + 1] = new PipelineContext("tail", ArrayPipeline.this.tail, ArrayPipeline.this);
+            head = contexts[0];
+            tail = contexts[n + 1];
+            link();
+        }
+
+        /**
+         * 入站从后往前扫, 出站从前往后扫, 记下每种事件最近一个覆盖了它的处理器. tail处理所有入站事件, head处理所有出站事件
+         */
+        private void link() {
+            PipelineContext active = null;
+            PipelineContext read = null;
+            PipelineContext exception = null;
+            for (int i = contexts.length - 1; i >= 0; i--) {
+                PipelineContext ctx = contexts[i];
+                ctx.nextActive = active;
+                ctx.nextRead = read;
+                ctx.nextException = exception;
+                if (ctx.handles(PipelineContext.MASK_ACTIVE)) {
+                    active = ctx;
+                }
+                if (ctx.handles(PipelineContext.MASK_READ)) {
+                    read = ctx;
+                }
+                if (ctx.handles(PipelineContext.MASK_EXCEPTION)) {
+                    exception = ctx;
+                }
+            }
+            PipelineContext write = null;
+            PipelineContext flush = null;
+            for (PipelineContext ctx : contexts) {
+                ctx.prevWrite = write;
+                ctx.prevFlush = flush;
+                if (ctx.handles(PipelineContext.MASK_WRITE)) {
+                    write = ctx;
+                }
+                if (ctx.handles(PipelineContext.MASK_FLUSH)) {
+                    flush = ctx;
+                }
+            }
+        }
+
+        int indexOf(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (names[i].equals(name)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        int indexOfExisting(String name) {
+            int index = indexOf(name);
+            if (index < 0) {
+                throw new IllegalArgumentException("没有这个处理器: " + name);
+            }
+            return index;
+        }
+
+        Chain insert(int index, String name, PipelineHandler handler) {
+            if (indexOf(name) >= 0) {
+                throw new IllegalArgumentException("处理器重名: " + name);
+            }
+            List<String> newNames = new ArrayList<>(Arrays.asList(names));
+            List<PipelineHandler> newHandlers = new ArrayList<>(Arrays.asList(handlers));
+            newNames.add(index, name);
+            newHandlers.add(index, handler);
+            return new Chain(newNames.toArray(new String[0]), newHandlers.toArray(new PipelineHandler[0]));
+        }
+
+        Chain remove(int index) {
+            List<String> newNames = new ArrayList<>(Arrays.asList(names));
+            List<PipelineHandler> newHandlers = new ArrayList<>(Arrays.asList(handlers));
+            newNames.remove(index);
+            newHandlers.remove(index);
+            return new Chain(newNames.toArray(new String[0]), newHandlers.toArray(new PipelineHandler[0]));
+        }
+    }
+
+    /**
+     * 出站事件的终点, 交给transport
+     */
+    private final class HeadHandler extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) throws Exception {
+            transport.write(msg);
+        }
+
+        @Override
+        public void flush(PipelineContext ctx) throws Exception {
+            transport.flush();
+        }
+    }
+
+    /**
+     * 入站事件的终点: 没有处理器处理的消息丢掉, 异常打印出来
+     */
+    private static final class TailHandler extends PipelineHandler {
+        @Override
+        public void channelActive(PipelineContext ctx) {
+        }
+
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+        }
+
+        @Override
+        public void exceptionCaught(PipelineContext ctx, Throwable cause) {
+            System.err.println("异常传到了责任链的末尾, 没有处理器处理:");
+            cause.printStackTrace();
+        }
+    }
+
+    public static void main(String[] args) {
+        ArrayPipeline pipeline = new ArrayPipeline(new Transport() {
+            @Override
+            public void write(Object msg) {
+                System.out.println("写出: " + msg);
+            }
+
+            @Override
+            public void flush() {
+                System.out.println("flush");
+            }
+        });
+        pipeline.addLast("handler1", new TailAppender("handler1"))
+                .addLast("handler2", new TailAppender("handler2"))
+                .addLast("encoder", new Encoder())
+                .addLast("business", new Business());
+        System.out.println(pipeline);
+        pipeline.fireChannelRead("火车呜呜呜~~");
+
+        // 运行时修改, 下一个事件就用新的快照
+        pipeline.remove("handler1");
+        pipeline.addFirst("handler3", new TailAppender("handler3"));
+        System.out.println(pipeline);
+        pipeline.fireChannelRead("火车呜呜呜~~");
+    }
+
+    /**
+     * 只处理String, 在消息后面加一个尾巴
+     */
+    static final class TailAppender extends TypedInboundHandler<String> {
+        private final String name;
+
+        TailAppender(String name) {
+            super(String.class);
+            this.name = name;
+        }
+
+        @Override
+        protected void read(PipelineContext ctx, String msg) {
+            msg = msg + ".." + name + "的小尾巴.....";
+            System.out.println("我是" + name + "，我在处理：" + msg);
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    /**
+     * 只处理出站的write, 入站事件编译时就跳过了它
+     */
+    static final class Encoder extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) {
+            ctx.write("[" + msg + "]");
+        }
+    }
+
+    static final class Business extends PipelineHandler {
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+            ctx.writeAndFlush("收到" + msg.toString().length() + "个字符");
+        }
+    }
+}
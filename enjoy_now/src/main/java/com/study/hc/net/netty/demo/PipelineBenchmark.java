@@ -0,0 +1,319 @@
+package com.study.hc.net.netty.demo;
+
+/**
+ * 对比{@link PipelineDemo}的链表责任链和{@link ArrayPipeline}传递一个入站事件的开销(纳秒/事件).
+ * <p>
+ * 两种场景, 都是8个处理器, 用4个不同的类(真实的pipeline中调用点也是多态的):
+ * <ul>
+ * <li>全部处理: 8个处理器都处理read, 计数后传给下一个</li>
+ * <li>跳过: 只有2个处理read, 其它6个只处理出站事件. 链表只能逐个调用再原样往后传, ArrayPipeline编译时就跳过了它们</li>
+ * </ul>
+ * 没有用JMH(项目没有这个依赖), 每轮传递一千万个事件, 先预热几轮, 输出之后各轮中最快的一轮.
+ * <pre>
+ * java com.study.hc.net.netty.demo.PipelineBenchmark
+ * </pre>
+ */
+public class PipelineBenchmark {
+
+    static final int HANDLERS = 8;
+    static final int EVENTS = Integer.getInteger("events", 10_000_000);
+    static final int WARMUP_ROUNDS = 5;
+    static final int ROUNDS = 5;
+
+    public static void main(String[] args) {
+        Object msg = "msg";
+        Counter counter = new Counter();
+
+        // 1、 全部处理
+        PipelineDemo linked = new PipelineDemo();
+        ArrayPipeline array = new ArrayPipeline(counter);
+        for (int i = 0; i < HANDLERS; i++) {
+            linked.addLast(linkedCounting(i, counter));
+            array.addLast("h" + i, arrayCounting(i, counter));
+        }
+        // 2、 只有第一个和最后一个处理read, 中间的只处理出站
+        PipelineDemo linkedSkip = new PipelineDemo();
+        ArrayPipeline arraySkip = new ArrayPipeline(counter);
+        for (int i = 0; i < HANDLERS; i++) {
+            boolean reads = i == 0 || i == HANDLERS - 1;
+            linkedSkip.addLast(reads ? linkedCounting(i, counter) : linkedPassThrough(i));
+            arraySkip.addLast("h" + i, reads ? arrayCounting(i, counter) : arrayOutbound(i));
+        }
+
+        System.out.printf("%-24s %12s%n", "", "ns/事件");
+        report("链表, 全部处理", () -> {
+            for (int i = 0; i < EVENTS; i++) {
+                linked.requestProcess(msg);
+            }
+        });
+        report("ArrayPipeline, 全部处理", () -> {
+            for (int i = 0; i < EVENTS; i++) {
+                array.fireChannelRead(msg);
+            }
+        });
+        report("链表, 6个跳过", () -> {
+            for (int i = 0; i < EVENTS; i++) {
+                linkedSkip.requestProcess(msg);
+            }
+        });
+        report("ArrayPipeline, 6个跳过", () -> {
+            for (int i = 0; i < EVENTS; i++) {
+                arraySkip.fireChannelRead(msg);
+            }
+        });
+        // 防止计数被JIT优化掉
+        System.out.println("计数: " + counter.count);
+    }
+
+    private static void report(String name, Runnable round) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-24s %12.2f%n", name, (double) best / EVENTS);
+    }
+
+    /**
+     * 计数, 也是ArrayPipeline的出站终点(这里不会用到)
+     */
+    static final class Counter implements ArrayPipeline.Transport {
+        long count;
+
+        @Override
+        public void write(Object msg) {
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    // ------ 链表版本的处理器 ------
+
+    private static AbstractHandler linkedCounting(int i, Counter counter) {
+        switch (i % 4) {
+            case 0:
+                return new LinkedCounting0(counter);
+            case 1:
+                return new LinkedCounting1(counter);
+            case 2:
+                return new LinkedCounting2(counter);
+            default:
+                return new LinkedCounting3(counter);
+        }
+    }
+
+    private static AbstractHandler linkedPassThrough(int i) {
+        switch (i % 4) {
+            case 0:
+                return new LinkedPassThrough0();
+            case 1:
+                return new LinkedPassThrough1();
+            case 2:
+                return new LinkedPassThrough2();
+            default:
+                return new LinkedPassThrough3();
+        }
+    }
+
+    static final class LinkedCounting0 extends AbstractHandler {
+        final Counter counter;
+
+        LinkedCounting0(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            counter.count++;
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedCounting1 extends AbstractHandler {
+        final Counter counter;
+
+        LinkedCounting1(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            counter.count++;
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedCounting2 extends AbstractHandler {
+        final Counter counter;
+
+        LinkedCounting2(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            counter.count++;
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedCounting3 extends AbstractHandler {
+        final Counter counter;
+
+        LinkedCounting3(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            counter.count++;
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedPassThrough0 extends AbstractHandler {
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedPassThrough1 extends AbstractHandler {
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedPassThrough2 extends AbstractHandler {
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    static final class LinkedPassThrough3 extends AbstractHandler {
+        @Override
+        void doHandler(HandlerChainContext handlerChainContext, Object arg0) {
+            handlerChainContext.runNext(arg0);
+        }
+    }
+
+    // ------ ArrayPipeline版本的处理器 ------
+
+    private static PipelineHandler arrayCounting(int i, Counter counter) {
+        switch (i % 4) {
+            case 0:
+                return new ArrayCounting0(counter);
+            case 1:
+                return new ArrayCounting1(counter);
+            case 2:
+                return new ArrayCounting2(counter);
+            default:
+                return new ArrayCounting3(counter);
+        }
+    }
+
+    private static PipelineHandler arrayOutbound(int i) {
+        switch (i % 4) {
+            case 0:
+                return new ArrayOutbound0();
+            case 1:
+                return new ArrayOutbound1();
+            case 2:
+                return new ArrayOutbound2();
+            default:
+                return new ArrayOutbound3();
+        }
+    }
+
+    static final class ArrayCounting0 extends PipelineHandler {
+        final Counter counter;
+
+        ArrayCounting0(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+            counter.count++;
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    static final class ArrayCounting1 extends PipelineHandler {
+        final Counter counter;
+
+        ArrayCounting1(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+            counter.count++;
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    static final class ArrayCounting2 extends PipelineHandler {
+        final Counter counter;
+
+        ArrayCounting2(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+            counter.count++;
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    static final class ArrayCounting3 extends PipelineHandler {
+        final Counter counter;
+
+        ArrayCounting3(Counter counter) {
+            this.counter = counter;
+        }
+
+        @Override
+        public void channelRead(PipelineContext ctx, Object msg) {
+            counter.count++;
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    static final class ArrayOutbound0 extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+    }
+
+    static final class ArrayOutbound1 extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+    }
+
+    static final class ArrayOutbound2 extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+    }
+
+    static final class ArrayOutbound3 extends PipelineHandler {
+        @Override
+        public void write(PipelineContext ctx, Object msg) {
+            ctx.write(msg);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.study.hc.net.netty.demo;
+
+/**
+ * {@link ArrayPipeline}中一个处理器的上下文. 每个上下文属于一个编译好的责任链快照:
+ * 每种事件的下一个处理器在编译时就确定了(跳过没有覆盖这个事件的处理器), 传递事件只是一次字段读取加一次调用,
+ * 不用遍历链表, 也不用判断处理器是否关心这个事件.
+ * <p>
+ * pipeline被修改时会生成新的快照, 正在传递的事件继续沿着旧快照走完.
+ */
+public final class PipelineContext {
+
+    static final int MASK_ACTIVE = 1;
+    static final int MASK_READ = 1 << 1;
+    static final int MASK_EXCEPTION = 1 << 2;
+    static final int MASK_WRITE = 1 << 3;
+    static final int MASK_FLUSH = 1 << 4;
+
+    /**
+     * 每个处理器类覆盖了哪些事件, 反射只在第一次遇到这个类时做一次
+     */
+    private static final ClassValue<Integer> MASKS = new ClassValue<Integer>() {
+        @Override
+        protected Integer computeValue(Class<?> type) {
+            int mask = 0;
+            if (overrides(type, "channelActive", PipelineContext.class)) {
+                mask |= MASK_ACTIVE;
+            }
+            if (overrides(type, "channelRead", PipelineContext.class, Object.class)) {
+                mask |= MASK_READ;
+            }
+            if (overrides(type, "exceptionCaught", PipelineContext.class, Throwable.class)) {
+                mask |= MASK_EXCEPTION;
+            }
+            if (overrides(type, "write", PipelineContext.class, Object.class)) {
+                mask |= MASK_WRITE;
+            }
+            if (overrides(type, "flush", PipelineContext.class)) {
+                mask |= MASK_FLUSH;
+            }
+            return mask;
+        }
+    };
+
+    final String name;
+    final PipelineHandler handler;
+    final ArrayPipeline pipeline;
+    final int mask;
+    // 编译时填好, 入站是后面第一个覆盖了这个事件的处理器, 出站是前面第一个. 链的两端有head和tail, 所以不会是null
+    PipelineContext nextActive;
+    PipelineContext nextRead;
+    PipelineContext nextException;
+    PipelineContext prevWrite;
+    PipelineContext prevFlush;
+
+    PipelineContext(String name, PipelineHandler handler, ArrayPipeline pipeline) {
+        this.name = name;
+        this.handler = handler;
+        this.pipeline = pipeline;
+        this.mask = MASKS.get(handler.getClass());
+    }
+
+    private static boolean overrides(Class<?> type, String method, Class<?>... parameterTypes) {
+        try {
+            return type.getMethod(method, parameterTypes).getDeclaringClass() != PipelineHandler.class;
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    boolean handles(int event) {
+        return (mask & event) != 0;
+    }
+
+    public String name() {
+        return name;
+    }
+
+    public PipelineHandler handler() {
+        return handler;
+    }
+
+    public ArrayPipeline pipeline() {
+        return pipeline;
+    }
+
+    // ------ 由处理器调用, 把事件交给下一个处理器 ------
+
+    public void fireChannelActive() {
+        nextActive.invokeChannelActive();
+    }
+
+    public void fireChannelRead(Object msg) {
+        nextRead.invokeChannelRead(msg);
+    }
+
+    public void fireExceptionCaught(Throwable cause) {
+        nextException.invokeExceptionCaught(cause);
+    }
+
+    public void write(Object msg) {
+        prevWrite.invokeWrite(msg);
+    }
+
+    public void flush() {
+        prevFlush.invokeFlush();
+    }
+
+    /**
+     * 写出并flush
+     */
+    public void writeAndFlush(Object msg) {
+        write(msg);
+        flush();
+    }
+
+    // ------ 调用这个上下文的处理器, 处理器抛出的异常交给它自己的exceptionCaught ------
+
+    void invokeChannelActive() {
+        try {
+            handler.channelActive(this);
+        } catch (Throwable t) {
+            invokeExceptionCaught(t);
+        }
+    }
+
+    void invokeChannelRead(Object msg) {
+        try {
+            handler.channelRead(this, msg);
+        } catch (Throwable t) {
+            invokeExceptionCaught(t);
+        }
+    }
+
+    void invokeExceptionCaught(Throwable cause) {
+        try {
+            handler.exceptionCaught(this, cause);
+        } catch (Throwable t) {
+            // 处理异常时又抛出了异常, 不再传递, 避免死循环
+            System.err.println("处理器" + name + "的exceptionCaught抛出了异常: " + t + ", 原来的异常:");
+            cause.printStackTrace();
+        }
+    }
+
+    void invokeWrite(Object msg) {
+        try {
+            handler.write(this, msg);
+        } catch (Throwable t) {
+            invokeExceptionCaught(t);
+        }
+    }
+
+    void invokeFlush() {
+        try {
+            handler.flush(this);
+        } catch (Throwable t) {
+            invokeExceptionCaught(t);
+        }
+    }
+}
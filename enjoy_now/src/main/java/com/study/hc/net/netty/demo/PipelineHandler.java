@@ -0,0 +1,36 @@
+package com.study.hc.net.netty.demo;
+
+/**
+ * {@link ArrayPipeline}中的处理器. 入站事件(active、read、exception)从前往后传, 出站事件(write、flush)从后往前传,
+ * 默认实现都是原样交给下一个处理器.
+ * <p>
+ * 子类只覆盖自己关心的事件. 没有覆盖的事件在编译责任链时就会被跳过, 根本不会调用到这个处理器(类似netty的skip标记),
+ * 所以一个只处理write的处理器不会拖慢read.
+ * <p>
+ * 同一个实例可以加到多个pipeline中, 这时它的状态要自己保证线程安全.
+ */
+public abstract class PipelineHandler {
+
+    public void channelActive(PipelineContext ctx) throws Exception {
+        ctx.fireChannelActive();
+    }
+
+    public void channelRead(PipelineContext ctx, Object msg) throws Exception {
+        ctx.fireChannelRead(msg);
+    }
+
+    /**
+     * 入站和出站的处理器抛出的异常都从抛出的地方开始, 沿入站方向传递
+     */
+    public void exceptionCaught(PipelineContext ctx, Throwable cause) throws Exception {
+        ctx.fireExceptionCaught(cause);
+    }
+
+    public void write(PipelineContext ctx, Object msg) throws Exception {
+        ctx.write(msg);
+    }
+
+    public void flush(PipelineContext ctx) throws Exception {
+        ctx.flush();
+    }
+}
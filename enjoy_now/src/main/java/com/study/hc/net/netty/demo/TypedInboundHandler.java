@@ -0,0 +1,26 @@
+package com.study.hc.net.netty.demo;
+
+/**
+ * 只处理某一种类型消息的入站处理器(类似netty的SimpleChannelInboundHandler), 其它类型的消息原样往后传
+ *
+ * @param <I> 处理的消息类型
+ */
+public abstract class TypedInboundHandler<I> extends PipelineHandler {
+
+    private final Class<I> type;
+
+    protected TypedInboundHandler(Class<I> type) {
+        this.type = type;
+    }
+
+    @Override
+    public final void channelRead(PipelineContext ctx, Object msg) throws Exception {
+        if (type.isInstance(msg)) {
+            read(ctx, type.cast(msg));
+        } else {
+            ctx.fireChannelRead(msg);
+        }
+    }
+
+    protected abstract void read(PipelineContext ctx, I msg) throws Exception;
+}
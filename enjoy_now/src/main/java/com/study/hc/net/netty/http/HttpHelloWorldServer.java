@@ -15,12 +15,9 @@
  */
 package com.study.hc.net.netty.http;
 
+import com.study.hc.net.netty.ServerTransport;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.channel.Channel;
-import io.netty.channel.ChannelOption;
-import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.handler.logging.LogLevel;
 import io.netty.handler.logging.LoggingHandler;
 import io.netty.handler.ssl.SslContext;
@@ -30,6 +27,9 @@ import io.netty.handler.ssl.util.SelfSignedCertificate;
 /**
  * An HTTP server that sends back the content of the received HTTP request
  * in a pretty plaintext form.
+ * <p>
+ * Transport, event loop sizing and socket options come from the {@code netty.*} system properties,
+ * see {@link ServerTransport}.
  */
 public final class HttpHelloWorldServer {
 
@@ -47,25 +47,21 @@ public final class HttpHelloWorldServer {
         }
 
         // Configure the server.
-        EventLoopGroup bossGroup = new NioEventLoopGroup(1);
-        EventLoopGroup workerGroup = new NioEventLoopGroup();
+        ServerTransport transport = ServerTransport.fromSystemProperties().build();
         try {
-            ServerBootstrap b = new ServerBootstrap();
-            b.option(ChannelOption.SO_BACKLOG, 1024);
-            b.group(bossGroup, workerGroup)
-             .channel(NioServerSocketChannel.class)
-             .handler(new LoggingHandler(LogLevel.INFO))
-             .childHandler(new HttpHelloWorldServerInitializer(sslCtx));
+            ServerBootstrap b = transport.configure(new ServerBootstrap());
+            b.handler(new LoggingHandler(LogLevel.INFO))
+             .childHandler(new HttpHelloWorldServerInitializer(sslCtx, transport));
 
-            Channel ch = b.bind(PORT).sync().channel();
+            Channel ch = transport.bind(b, PORT).get(0);
+            System.err.println(transport);
 
             System.err.println("Open your web browser and navigate to " +
                     (SSL? "https" : "http") + "://127.0.0.1:" + PORT + '/');
 
             ch.closeFuture().sync();
         } finally {
-            bossGroup.shutdownGracefully();
-            workerGroup.shutdownGracefully();
+            transport.shutdownGracefully();
         }
     }
 }
@@ -15,55 +15,107 @@
  */
 package com.study.hc.net.netty.http;
 
-import io.netty.buffer.Unpooled;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelFutureListener;
 import io.netty.channel.ChannelHandlerContext;
-import io.netty.channel.SimpleChannelInboundHandler;
 import io.netty.handler.codec.http.DefaultFullHttpResponse;
 import io.netty.handler.codec.http.FullHttpResponse;
-import io.netty.handler.codec.http.HttpObject;
-import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
 import io.netty.handler.codec.http.HttpRequest;
-import io.netty.util.AsciiString;
+import io.netty.handler.codec.http.HttpResponseEncoder;
+import io.netty.handler.codec.http.HttpUtil;
+
+import java.io.IOException;
+import java.nio.file.Paths;
 
 import static io.netty.handler.codec.http.HttpResponseStatus.*;
-import static io.netty.handler.codec.http.HttpVersion.*;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
 
-public class HttpHelloWorldServerHandler extends SimpleChannelInboundHandler<HttpObject> {
+/**
+ * Routes requests through a {@link Router}:
+ * <ul>
+ * <li>{@code GET|HEAD /} and {@code /plaintext}: "Hello World" from a {@link ResponseTemplateCache}, encoded
+ * once per second per event loop, each request only writes a retained duplicate of it</li>
+ * <li>{@code GET /hello/:name}: "Hello, name", built per request</li>
+ * <li>{@code GET|HEAD /static/*path}: files below {@code -DstaticDir}, only when that is set, see
+ * {@link StaticFileHandler}. {@code -DstaticMaxOpenFiles} (default 1024) bounds its open file cache</li>
+ * </ul>
+ * Anything else gets 404, or 405 for a known path with the wrong method.
+ */
+public class HttpHelloWorldServerHandler extends RouterHandler {
     private static final byte[] CONTENT = { 'H', 'e', 'l', 'l', 'o', ' ', 'W', 'o', 'r', 'l', 'd' };
 
-    private static final AsciiString CONTENT_TYPE = AsciiString.cached("Content-Type");
-    private static final AsciiString CONTENT_LENGTH = AsciiString.cached("Content-Length");
-    private static final AsciiString CONNECTION = AsciiString.cached("Connection");
-    private static final AsciiString KEEP_ALIVE = AsciiString.cached("keep-alive");
+    private static final ResponseTemplateCache RESPONSES = ResponseTemplateCache.builder()
+            .route("/", OK, "text/plain", CONTENT)
+            .route("/plaintext", OK, "text/plain", CONTENT)
+            .build();
 
-    @Override
-    public void channelReadComplete(ChannelHandlerContext ctx) {
-        ctx.flush();
+    static final Router ROUTER = routes();
+
+    /** Pre-encoded responses are raw bytes, written from here so they skip the response encoder */
+    private ChannelHandlerContext encoderCtx;
+
+    public HttpHelloWorldServerHandler() {
+        super(ROUTER);
     }
 
     @Override
-    public void channelRead0(ChannelHandlerContext ctx, HttpObject msg) {
-        if (msg instanceof HttpRequest) {
-            HttpRequest req = (HttpRequest) msg;
+    public void handlerAdded(ChannelHandlerContext ctx) {
+        encoderCtx = ctx.pipeline().context(HttpResponseEncoder.class);
+        if (encoderCtx == null) {
+            throw new IllegalStateException("HttpResponseEncoder must be in the pipeline before " + getClass().getSimpleName());
+        }
+    }
 
-            boolean keepAlive = HttpUtil.isKeepAlive(req);
-            FullHttpResponse response = new DefaultFullHttpResponse(HTTP_1_1, OK, Unpooled.wrappedBuffer(CONTENT));
-            response.headers().set(CONTENT_TYPE, "text/plain");
-            response.headers().setInt(CONTENT_LENGTH, response.content().readableBytes());
+    private static Router routes() {
+        Router.Builder routes = Router.builder()
+                .get("/", template("/"))
+                .route(HttpMethod.HEAD, "/", template("/"))
+                .get("/plaintext", template("/plaintext"))
+                .route(HttpMethod.HEAD, "/plaintext", template("/plaintext"))
+                .get("/hello/:name", HttpHelloWorldServerHandler::hello);
+        String staticDir = System.getProperty("staticDir");
+        if (staticDir != null) {
+            try {
+                StaticFileHandler files = new StaticFileHandler(Paths.get(staticDir), "path",
+                        Integer.getInteger("staticMaxOpenFiles", 1024));
+                routes.get("/static/*path", files).route(HttpMethod.HEAD, "/static/*path", files);
+            } catch (IOException e) {
+                throw new IllegalStateException("staticDir: " + staticDir, e);
+            }
+        }
+        return routes.build();
+    }
 
+    private static RouteHandler template(String path) {
+        return (ctx, req, match) -> {
+            ChannelHandlerContext encoderCtx = ((HttpHelloWorldServerHandler) ctx.handler()).encoderCtx;
+            boolean keepAlive = HttpUtil.isKeepAlive(req);
+            boolean head = HttpMethod.HEAD.equals(req.method());
+            ByteBuf response = RESPONSES.response(ctx.executor(), path, keepAlive, head);
+            ChannelFuture future = encoderCtx.write(response);
             if (!keepAlive) {
-                ctx.write(response).addListener(ChannelFutureListener.CLOSE);
-            } else {
-                response.headers().set(CONNECTION, KEEP_ALIVE);
-                ctx.write(response);
+                future.addListener(ChannelFutureListener.CLOSE);
             }
-        }
+        };
     }
 
-    @Override
-    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
-        cause.printStackTrace();
-        ctx.close();
+    private static void hello(ChannelHandlerContext ctx, HttpRequest req, RouteMatch match) {
+        ByteBuf content = ctx.alloc().buffer();
+        ByteBufUtil.writeAscii(content, "Hello, ");
+        ByteBufUtil.writeUtf8(content, match.param("name"));
+        FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, OK, content);
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN);
+        HttpUtil.setContentLength(res, content.readableBytes());
+        boolean keepAlive = HttpUtil.isKeepAlive(req);
+        HttpUtil.setKeepAlive(res, keepAlive);
+        ChannelFuture future = ctx.write(res);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
     }
 }
@@ -15,19 +15,24 @@
  */
 package com.study.hc.net.netty.http;
 
+import com.study.hc.net.netty.ServerTransport;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.ChannelPipeline;
 import io.netty.channel.socket.SocketChannel;
-import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.codec.http.HttpRequestDecoder;
+import io.netty.handler.codec.http.HttpResponseEncoder;
 import io.netty.handler.codec.http.HttpServerExpectContinueHandler;
 import io.netty.handler.ssl.SslContext;
+import io.netty.handler.stream.ChunkedWriteHandler;
 
 public class HttpHelloWorldServerInitializer extends ChannelInitializer<SocketChannel> {
 
     private final SslContext sslCtx;
+    private final ServerTransport transport;
 
-    public HttpHelloWorldServerInitializer(SslContext sslCtx) {
+    public HttpHelloWorldServerInitializer(SslContext sslCtx, ServerTransport transport) {
         this.sslCtx = sslCtx;
+        this.transport = transport;
     }
 
     @Override
@@ -35,9 +40,17 @@ public class HttpHelloWorldServerInitializer extends ChannelInitializer<SocketCh
         ChannelPipeline p = ch.pipeline();
         if (sslCtx != null) {
             p.addLast(sslCtx.newHandler(ch.alloc()));
+            // Static files are read in chunks over SSL. Placed below the encoder so that chunks and the
+            // pre-encoded responses written past the encoder go through the same queue, in order
+            p.addLast(new ChunkedWriteHandler());
         }
-        p.addLast(new HttpServerCodec());
+        // Decoder and encoder separately rather than HttpServerCodec: the handler writes pre-encoded
+        // responses past the encoder, which HttpServerCodec's request/response pairing does not expect
+        p.addLast(new HttpRequestDecoder());
+        p.addLast(new HttpResponseEncoder());
         p.addLast(new HttpServerExpectContinueHandler());
         p.addLast(new HttpHelloWorldServerHandler());
+        // Pipelined requests decoded in one read share a single flush
+        transport.addFlushConsolidation(p);
     }
 }
@@ -0,0 +1,167 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Open {@link FileChannel}s of recently served files, least recently used evicted beyond a maximum,
+ * so hot files cost neither an open/close nor a stat per request.
+ * <p>
+ * Entries are reference counted: the cache holds one reference, every response in flight another,
+ * and the channel is closed when the last one goes. Evicting a file that is still being sent is safe.
+ * Size and modification time are re-checked at most once per revalidation interval; a changed file
+ * is reopened. Shared by all event loops, the lock is only held for map operations, never for I/O.
+ */
+final class OpenFileCache {
+
+    private final int maxOpenFiles;
+    private final long revalidateNanos;
+    private final LinkedHashMap<String, CachedFile> files;
+
+    OpenFileCache(int maxOpenFiles, long revalidate, TimeUnit unit) {
+        if (maxOpenFiles < 1) {
+            throw new IllegalArgumentException("maxOpenFiles: " + maxOpenFiles);
+        }
+        this.maxOpenFiles = maxOpenFiles;
+        this.revalidateNanos = unit.toNanos(revalidate);
+        this.files = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * The cached file for a key if it is still fresh, revalidating it when its interval has passed.
+     * Returns null when the key is not cached or the file changed or disappeared since.
+     *
+     * @return a retained entry, the caller releases it
+     */
+    CachedFile get(String key) {
+        CachedFile cached;
+        synchronized (this) {
+            cached = files.get(key);
+            if (cached == null) {
+                return null;
+            }
+            cached.retain();
+        }
+        long now = System.nanoTime();
+        if (now - cached.checkedAt < revalidateNanos) {
+            return cached;
+        }
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(cached.path, BasicFileAttributes.class);
+            if (attributes.size() == cached.length
+                    && attributes.lastModifiedTime().toMillis() == cached.lastModified) {
+                cached.checkedAt = now;
+                return cached;
+            }
+        } catch (IOException e) {
+            // deleted or no longer readable, drop it below
+        }
+        remove(key, cached);
+        cached.release();
+        return null;
+    }
+
+    /**
+     * Opens a regular file and caches it under the key, or returns the entry another thread cached meanwhile
+     *
+     * @return a retained entry, the caller releases it
+     */
+    CachedFile open(String key, Path path) throws IOException {
+        CachedFile opened = new CachedFile(path);
+        synchronized (this) {
+            CachedFile existing = files.get(key);
+            if (existing != null) {
+                existing.retain();
+                opened.release();
+                return existing;
+            }
+            files.put(key, opened);
+            // one reference for the map, one for the caller
+            opened.retain();
+            evict();
+        }
+        return opened;
+    }
+
+    private void evict() {
+        Iterator<CachedFile> it = files.values().iterator();
+        while (files.size() > maxOpenFiles && it.hasNext()) {
+            CachedFile eldest = it.next();
+            it.remove();
+            eldest.release();
+        }
+    }
+
+    private void remove(String key, CachedFile cached) {
+        synchronized (this) {
+            if (files.get(key) != cached) {
+                return;
+            }
+            files.remove(key);
+        }
+        cached.release();
+    }
+
+    synchronized int size() {
+        return files.size();
+    }
+
+    /** Releases all cached entries, files still being sent are closed once their responses finish */
+    synchronized void clear() {
+        for (Map.Entry<String, CachedFile> entry : files.entrySet()) {
+            entry.getValue().release();
+        }
+        files.clear();
+    }
+
+    /**
+     * An open file with the attributes it was opened with
+     */
+    static final class CachedFile extends AbstractReferenceCounted {
+        final Path path;
+        final FileChannel channel;
+        final long length;
+        final long lastModified;
+        /** strong validator from size and modification time, quoted */
+        final String etag;
+        volatile long checkedAt;
+
+        private CachedFile(Path path) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                throw new IOException("not a regular file: " + path);
+            }
+            this.path = path;
+            this.channel = FileChannel.open(path, StandardOpenOption.READ);
+            this.length = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.etag = '"' + Long.toHexString(length) + '-' + Long.toHexString(lastModified) + '"';
+            this.checkedAt = System.nanoTime();
+        }
+
+        @Override
+        protected void deallocate() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing left to do with it
+            }
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint) {
+            return this;
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.util.concurrent.EventExecutor;
+import io.netty.util.concurrent.FastThreadLocal;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fully encoded responses (status line + headers + body) for fixed routes, so the hot path writes
+ * a {@link ByteBuf#retainedDuplicate()} of a pooled direct buffer instead of building, encoding and
+ * copying a {@code FullHttpResponse} per request.
+ * <p>
+ * Each route has four variants: keep-alive or close, with or without body (HEAD). Every event loop
+ * keeps its own copy of the encoded buffers and re-encodes them once per second from a timer on
+ * that loop to refresh the {@code Date} header. Only the owning loop ever touches its buffers, so
+ * swapping them needs no synchronization; duplicates still in flight keep the old buffer alive
+ * through its reference count.
+ * <p>
+ * The returned buffer is raw bytes: it must be written past the HTTP encoder, e.g. from the
+ * {@code HttpResponseEncoder}'s context.
+ */
+public final class ResponseTemplateCache {
+
+    private static final int VARIANTS = 4;
+    private static final int KEEP_ALIVE = 1;
+    private static final int HEAD = 2;
+
+    private final Map<String, Integer> routes;
+    private final Template[] templates;
+    private final int defaultIndex;
+    private final FastThreadLocal<EncodedTemplates> encoded = new FastThreadLocal<>();
+
+    private ResponseTemplateCache(Builder builder) {
+        this.routes = new HashMap<>(builder.routes);
+        this.templates = builder.templates.toArray(new Template[0]);
+        this.defaultIndex = builder.defaultIndex;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * The encoded response for the uri's path, or the default route's if the path is not registered.
+     * Returns null when neither exists. Must be called from the channel's event loop.
+     *
+     * @return a retained duplicate, released by the write
+     */
+    public ByteBuf response(EventExecutor executor, String uri, boolean keepAlive, boolean head) {
+        int query = uri.indexOf('?');
+        Integer index = routes.get(query < 0 ? uri : uri.substring(0, query));
+        int template = index != null ? index : defaultIndex;
+        if (template < 0) {
+            return null;
+        }
+        EncodedTemplates local = encoded.get();
+        if (local == null) {
+            local = new EncodedTemplates(executor);
+            encoded.set(local);
+        }
+        int variant = (keepAlive ? KEEP_ALIVE : 0) | (head ? HEAD : 0);
+        return local.buffers[template * VARIANTS + variant].retainedDuplicate();
+    }
+
+    /**
+     * One event loop's encoded buffers, refreshed every second on that loop
+     */
+    private final class EncodedTemplates {
+        ByteBuf[] buffers;
+
+        EncodedTemplates(EventExecutor executor) {
+            buffers = encodeAll();
+            executor.scheduleAtFixedRate(this::refresh, 1, 1, TimeUnit.SECONDS);
+            executor.terminationFuture().addListener(future -> release(buffers));
+        }
+
+        void refresh() {
+            ByteBuf[] old = buffers;
+            buffers = encodeAll();
+            release(old);
+        }
+
+        private ByteBuf[] encodeAll() {
+            String date = DateFormatter.format(new Date());
+            ByteBuf[] buffers = new ByteBuf[templates.length * VARIANTS];
+            for (int i = 0; i < templates.length; i++) {
+                for (int variant = 0; variant < VARIANTS; variant++) {
+                    buffers[i * VARIANTS + variant] = templates[i].encode(date,
+                            (variant & KEEP_ALIVE) != 0, (variant & HEAD) != 0);
+                }
+            }
+            return buffers;
+        }
+
+        private void release(ByteBuf[] buffers) {
+            for (ByteBuf buffer : buffers) {
+                buffer.release();
+            }
+        }
+    }
+
+    private static final class Template {
+        final HttpResponseStatus status;
+        final String contentType;
+        final byte[] body;
+
+        Template(HttpResponseStatus status, String contentType, byte[] body) {
+            this.status = status;
+            this.contentType = contentType;
+            this.body = body;
+        }
+
+        ByteBuf encode(String date, boolean keepAlive, boolean head) {
+            StringBuilder headers = new StringBuilder(128)
+                    .append("HTTP/1.1 ").append(status.code()).append(' ').append(status.reasonPhrase()).append("\r\n")
+                    .append("Content-Type: ").append(contentType).append("\r\n")
+                    .append("Content-Length: ").append(body.length).append("\r\n")
+                    .append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n")
+                    .append("Date: ").append(date).append("\r\n")
+                    .append("\r\n");
+            int length = headers.length() + (head ? 0 : body.length);
+            ByteBuf buffer = PooledByteBufAllocator.DEFAULT.directBuffer(length, length);
+            ByteBufUtil.writeAscii(buffer, headers);
+            if (!head) {
+                buffer.writeBytes(body);
+            }
+            return buffer;
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Integer> routes = new HashMap<>();
+        private final List<Template> templates = new ArrayList<>();
+        private int defaultIndex = -1;
+
+        private Builder() {
+        }
+
+        /**
+         * Registers a response for an exact path (query string ignored)
+         */
+        public Builder route(String path, HttpResponseStatus status, String contentType, byte[] body) {
+            routes.put(path, add(status, contentType, body));
+            return this;
+        }
+
+        /**
+         * The response for paths that are not registered
+         */
+        public Builder defaultRoute(HttpResponseStatus status, String contentType, byte[] body) {
+            defaultIndex = add(status, contentType, body);
+            return this;
+        }
+
+        private int add(HttpResponseStatus status, String contentType, byte[] body) {
+            templates.add(new Template(status, contentType, body.clone()));
+            return templates.size() - 1;
+        }
+
+        public ResponseTemplateCache build() {
+            return new ResponseTemplateCache(this);
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.HttpRequest;
+
+/**
+ * Endpoint registered in a {@link Router}. Called on the channel's event loop; handlers write
+ * their response and leave flushing to the dispatching handler.
+ * <p>
+ * The request is released after this returns, retain it (or its content) to keep using it.
+ */
+@FunctionalInterface
+public interface RouteHandler {
+
+    void handle(ChannelHandlerContext ctx, HttpRequest request, RouteMatch match) throws Exception;
+}
@@ -0,0 +1,154 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+/**
+ * Result of a {@link Router} lookup, reused across requests by the owning channel handler.
+ * Path parameters are kept as offsets into the request URI; they only become Strings when
+ * {@link #param(String)} is called, {@link #paramEquals} and {@link #paramAsLong} do not allocate.
+ * <p>
+ * Not thread-safe, valid until the next lookup into the same instance.
+ */
+public final class RouteMatch {
+
+    public enum Status {
+        FOUND,
+        /** no route matches the path */
+        NOT_FOUND,
+        /** the path matches, but not for this method, see {@link #allowedMethods()} */
+        METHOD_NOT_ALLOWED
+    }
+
+    private static final String[] NO_NAMES = new String[0];
+    private static final HttpMethod[] NO_METHODS = new HttpMethod[0];
+
+    Status status;
+    RouteHandler handler;
+    String uri;
+    int pathEnd;
+    String[] paramNames = NO_NAMES;
+    HttpMethod[] allowedMethods = NO_METHODS;
+    /** start, end pairs */
+    private int[] offsets;
+    int paramCount;
+
+    /**
+     * @param maxParams the most parameters any route has, see {@link Router#maxParams()}
+     */
+    public RouteMatch(int maxParams) {
+        this.offsets = new int[Math.max(maxParams, 1) * 2];
+    }
+
+    void reset(String uri, int pathEnd) {
+        this.uri = uri;
+        this.pathEnd = pathEnd;
+        this.status = null;
+        this.handler = null;
+        this.paramNames = NO_NAMES;
+        this.allowedMethods = NO_METHODS;
+        this.paramCount = 0;
+    }
+
+    void push(int start, int end) {
+        if (paramCount * 2 == offsets.length) {
+            // only when constructed smaller than the router's maxParams
+            int[] grown = new int[offsets.length * 2];
+            System.arraycopy(offsets, 0, grown, 0, offsets.length);
+            offsets = grown;
+        }
+        offsets[paramCount * 2] = start;
+        offsets[paramCount * 2 + 1] = end;
+        paramCount++;
+    }
+
+    public Status status() {
+        return status;
+    }
+
+    /** The handler when {@link #status()} is FOUND, otherwise null */
+    public RouteHandler handler() {
+        return handler;
+    }
+
+    public String uri() {
+        return uri;
+    }
+
+    /** The methods registered for the matched path, empty when NOT_FOUND. Do not modify. */
+    public HttpMethod[] allowedMethods() {
+        return allowedMethods;
+    }
+
+    /** The query string without '?', or null if there is none */
+    public String query() {
+        return pathEnd < uri.length() ? uri.substring(pathEnd + 1) : null;
+    }
+
+    public int paramCount() {
+        return paramCount;
+    }
+
+    /** The raw (not percent-decoded) value of a path parameter, or null if the route has no such parameter */
+    public String param(String name) {
+        int i = indexOf(name);
+        return i < 0 ? null : uri.substring(offsets[i * 2], offsets[i * 2 + 1]);
+    }
+
+    /** Compares a parameter with a value without materializing it */
+    public boolean paramEquals(String name, CharSequence value) {
+        int i = indexOf(name);
+        if (i < 0) {
+            return false;
+        }
+        int start = offsets[i * 2];
+        int length = offsets[i * 2 + 1] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int j = 0; j < length; j++) {
+            if (uri.charAt(start + j) != value.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Parses a decimal parameter in place
+     *
+     * @throws NumberFormatException if the parameter is missing, not a number or overflows
+     */
+    public long paramAsLong(String name) {
+        int i = indexOf(name);
+        if (i < 0) {
+            throw new NumberFormatException("no parameter " + name);
+        }
+        int pos = offsets[i * 2];
+        int end = offsets[i * 2 + 1];
+        boolean negative = pos < end && uri.charAt(pos) == '-';
+        if (negative) {
+            pos++;
+        }
+        if (pos == end) {
+            throw new NumberFormatException("not a number: " + name);
+        }
+        long value = 0;
+        for (; pos < end; pos++) {
+            int digit = uri.charAt(pos) - '0';
+            if (digit < 0 || digit > 9 || value > (Long.MAX_VALUE - digit) / 10) {
+                throw new NumberFormatException("not a number: " + name);
+            }
+            value = value * 10 + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    private int indexOf(String name) {
+        for (int i = 0; i < paramNames.length && i < paramCount; i++) {
+            if (paramNames[i].equals(name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,304 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.handler.codec.http.HttpMethod;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Route table compiled into a compressed character trie and matched directly against the request URI:
+ * no regex, no splitting, no substrings. Path parameters are recorded as offsets into the URI in a
+ * reusable {@link RouteMatch}, so a lookup does not allocate.
+ * <p>
+ * Patterns:
+ * <ul>
+ * <li>{@code /users} static text, matched exactly</li>
+ * <li>{@code /users/:id} a parameter, matches one non-empty path segment (up to the next '/')</li>
+ * <li>{@code /static/*path} a wildcard, matches the rest of the path (possibly empty); must be last</li>
+ * </ul>
+ * Static text is preferred over a parameter, and a parameter over a wildcard, backtracking when a
+ * more specific branch fails further down. The query string is ignored; parameters are not
+ * percent-decoded.
+ * <p>
+ * Immutable once built, so one instance is shared by all channels.
+ * <pre>
+ * Router router = Router.builder()
+ *         .get("/", indexHandler)
+ *         .get("/users/:id", userHandler)
+ *         .route(HttpMethod.POST, "/users", createHandler)
+ *         .build();
+ * </pre>
+ */
+public final class Router {
+
+    private final Node root;
+    private final int maxParams;
+
+    private Router(Builder builder) {
+        this.root = builder.root;
+        this.maxParams = builder.maxParams;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /** The most parameters any route has, the size a {@link RouteMatch} needs */
+    public int maxParams() {
+        return maxParams;
+    }
+
+    /**
+     * Looks up the route for a request. The result, including the handler when found, is left in {@code match}.
+     *
+     * @return the match status
+     */
+    public RouteMatch.Status route(HttpMethod method, String uri, RouteMatch match) {
+        int end = uri.indexOf('?');
+        match.reset(uri, end < 0 ? uri.length() : end);
+        Node node = match(root, uri, 0, match.pathEnd, match);
+        if (node == null) {
+            return match.status = RouteMatch.Status.NOT_FOUND;
+        }
+        match.paramNames = node.paramNames;
+        match.allowedMethods = node.methods;
+        for (int i = 0; i < node.methods.length; i++) {
+            if (node.methods[i].equals(method)) {
+                match.handler = node.handlers[i];
+                return match.status = RouteMatch.Status.FOUND;
+            }
+        }
+        return match.status = RouteMatch.Status.METHOD_NOT_ALLOWED;
+    }
+
+    private static Node match(Node node, String uri, int pos, int end, RouteMatch match) {
+        char[] label = node.label;
+        if (end - pos < label.length) {
+            return null;
+        }
+        for (int i = 0; i < label.length; i++) {
+            if (uri.charAt(pos + i) != label[i]) {
+                return null;
+            }
+        }
+        pos += label.length;
+        if (pos == end && node.isTerminal()) {
+            return node;
+        }
+        if (pos < end) {
+            char c = uri.charAt(pos);
+            for (int i = 0; i < node.childChars.length; i++) {
+                if (node.childChars[i] == c) {
+                    Node found = match(node.children[i], uri, pos, end, match);
+                    if (found != null) {
+                        return found;
+                    }
+                    break;
+                }
+            }
+            if (node.param != null && c != '/') {
+                int segmentEnd = pos;
+                while (segmentEnd < end && uri.charAt(segmentEnd) != '/') {
+                    segmentEnd++;
+                }
+                int mark = match.paramCount;
+                match.push(pos, segmentEnd);
+                Node found = match(node.param, uri, segmentEnd, end, match);
+                if (found != null) {
+                    return found;
+                }
+                match.paramCount = mark;
+            }
+        }
+        if (node.wildcard != null) {
+            match.push(pos, end);
+            return node.wildcard;
+        }
+        return null;
+    }
+
+    /**
+     * A trie node: a run of static characters, then static children keyed by their first character,
+     * a parameter child and a wildcard child. Routes ending here have handlers per method.
+     */
+    private static final class Node {
+        char[] label;
+        char[] childChars = new char[0];
+        Node[] children = new Node[0];
+        /** matches one segment, its label is empty */
+        Node param;
+        /** matches the rest of the path, always terminal */
+        Node wildcard;
+        HttpMethod[] methods = new HttpMethod[0];
+        RouteHandler[] handlers = new RouteHandler[0];
+        String[] paramNames;
+
+        Node(char[] label) {
+            this.label = label;
+        }
+
+        boolean isTerminal() {
+            return methods.length > 0;
+        }
+
+        Node child(char c) {
+            for (int i = 0; i < childChars.length; i++) {
+                if (childChars[i] == c) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            childChars = Arrays.copyOf(childChars, childChars.length + 1);
+            childChars[childChars.length - 1] = child.label[0];
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+        }
+
+        /** splits this node's label at index: this keeps the prefix, a new child takes the rest and everything below */
+        void split(int index) {
+            Node rest = new Node(Arrays.copyOfRange(label, index, label.length));
+            rest.childChars = childChars;
+            rest.children = children;
+            rest.param = param;
+            rest.wildcard = wildcard;
+            rest.methods = methods;
+            rest.handlers = handlers;
+            rest.paramNames = paramNames;
+            label = Arrays.copyOf(label, index);
+            childChars = new char[0];
+            children = new Node[0];
+            param = null;
+            wildcard = null;
+            methods = new HttpMethod[0];
+            handlers = new RouteHandler[0];
+            paramNames = null;
+            addChild(rest);
+        }
+    }
+
+    public static final class Builder {
+        private final Node root = new Node(new char[0]);
+        private int maxParams;
+
+        private Builder() {
+        }
+
+        public Builder get(String pattern, RouteHandler handler) {
+            return route(HttpMethod.GET, pattern, handler);
+        }
+
+        public Builder post(String pattern, RouteHandler handler) {
+            return route(HttpMethod.POST, pattern, handler);
+        }
+
+        /**
+         * Registers a handler for a method and path pattern
+         *
+         * @throws IllegalArgumentException for a malformed pattern or a duplicate method on the same pattern
+         */
+        public Builder route(HttpMethod method, String pattern, RouteHandler handler) {
+            if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+                throw new IllegalArgumentException("pattern must start with '/': " + pattern);
+            }
+            List<String> names = new ArrayList<>();
+            Node node = root;
+            int pos = 0;
+            while (pos < pattern.length()) {
+                char c = pattern.charAt(pos);
+                if (c == ':' || c == '*') {
+                    if (pattern.charAt(pos - 1) != '/') {
+                        throw new IllegalArgumentException("parameter must start a segment: " + pattern);
+                    }
+                    int nameEnd = pattern.indexOf('/', pos);
+                    if (nameEnd < 0) {
+                        nameEnd = pattern.length();
+                    }
+                    if (nameEnd == pos + 1) {
+                        throw new IllegalArgumentException("parameter without a name: " + pattern);
+                    }
+                    names.add(pattern.substring(pos + 1, nameEnd));
+                    if (c == '*') {
+                        if (nameEnd != pattern.length()) {
+                            throw new IllegalArgumentException("wildcard must be last: " + pattern);
+                        }
+                        if (node.wildcard == null) {
+                            node.wildcard = new Node(new char[0]);
+                        }
+                        node = node.wildcard;
+                    } else {
+                        if (node.param == null) {
+                            node.param = new Node(new char[0]);
+                        }
+                        node = node.param;
+                    }
+                    pos = nameEnd;
+                    continue;
+                }
+                // static text up to the next parameter
+                int textEnd = pos;
+                while (textEnd < pattern.length() && !isParamStart(pattern, textEnd)) {
+                    textEnd++;
+                }
+                node = insertStatic(node, pattern, pos, textEnd);
+                pos = textEnd;
+            }
+            String[] paramNames = names.toArray(new String[0]);
+            if (node.isTerminal() && !Arrays.equals(node.paramNames, paramNames)) {
+                throw new IllegalArgumentException("conflicting parameter names: " + pattern);
+            }
+            for (HttpMethod existing : node.methods) {
+                if (existing.equals(method)) {
+                    throw new IllegalArgumentException("duplicate route: " + method + " " + pattern);
+                }
+            }
+            node.methods = Arrays.copyOf(node.methods, node.methods.length + 1);
+            node.methods[node.methods.length - 1] = method;
+            node.handlers = Arrays.copyOf(node.handlers, node.handlers.length + 1);
+            node.handlers[node.handlers.length - 1] = handler;
+            node.paramNames = paramNames;
+            maxParams = Math.max(maxParams, paramNames.length);
+            return this;
+        }
+
+        private static boolean isParamStart(String pattern, int index) {
+            char c = pattern.charAt(index);
+            return (c == ':' || c == '*') && index > 0 && pattern.charAt(index - 1) == '/';
+        }
+
+        /**
+         * Walks/extends the static part of the trie for pattern[start, end) below parent's label, returns the node
+         * whose label ends exactly at end
+         */
+        private static Node insertStatic(Node parent, String pattern, int start, int end) {
+            Node node = parent;
+            int pos = start;
+            while (pos < end) {
+                Node child = node.child(pattern.charAt(pos));
+                if (child == null) {
+                    Node leaf = new Node(pattern.substring(pos, end).toCharArray());
+                    node.addChild(leaf);
+                    return leaf;
+                }
+                int common = 0;
+                while (common < child.label.length && pos + common < end
+                        && child.label[common] == pattern.charAt(pos + common)) {
+                    common++;
+                }
+                if (common < child.label.length) {
+                    child.split(common);
+                }
+                node = child;
+                pos += common;
+            }
+            return node;
+        }
+
+        public Router build() {
+            return new Router(this);
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufUtil;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpObject;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.BAD_REQUEST;
+import static io.netty.handler.codec.http.HttpResponseStatus.METHOD_NOT_ALLOWED;
+import static io.netty.handler.codec.http.HttpResponseStatus.NOT_FOUND;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Dispatches each request to the {@link RouteHandler} its method and path match in a {@link Router},
+ * answering 404 and 405 (with an Allow header) itself. One instance per channel, it reuses a single
+ * {@link RouteMatch}.
+ * <p>
+ * Works on both aggregated ({@code FullHttpRequest}) and streamed requests; with the latter the
+ * content parts are dropped, so routes that need the body want a {@code HttpObjectAggregator} in front.
+ * Responses are flushed once per read loop.
+ */
+public class RouterHandler extends SimpleChannelInboundHandler<HttpObject> {
+
+    private final Router router;
+    private final RouteMatch match;
+
+    public RouterHandler(Router router) {
+        this.router = router;
+        this.match = new RouteMatch(router.maxParams());
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, HttpObject msg) throws Exception {
+        if (!(msg instanceof HttpRequest)) {
+            return;
+        }
+        HttpRequest req = (HttpRequest) msg;
+        if (!req.decoderResult().isSuccess()) {
+            sendError(ctx, req, BAD_REQUEST);
+            return;
+        }
+        switch (router.route(req.method(), req.uri(), match)) {
+            case FOUND:
+                match.handler().handle(ctx, req, match);
+                break;
+            case METHOD_NOT_ALLOWED:
+                sendError(ctx, req, METHOD_NOT_ALLOWED);
+                break;
+            default:
+                sendError(ctx, req, NOT_FOUND);
+        }
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+        ctx.fireChannelReadComplete();
+    }
+
+    /**
+     * Writes a plain text error page. The connection is kept open unless the client asked otherwise
+     * or the request could not be decoded.
+     */
+    protected void sendError(ChannelHandlerContext ctx, HttpRequest req, HttpResponseStatus status) {
+        ByteBuf content = ByteBufUtil.writeAscii(ctx.alloc(), status.toString());
+        FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, status, content);
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, HttpHeaderValues.TEXT_PLAIN);
+        HttpUtil.setContentLength(res, content.readableBytes());
+        if (status == METHOD_NOT_ALLOWED) {
+            res.headers().set(HttpHeaderNames.ALLOW, allowHeader(match.allowedMethods()));
+        }
+        boolean keepAlive = HttpUtil.isKeepAlive(req) && status != BAD_REQUEST;
+        HttpUtil.setKeepAlive(res, keepAlive);
+        ChannelFuture future = ctx.write(res);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static String allowHeader(HttpMethod[] methods) {
+        StringBuilder allow = new StringBuilder();
+        for (HttpMethod method : methods) {
+            if (allow.length() > 0) {
+                allow.append(", ");
+            }
+            allow.append(method.name());
+        }
+        return allow.toString();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        cause.printStackTrace();
+        ctx.close();
+    }
+}
@@ -0,0 +1,419 @@
+package com.study.hc.net.netty.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.DateFormatter;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpResponse;
+import io.netty.handler.codec.http.FullHttpResponse;
+import io.netty.handler.codec.http.HttpHeaderNames;
+import io.netty.handler.codec.http.HttpHeaderValues;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.HttpResponse;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpUtil;
+import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.stream.ChunkedWriteHandler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static io.netty.handler.codec.http.HttpResponseStatus.*;
+import static io.netty.handler.codec.http.HttpVersion.HTTP_1_1;
+
+/**
+ * Serves files below a root directory, registered on a wildcard route:
+ * <pre>
+ * Router.builder()
+ *         .get("/static/*path", files)
+ *         .route(HttpMethod.HEAD, "/static/*path", files)
+ * </pre>
+ * On plain connections the body is a {@link DefaultFileRegion}, which the transport hands to
+ * sendfile(2): the bytes go from the page cache to the socket without entering the JVM. Over SSL they
+ * have to be encrypted in user space, so the body is read in chunks instead, which needs a
+ * {@link ChunkedWriteHandler} between the SslHandler and the HTTP codec.
+ * <p>
+ * Supports a single byte range ({@code Range}, {@code If-Range}), and conditional requests by
+ * {@code ETag} ({@code If-None-Match}) or {@code Last-Modified} ({@code If-Modified-Since}).
+ * Open files are kept in an LRU {@link OpenFileCache}; both body types read the shared channel at
+ * explicit positions, so concurrent responses of the same file do not interfere.
+ */
+public final class StaticFileHandler implements RouteHandler {
+
+    private static final int CHUNK_SIZE = 8192;
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    static {
+        CONTENT_TYPES.put("html", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("htm", "text/html; charset=UTF-8");
+        CONTENT_TYPES.put("txt", "text/plain; charset=UTF-8");
+        CONTENT_TYPES.put("css", "text/css; charset=UTF-8");
+        CONTENT_TYPES.put("js", "application/javascript; charset=UTF-8");
+        CONTENT_TYPES.put("json", "application/json");
+        CONTENT_TYPES.put("xml", "application/xml");
+        CONTENT_TYPES.put("png", "image/png");
+        CONTENT_TYPES.put("jpg", "image/jpeg");
+        CONTENT_TYPES.put("jpeg", "image/jpeg");
+        CONTENT_TYPES.put("gif", "image/gif");
+        CONTENT_TYPES.put("svg", "image/svg+xml");
+        CONTENT_TYPES.put("ico", "image/x-icon");
+        CONTENT_TYPES.put("pdf", "application/pdf");
+        CONTENT_TYPES.put("zip", "application/zip");
+        CONTENT_TYPES.put("wasm", "application/wasm");
+    }
+
+    private final Path root;
+    private final String paramName;
+    private final OpenFileCache cache;
+
+    /**
+     * @param root         directory to serve, nothing outside it is reachable
+     * @param paramName    the route's wildcard parameter holding the relative path
+     * @param maxOpenFiles open file descriptors kept in the cache
+     */
+    public StaticFileHandler(Path root, String paramName, int maxOpenFiles) throws IOException {
+        this.root = root.toRealPath();
+        if (!Files.isDirectory(this.root)) {
+            throw new IllegalArgumentException("not a directory: " + root);
+        }
+        this.paramName = paramName;
+        this.cache = new OpenFileCache(maxOpenFiles, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public void handle(ChannelHandlerContext ctx, HttpRequest req, RouteMatch match) throws Exception {
+        String key = match.param(paramName);
+        OpenFileCache.CachedFile file = cache.get(key);
+        if (file == null) {
+            Path path;
+            try {
+                path = resolve(key);
+            } catch (IllegalArgumentException e) {
+                // malformed percent-encoding, e.g. %zz or a trailing %
+                sendStatus(ctx, req, BAD_REQUEST);
+                return;
+            }
+            if (path == null) {
+                sendStatus(ctx, req, FORBIDDEN);
+                return;
+            }
+            try {
+                file = cache.open(key, path);
+            } catch (NoSuchFileException e) {
+                sendStatus(ctx, req, NOT_FOUND);
+                return;
+            } catch (IOException e) {
+                // a directory, or not readable
+                sendStatus(ctx, req, NOT_FOUND);
+                return;
+            }
+        }
+        try {
+            send(ctx, req, file);
+        } finally {
+            file.release();
+        }
+    }
+
+    /**
+     * The file for a raw relative path, or null if it would leave the root (.., symlinks)
+     *
+     * @throws IllegalArgumentException if the path is not valid percent-encoding
+     */
+    private Path resolve(String rawPath) throws IOException {
+        String path = QueryStringDecoder.decodeComponent(rawPath);
+        if (path.indexOf('\0') >= 0) {
+            return null;
+        }
+        Path resolved = root.resolve(path).normalize();
+        if (!resolved.startsWith(root)) {
+            return null;
+        }
+        if (Files.isDirectory(resolved)) {
+            resolved = resolved.resolve("index.html");
+        }
+        if (Files.exists(resolved) && !resolved.toRealPath().startsWith(root)) {
+            return null;
+        }
+        return resolved;
+    }
+
+    private void send(ChannelHandlerContext ctx, HttpRequest req, OpenFileCache.CachedFile file) {
+        HttpHeaders headers = req.headers();
+        boolean keepAlive = HttpUtil.isKeepAlive(req);
+        if (notModified(headers, file)) {
+            HttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, NOT_MODIFIED);
+            setValidators(res, file);
+            finish(ctx, res, keepAlive);
+            return;
+        }
+
+        long start = 0;
+        long end = file.length - 1;
+        HttpResponseStatus status = OK;
+        String range = headers.get(HttpHeaderNames.RANGE);
+        if (range != null && ifRangeMatches(headers, file)) {
+            long[] bounds = parseRange(range, file.length);
+            if (bounds == null) {
+                FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, REQUESTED_RANGE_NOT_SATISFIABLE);
+                res.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes */" + file.length);
+                HttpUtil.setContentLength(res, 0);
+                finish(ctx, res, keepAlive);
+                return;
+            }
+            if (bounds.length == 2) {
+                start = bounds[0];
+                end = bounds[1];
+                status = PARTIAL_CONTENT;
+            }
+        }
+        long length = end - start + 1;
+
+        HttpResponse res = new DefaultHttpResponse(HTTP_1_1, status);
+        res.headers().set(HttpHeaderNames.CONTENT_TYPE, contentType(file.path));
+        res.headers().set(HttpHeaderNames.ACCEPT_RANGES, HttpHeaderValues.BYTES);
+        if (status == PARTIAL_CONTENT) {
+            res.headers().set(HttpHeaderNames.CONTENT_RANGE, "bytes " + start + '-' + end + '/' + file.length);
+        }
+        setValidators(res, file);
+        HttpUtil.setContentLength(res, length);
+        HttpUtil.setKeepAlive(res, keepAlive);
+        ctx.write(res);
+
+        if (!HttpMethod.HEAD.equals(req.method()) && length > 0) {
+            // each body holds its own reference, the file stays open until it has been sent
+            file.retain();
+            if (ctx.pipeline().get(SslHandler.class) == null) {
+                ctx.write(new CachedFileRegion(file, start, length));
+            } else {
+                ctx.write(new CachedFileInput(file, start, length));
+            }
+        }
+        ChannelFuture future = ctx.write(LastHttpContent.EMPTY_LAST_CONTENT);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static void finish(ChannelHandlerContext ctx, HttpResponse res, boolean keepAlive) {
+        HttpUtil.setKeepAlive(res, keepAlive);
+        ChannelFuture future = ctx.write(res);
+        if (!keepAlive) {
+            future.addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private static void sendStatus(ChannelHandlerContext ctx, HttpRequest req, HttpResponseStatus status) {
+        FullHttpResponse res = new DefaultFullHttpResponse(HTTP_1_1, status);
+        HttpUtil.setContentLength(res, 0);
+        finish(ctx, res, HttpUtil.isKeepAlive(req));
+    }
+
+    private static void setValidators(HttpResponse res, OpenFileCache.CachedFile file) {
+        res.headers().set(HttpHeaderNames.ETAG, file.etag);
+        res.headers().set(HttpHeaderNames.LAST_MODIFIED, DateFormatter.format(new Date(file.lastModified)));
+    }
+
+    /**
+     * If-None-Match wins over If-Modified-Since when both are present
+     */
+    private static boolean notModified(HttpHeaders headers, OpenFileCache.CachedFile file) {
+        String ifNoneMatch = headers.get(HttpHeaderNames.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etagListMatches(ifNoneMatch, file.etag);
+        }
+        String ifModifiedSince = headers.get(HttpHeaderNames.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null) {
+            Date since = DateFormatter.parseHttpDate(ifModifiedSince);
+            // HTTP dates have second precision
+            return since != null && file.lastModified / 1000 <= since.getTime() / 1000;
+        }
+        return false;
+    }
+
+    /**
+     * A Range is honoured only if If-Range is absent or still names the current version
+     */
+    private static boolean ifRangeMatches(HttpHeaders headers, OpenFileCache.CachedFile file) {
+        String ifRange = headers.get(HttpHeaderNames.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(file.etag);
+        }
+        Date date = DateFormatter.parseHttpDate(ifRange);
+        return date != null && file.lastModified / 1000 == date.getTime() / 1000;
+    }
+
+    /** Comma separated entity tags, weak ones compared weakly, or "*" */
+    private static boolean etagListMatches(String list, String etag) {
+        int pos = 0;
+        while (pos < list.length()) {
+            int comma = list.indexOf(',', pos);
+            int end = comma < 0 ? list.length() : comma;
+            String tag = list.substring(pos, end).trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(etag)) {
+                return true;
+            }
+            pos = end + 1;
+        }
+        return false;
+    }
+
+    /**
+     * Parses a single "bytes=" range against the file length.
+     *
+     * @return {start, end} inclusive, an empty array to ignore the header (multiple ranges, other units or
+     * malformed: the whole file is sent), or null if the range cannot be satisfied
+     */
+    static long[] parseRange(String header, long length) {
+        String value = header.trim();
+        if (!value.regionMatches(true, 0, "bytes=", 0, 6) || value.indexOf(',') >= 0) {
+            return new long[0];
+        }
+        int dash = value.indexOf('-', 6);
+        if (dash < 0) {
+            return new long[0];
+        }
+        String first = value.substring(6, dash).trim();
+        String last = value.substring(dash + 1).trim();
+        try {
+            if (first.isEmpty()) {
+                // suffix: the last n bytes
+                long suffix = Long.parseLong(last);
+                if (suffix <= 0 || length == 0) {
+                    return null;
+                }
+                return new long[]{Math.max(0, length - suffix), length - 1};
+            }
+            long start = Long.parseLong(first);
+            long end = last.isEmpty() ? length - 1 : Math.min(Long.parseLong(last), length - 1);
+            if (start < 0 || (!last.isEmpty() && Long.parseLong(last) < start)) {
+                return new long[0];
+            }
+            if (start >= length) {
+                return null;
+            }
+            return new long[]{start, end};
+        } catch (NumberFormatException e) {
+            return new long[0];
+        }
+    }
+
+    private static String contentType(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        return type != null ? type : "application/octet-stream";
+    }
+
+    /**
+     * sendfile body over the cached channel. Returns the file reference instead of closing the channel.
+     */
+    private static final class CachedFileRegion extends DefaultFileRegion {
+        private final OpenFileCache.CachedFile file;
+
+        CachedFileRegion(OpenFileCache.CachedFile file, long position, long count) {
+            super(file.channel, position, count);
+            this.file = file;
+        }
+
+        @Override
+        protected void deallocate() {
+            file.release();
+        }
+    }
+
+    /**
+     * Chunked body for SSL, read with positional reads so the shared channel's position is never touched
+     * (which rules out ChunkedNioFile).
+     */
+    private static final class CachedFileInput implements ChunkedInput<ByteBuf> {
+        private final OpenFileCache.CachedFile file;
+        private final long start;
+        private final long end;
+        private long offset;
+        private boolean closed;
+
+        CachedFileInput(OpenFileCache.CachedFile file, long start, long length) {
+            this.file = file;
+            this.start = start;
+            this.end = start + length;
+            this.offset = start;
+        }
+
+        @Override
+        public boolean isEndOfInput() {
+            return offset >= end;
+        }
+
+        @Override
+        public void close() {
+            if (!closed) {
+                closed = true;
+                file.release();
+            }
+        }
+
+        @Deprecated
+        @Override
+        public ByteBuf readChunk(ChannelHandlerContext ctx) throws Exception {
+            return readChunk(ctx.alloc());
+        }
+
+        @Override
+        public ByteBuf readChunk(ByteBufAllocator allocator) throws Exception {
+            if (offset >= end) {
+                return null;
+            }
+            int chunkSize = (int) Math.min(CHUNK_SIZE, end - offset);
+            ByteBuf buffer = allocator.buffer(chunkSize);
+            boolean release = true;
+            try {
+                while (buffer.writerIndex() < chunkSize) {
+                    int read = buffer.writeBytes(file.channel, offset + buffer.writerIndex(), chunkSize - buffer.writerIndex());
+                    if (read < 0) {
+                        throw new IOException("file truncated: " + file.path);
+                    }
+                }
+                offset += chunkSize;
+                release = false;
+                return buffer;
+            } finally {
+                if (release) {
+                    buffer.release();
+                }
+            }
+        }
+
+        @Override
+        public long length() {
+            return end - start;
+        }
+
+        @Override
+        public long progress() {
+            return offset - start;
+        }
+    }
+}
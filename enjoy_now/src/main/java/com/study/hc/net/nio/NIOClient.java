@@ -1,42 +1,464 @@
 package com.study.hc.net.nio;
 
+import com.study.hc.metrics.LatencyHistogram;
+import com.study.hc.metrics.LatencyRecorder;
+
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
-import java.util.Scanner;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
+/**
+ * 非阻塞的HTTP压测客户端: M个selector线程, 一共N个长连接, 每个连接上最多K个流水线(pipelining)请求.
+ * <p>
+ * 两种发压方式:
+ * <ul>
+ * <li>闭环(-Drate=0, 默认): 每个连接始终保持K个未完成的请求, 收到一个响应就补发一个, 测最大吞吐</li>
+ * <li>开环(-Drate=每秒请求数): 请求按固定节奏"应该"发出, 延迟从应该发出的时间算起.
+ * 服务端变慢时请求在客户端排队, 这段排队时间也算进延迟里, 避免协调遗漏(coordinated omission)把慢的部分藏起来</li>
+ * </ul>
+ * 服务端关闭连接(Connection: close, 比如达到了每个连接的最大请求数)时自动重连, 没有收到响应的请求在新连接上重发,
+ * 延迟仍从第一次发送算起.
+ * <p>
+ * 延迟记录在{@link LatencyRecorder}中, 每个selector线程一个Writer. 运行期间每秒输出一次区间统计, 结束时输出整体分布.
+ * <pre>
+ * java -Dport=8080 -Dconnections=100 -Dthreads=2 -Dpipeline=16 -Dduration=30 com.study.hc.net.nio.NIOClient
+ * java -Drate=50000 -Dconnections=100 -Dpipeline=4 com.study.hc.net.nio.NIOClient
+ * </pre>
+ */
 public class NIOClient {
 
+    static final String HOST = System.getProperty("host", "127.0.0.1");
+    static final int PORT = Integer.getInteger("port", 8080);
+    static final String PATH = System.getProperty("path", "/");
+    static final int CONNECTIONS = Integer.getInteger("connections", 100);
+    static final int THREADS = Integer.getInteger("threads", Math.max(1, Runtime.getRuntime().availableProcessors() / 2));
+    static final int PIPELINE = Integer.getInteger("pipeline", 1);
+    /** 所有连接合计每秒发出的请求数, 0表示闭环 */
+    static final int RATE = Integer.getInteger("rate", 0);
+    static final int DURATION_SECONDS = Integer.getInteger("duration", 10);
+    static final int WARMUP_SECONDS = Integer.getInteger("warmup", 2);
+
     public static void main(String[] args) throws Exception {
-        SocketChannel socketChannel = SocketChannel.open();
-        socketChannel.configureBlocking(false);
-        socketChannel.connect(new InetSocketAddress("127.0.0.1", 8080));
-        while (!socketChannel.finishConnect()) {
-            // 没连接上,则一直等待
-            Thread.yield();
-        }
-        Scanner scanner = new Scanner(System.in);
-        System.out.println("请输入：");
-        // 发送内容
-        String msg = scanner.nextLine();
-        ByteBuffer buffer = ByteBuffer.wrap(msg.getBytes());
-        while (buffer.hasRemaining()) {
-            socketChannel.write(buffer);
-        }
-        // 读取响应
-        System.out.println("收到服务端响应:");
-        ByteBuffer requestBuffer = ByteBuffer.allocate(1024);
-
-        while (socketChannel.isOpen() && socketChannel.read(requestBuffer) != -1) {
-            // 长连接情况下,需要手动判断数据有没有读取结束 (此处做一个简单的判断: 超过0字节就认为请求结束了)
-            if (requestBuffer.position() > 0) break;
-        }
-        requestBuffer.flip();
-        byte[] content = new byte[requestBuffer.limit()];
-        requestBuffer.get(content);
-        System.out.println(new String(content));
-        scanner.close();
-        socketChannel.close();
+        byte[] request = ("GET " + PATH + " HTTP/1.1\r\nHost: " + HOST + ":" + PORT + "\r\n\r\n").getBytes();
+        InetSocketAddress address = new InetSocketAddress(HOST, PORT);
+        // 每个连接的发送间隔, 开环时使用
+        long intervalNanos = RATE > 0 ? TimeUnit.SECONDS.toNanos(1) * CONNECTIONS / RATE : 0;
+
+        System.out.println("压测 " + address + PATH + ": " + CONNECTIONS + "个连接, " + THREADS + "个线程, pipeline=" + PIPELINE
+                + (RATE > 0 ? ", 开环 " + RATE + " req/s" : ", 闭环") + ", 预热" + WARMUP_SECONDS + "s, 持续" + DURATION_SECONDS + "s");
+
+        LatencyRecorder recorder = new LatencyRecorder();
+        LoadThread[] threads = new LoadThread[THREADS];
+        for (int i = 0; i < THREADS; i++) {
+            threads[i] = new LoadThread("load-" + i, request, intervalNanos, recorder.newWriter());
+        }
+        // 1、 连接平均分给各个线程, 在各自的selector上非阻塞地建立连接
+        for (int i = 0; i < CONNECTIONS; i++) {
+            threads[i % THREADS].connect(address);
+        }
+        for (LoadThread thread : threads) {
+            thread.start();
+        }
+        // 2、 预热阶段的数据丢掉, 之后每秒输出一次这一秒的统计
+        Thread.sleep(TimeUnit.SECONDS.toMillis(WARMUP_SECONDS));
+        LatencyHistogram warmup = recorder.intervalSnapshot();
+        long warmupErrors = errors(threads);
+        long start = System.nanoTime();
+        for (int second = 1; second <= DURATION_SECONDS; second++) {
+            Thread.sleep(TimeUnit.SECONDS.toMillis(1));
+            System.out.println("第" + second + "秒(ms): " + recorder.intervalSnapshot().summary(1e6));
+        }
+        for (LoadThread thread : threads) {
+            thread.running = false;
+            thread.selector.wakeup();
+        }
+        for (LoadThread thread : threads) {
+            thread.join();
+        }
+        long elapsed = System.nanoTime() - start;
+
+        // 3、 整个测试期间(去掉预热)的分布
+        LatencyHistogram histogram = recorder.snapshot();
+        histogram.subtract(warmup);
+        long reconnects = 0;
+        for (LoadThread thread : threads) {
+            reconnects += thread.reconnects;
+        }
+        System.out.printf("请求数: %d, 吞吐: %.0f req/s, 错误: %d, 重连: %d%n",
+                histogram.count(), histogram.count() * 1e9 / elapsed, errors(threads) - warmupErrors, reconnects);
+        System.out.println("延迟(ms): " + histogram.summary(1e6));
+        histogram.outputPercentiles(System.out, 1e6);
     }
 
+    private static long errors(LoadThread[] threads) {
+        long errors = 0;
+        for (LoadThread thread : threads) {
+            errors += thread.errors;
+        }
+        return errors;
+    }
+
+    /**
+     * 一个selector线程, 负责自己的那部分连接. 连接只被这个线程访问, 不需要同步
+     */
+    static class LoadThread extends Thread {
+        final Selector selector;
+        final byte[] request;
+        final long intervalNanos;
+        final List<LoadConnection> connections = new ArrayList<>();
+        final LatencyRecorder.Writer latency;
+        /** 只有这个线程写 */
+        volatile long errors;
+        volatile long reconnects;
+        volatile boolean running = true;
+
+        LoadThread(String name, byte[] request, long intervalNanos, LatencyRecorder.Writer latency) throws IOException {
+            super(name);
+            this.selector = Selector.open();
+            this.request = request;
+            this.intervalNanos = intervalNanos;
+            this.latency = latency;
+        }
+
+        void connect(InetSocketAddress address) throws IOException {
+            LoadConnection connection = new LoadConnection(this, address);
+            connection.connect();
+            connections.add(connection);
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    // 开环时最多睡到下一个请求应该发出的时间, 闭环时由响应驱动
+                    if (intervalNanos > 0) {
+                        selector.select(1);
+                    } else {
+                        selector.select(100);
+                    }
+                    long now = System.nanoTime();
+                    Set<SelectionKey> selected = selector.selectedKeys();
+                    Iterator<SelectionKey> iter = selected.iterator();
+                    while (iter.hasNext()) {
+                        SelectionKey key = iter.next();
+                        iter.remove();
+                        LoadConnection connection = (LoadConnection) key.attachment();
+                        try {
+                            if (key.isConnectable()) {
+                                if (((SocketChannel) key.channel()).finishConnect()) {
+                                    key.interestOps(SelectionKey.OP_READ);
+                                    connection.onConnected();
+                                }
+                                continue;
+                            }
+                            if (key.isWritable()) {
+                                connection.flush();
+                            }
+                            if (key.isReadable()) {
+                                connection.onReadable(now);
+                            }
+                        } catch (IOException e) {
+                            errors++;
+                            connection.close();
+                        }
+                    }
+                    if (intervalNanos > 0) {
+                        for (LoadConnection connection : connections) {
+                            try {
+                                connection.sendDue(now);
+                            } catch (IOException e) {
+                                errors++;
+                                connection.close();
+                            }
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            } finally {
+                for (LoadConnection connection : connections) {
+                    connection.close();
+                }
+                try {
+                    selector.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+    }
+
+    /**
+     * 一个压测连接: 记录每个未完成请求的开始时间(FIFO, 响应按请求顺序返回), 解析响应的边界
+     */
+    static class LoadConnection {
+        final LoadThread thread;
+        final InetSocketAddress address;
+        SocketChannel channel;
+        final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+        ResponseParser parser = new ResponseParser();
+        /** 未完成请求的开始时间, 环形队列 */
+        final long[] startTimes = new long[PIPELINE];
+        int head;
+        int outstanding;
+        /** 开环: 下一个请求应该发出的时间 */
+        long nextSendTime;
+        ByteBuffer pendingWrite;
+        boolean connected;
+        /** 服务端声明了Connection: close, 不再发新请求, 等它关闭后重连 */
+        boolean closing;
+        boolean closed;
+
+        LoadConnection(LoadThread thread, InetSocketAddress address) {
+            this.thread = thread;
+            this.address = address;
+        }
+
+        void connect() throws IOException {
+            channel = SocketChannel.open();
+            channel.configureBlocking(false);
+            channel.socket().setTcpNoDelay(true);
+            // 不在这里等待连接建立, 连接建立的通知(OP_CONNECT)由selector线程处理
+            if (channel.connect(address)) {
+                channel.register(thread.selector, SelectionKey.OP_READ, this);
+                onConnected();
+            } else {
+                channel.register(thread.selector, SelectionKey.OP_CONNECT, this);
+            }
+        }
+
+        void onConnected() throws IOException {
+            connected = true;
+            long now = System.nanoTime();
+            if (outstanding > 0) {
+                // 重连: 上一个连接上没有收到响应的请求重发, 开始时间不变
+                write(outstanding);
+            }
+            if (thread.intervalNanos > 0) {
+                if (nextSendTime == 0) {
+                    // 错开各个连接的发送时间, 避免所有连接同时发
+                    nextSendTime = now + (long) (Math.random() * thread.intervalNanos);
+                }
+            } else {
+                // 闭环: 一次把流水线填满
+                send(PIPELINE - outstanding, now);
+            }
+        }
+
+        /**
+         * 服务端关闭了连接, 重新连接
+         */
+        void reconnect() throws IOException {
+            thread.reconnects++;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+            connected = false;
+            closing = false;
+            pendingWrite = null;
+            readBuffer.clear();
+            parser = new ResponseParser();
+            connect();
+        }
+
+        /**
+         * 开环: 发出所有到期的请求. 流水线满了就先不发, nextSendTime不前进, 这些请求的延迟仍从原定时间算起
+         */
+        void sendDue(long now) throws IOException {
+            if (closed || !connected || closing || nextSendTime == 0) {
+                return;
+            }
+            while (nextSendTime <= now && outstanding < PIPELINE && pendingWrite == null) {
+                send(1, nextSendTime);
+                nextSendTime += thread.intervalNanos;
+            }
+        }
+
+        private void send(int n, long startTime) throws IOException {
+            if (n <= 0 || closing) {
+                return;
+            }
+            for (int i = 0; i < n; i++) {
+                startTimes[(head + outstanding + i) % PIPELINE] = startTime;
+            }
+            outstanding += n;
+            write(n);
+        }
+
+        /**
+         * 发出n个请求. 所有发送路径都经过这里: 上一次还有没写完的数据时, 新请求接在它后面, 不能覆盖,
+         * 否则没写出去的请求被丢掉, outstanding却已经计数, 连接就卡住了. 积压不超过PIPELINE个请求
+         */
+        private void write(int n) throws IOException {
+            byte[] request = thread.request;
+            int pending = pendingWrite == null ? 0 : pendingWrite.remaining();
+            ByteBuffer buffer = ByteBuffer.allocate(pending + request.length * n);
+            if (pending > 0) {
+                buffer.put(pendingWrite);
+            }
+            for (int i = 0; i < n; i++) {
+                buffer.put(request);
+            }
+            buffer.flip();
+            pendingWrite = buffer;
+            flush();
+        }
+
+        void flush() throws IOException {
+            if (pendingWrite == null) {
+                return;
+            }
+            channel.write(pendingWrite);
+            SelectionKey key = channel.keyFor(thread.selector);
+            if (pendingWrite.hasRemaining()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                pendingWrite = null;
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void onReadable(long now) throws IOException {
+            if (channel.read(readBuffer) == -1) {
+                reconnect();
+                return;
+            }
+            readBuffer.flip();
+            int completed = 0;
+            while (parser.parse(readBuffer)) {
+                if (outstanding == 0) {
+                    throw new IOException("unexpected response");
+                }
+                if (parser.status >= 400) {
+                    thread.errors++;
+                }
+                if (parser.close) {
+                    closing = true;
+                }
+                thread.latency.record(now - startTimes[head]);
+                head = (head + 1) % PIPELINE;
+                outstanding--;
+                completed++;
+            }
+            readBuffer.compact();
+            if (completed > 0 && thread.intervalNanos == 0) {
+                // 闭环: 完成几个补发几个
+                send(completed, now);
+            }
+        }
+
+        void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * 只识别响应的边界: 状态行 + 头部 + Content-Length个字节的body
+     */
+    static class ResponseParser {
+        private static final byte[] CONTENT_LENGTH = "content-length:".getBytes();
+        private static final byte[] CONNECTION = "connection:".getBytes();
+
+        int status;
+        /** 响应带有Connection: close */
+        boolean close;
+        private boolean inBody;
+        private long bodyRemaining;
+        /** 头部中已经扫描过的位置, 数据不完整时下次从这里继续 */
+        private int scanned;
+
+        /**
+         * 解析出一个完整的响应返回true, position移动到响应之后; 数据不完整返回false
+         */
+        boolean parse(ByteBuffer in) throws IOException {
+            if (!inBody) {
+                int start = in.position();
+                int end = -1;
+                for (int i = Math.max(start + scanned, start + 3); i < in.limit(); i++) {
+                    if (in.get(i) == '\n' && in.get(i - 1) == '\r' && in.get(i - 2) == '\n' && in.get(i - 3) == '\r') {
+                        end = i + 1;
+                        break;
+                    }
+                }
+                if (end < 0) {
+                    scanned = Math.max(0, in.limit() - start - 3);
+                    if (in.limit() - start == in.capacity()) {
+                        throw new IOException("response header too large");
+                    }
+                    return false;
+                }
+                scanned = 0;
+                status = (in.get(start + 9) - '0') * 100 + (in.get(start + 10) - '0') * 10 + (in.get(start + 11) - '0');
+                int contentLength = findHeader(in, start, end, CONTENT_LENGTH);
+                if (contentLength < 0) {
+                    throw new IOException("response without Content-Length");
+                }
+                bodyRemaining = 0;
+                for (int k = contentLength; k < end; k++) {
+                    byte b = in.get(k);
+                    if (b >= '0' && b <= '9') {
+                        bodyRemaining = bodyRemaining * 10 + (b - '0');
+                    } else if (b == '\r') {
+                        break;
+                    }
+                }
+                int connection = findHeader(in, start, end, CONNECTION);
+                close = connection >= 0 && isClose(in, connection);
+                in.position(end);
+                inBody = true;
+            }
+            int n = (int) Math.min(bodyRemaining, in.remaining());
+            in.position(in.position() + n);
+            bodyRemaining -= n;
+            if (bodyRemaining > 0) {
+                return false;
+            }
+            inBody = false;
+            return true;
+        }
+
+        /**
+         * 查找响应头(名字小写, 带冒号), 返回冒号之后的下标, 找不到返回-1
+         */
+        private static int findHeader(ByteBuffer in, int start, int end, byte[] name) {
+            for (int i = start; i < end - name.length; i++) {
+                if (in.get(i) != '\n') {
+                    continue;
+                }
+                int j = 0;
+                while (j < name.length && Character.toLowerCase(in.get(i + 1 + j)) == name[j]) {
+                    j++;
+                }
+                if (j == name.length) {
+                    return i + 1 + j;
+                }
+            }
+            return -1;
+        }
+
+        private static boolean isClose(ByteBuffer in, int index) {
+            while (in.get(index) == ' ') {
+                index++;
+            }
+            return (in.get(index) | 0x20) == 'c' && (in.get(index + 1) | 0x20) == 'l';
+        }
+    }
 }
@@ -6,7 +6,9 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 直接基于非阻塞的写法,一个线程处理轮询所有请求
@@ -16,6 +18,11 @@ public class NIOServer1 {
      * 已经建立连接的集合
      */
     private static ArrayList<SocketChannel> channels = new ArrayList<>();
+    /**
+     * 每个连接最后一次收到数据的时间. 连上之后一直不发数据的连接(包括对方已经掉线的半开连接)超过idleTimeout秒就关闭
+     */
+    private static HashMap<SocketChannel, Long> lastActiveTimes = new HashMap<>();
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("idleTimeout", 60));
 
     public static void main(String[] args) throws Exception {
         // 创建网络服务端
@@ -30,18 +37,35 @@ public class NIOServer1 {
                 System.out.println("收到新连接 : " + socketChannel.getRemoteAddress());
                 socketChannel.configureBlocking(false); // 默认是阻塞的,一定要设置为非阻塞
                 channels.add(socketChannel);
+                lastActiveTimes.put(socketChannel, System.nanoTime());
             } else {
                 // 没有新连接的情况下,就去处理现有连接的数据,处理完的就删除掉
                 Iterator<SocketChannel> iterator = channels.iterator();
+                long now = System.nanoTime();
                 while (iterator.hasNext()) {
                     SocketChannel ch = iterator.next();
                     try {
                         ByteBuffer requestBuffer = ByteBuffer.allocate(1024);
 
-                        if (ch.read(requestBuffer) == 0) {
-                            // 等于0,代表这个通道没有数据需要处理,那就待会再处理
+                        int n = ch.read(requestBuffer);
+                        if (n == 0) {
+                            // 等于0,代表这个通道没有数据需要处理,那就待会再处理; 空闲太久的直接关闭
+                            if (now - lastActiveTimes.get(ch) > IDLE_TIMEOUT_NANOS) {
+                                System.out.println("空闲超时, 关闭连接 : " + ch.getRemoteAddress());
+                                iterator.remove();
+                                lastActiveTimes.remove(ch);
+                                ch.close();
+                            }
                             continue;
                         }
+                        if (n == -1) {
+                            // 客户端已经关闭了连接
+                            iterator.remove();
+                            lastActiveTimes.remove(ch);
+                            ch.close();
+                            continue;
+                        }
+                        lastActiveTimes.put(ch, now);
                         while (ch.isOpen() && ch.read(requestBuffer) != -1) {
                             // 长连接情况下,需要手动判断数据有没有读取结束 (此处做一个简单的判断: 超过0字节就认为请求结束了)
                             if (requestBuffer.position() > 0) break;
@@ -55,16 +79,25 @@ public class NIOServer1 {
 
                         // 响应结果 200
                         String response = "HTTP/1.1 200 OK\r\n" +
-                                "Content-Length: 11\r\n\r\n" +
+                                "Content-Length: 11\r\n" +
+                                "Connection: close\r\n\r\n" +
                                 "Hello World";
                         ByteBuffer buffer = ByteBuffer.wrap(response.getBytes());
                         while (buffer.hasRemaining()) {
                             ch.write(buffer);
                         }
+                        // 不再处理的连接要关闭, 否则文件描述符会一直泄漏
                         iterator.remove();
+                        lastActiveTimes.remove(ch);
+                        ch.close();
                     } catch (IOException e) {
                         e.printStackTrace();
                         iterator.remove();
+                        lastActiveTimes.remove(ch);
+                        try {
+                            ch.close();
+                        } catch (IOException ignore) {
+                        }
                     }
                 }
             }
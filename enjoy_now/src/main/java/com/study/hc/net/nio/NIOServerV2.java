@@ -1,19 +1,184 @@
 package com.study.hc.net.nio;
 
+import com.study.hc.net.nio.http.HttpParseException;
+import com.study.hc.net.nio.http.HttpRequestParser;
+import com.study.hc.net.nio.http.HttpResponses;
+import com.study.hc.net.nio.reactor.TimerWheel;
+
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.*;
+import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 结合Selector实现的非阻塞服务端(放弃对channel的轮询,借助消息通知机制)
  */
 public class NIOServerV2 {
 
+    private static final byte[] RESPONSE = HttpResponses.text(200, "OK", "Hello World", true);
+    private static final byte[] RESPONSE_CLOSE = HttpResponses.text(200, "OK", "Hello World", false);
+
+    private static final int BUFFER_SIZE = 8192;
+    /** 写队列积压超过高水位时暂停读取, 降到低水位以下再恢复 */
+    private static final int HIGH_WATER_MARK = 64 * 1024;
+    private static final int LOW_WATER_MARK = 32 * 1024;
+
+    /** 堆外缓冲区池, 只有一个线程, 不需要加锁 */
+    private static final ArrayDeque<ByteBuffer> bufferPool = new ArrayDeque<>();
+    private static final ByteBuffer[] gatherArray = new ByteBuffer[16];
+
+    /** 连接上超过这个时间没有任何读写就关闭, 释放文件描述符 */
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("idleTimeout", 60));
+    /** 空闲连接超时的时间轮, 每个连接只有一个定时任务, 读写时只更新时间戳 */
+    private static final TimerWheel timerWheel = new TimerWheel(100, TimeUnit.MILLISECONDS, 512);
+    /** 本轮select返回的时间 */
+    private static long now = System.nanoTime();
+
+    static ByteBuffer acquire() {
+        ByteBuffer buffer = bufferPool.pollLast();
+        return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+    }
+
+    static void release(ByteBuffer buffer) {
+        if (bufferPool.size() < 1024) {
+            buffer.clear();
+            bufferPool.addLast(buffer);
+        }
+    }
+
+    /**
+     * 每个连接的状态: 读缓冲区在多次读事件之间复用, 解析器记录解析进度, 写不完的响应放入写队列
+     */
+    static class ConnectionContext {
+        final SocketChannel channel;
+        final SelectionKey key;
+        final ByteBuffer requestBuffer = acquire();
+        final HttpRequestParser parser = new HttpRequestParser();
+        /** 写队列, 其中的缓冲区处于读模式 */
+        final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        long pendingBytes;
+        boolean closeAfterFlush;
+        boolean closed;
+        /** 最后一次读到或者写出数据的时间 */
+        long lastActiveTime = now;
+        final TimerWheel.Timeout idleTimer;
+
+        ConnectionContext(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+            this.idleTimer = timerWheel.schedule(this::onIdleTimer, IDLE_TIMEOUT_NANOS, TimeUnit.NANOSECONDS, now);
+        }
+
+        /**
+         * 定时任务到期时才检查是否真的空闲, 期间有读写就按剩余时间重新放回时间轮
+         */
+        void onIdleTimer() {
+            long remaining = lastActiveTime + IDLE_TIMEOUT_NANOS - now;
+            if (remaining > 0) {
+                idleTimer.reschedule(remaining, TimeUnit.NANOSECONDS, now);
+                return;
+            }
+            try {
+                System.out.println("空闲连接超时, 关闭 : " + channel.getRemoteAddress());
+                close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+
+        /**
+         * 放入写队列(拷贝到池化的堆外缓冲区中), 由flush()统一写出
+         */
+        void write(byte[] data) {
+            int offset = 0;
+            while (offset < data.length) {
+                ByteBuffer tail = outbound.peekLast();
+                if (tail == null || tail.limit() == tail.capacity()) {
+                    tail = acquire();
+                    tail.limit(0);
+                    outbound.addLast(tail);
+                }
+                int n = Math.min(data.length - offset, tail.capacity() - tail.limit());
+                int readIndex = tail.position();
+                int writeIndex = tail.limit();
+                tail.limit(writeIndex + n);
+                tail.position(writeIndex);
+                tail.put(data, offset, n);
+                tail.position(readIndex);
+                offset += n;
+                pendingBytes += n;
+            }
+        }
+
+        /**
+         * gathering write写出写队列, 写不完就关注OP_WRITE, 而不是在这里自旋等待慢客户端
+         */
+        void flush() throws IOException {
+            while (!outbound.isEmpty()) {
+                int n = 0;
+                long attempted = 0;
+                for (ByteBuffer buffer : outbound) {
+                    gatherArray[n++] = buffer;
+                    attempted += buffer.remaining();
+                    if (n == gatherArray.length) {
+                        break;
+                    }
+                }
+                long written = channel.write(gatherArray, 0, n);
+                for (int i = 0; i < n; i++) {
+                    gatherArray[i] = null;
+                }
+                pendingBytes -= written;
+                if (written > 0) {
+                    lastActiveTime = now;
+                }
+                while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+                    release(outbound.pollFirst());
+                }
+                if (written < attempted) {
+                    break;
+                }
+            }
+            if (outbound.isEmpty() && closeAfterFlush) {
+                close();
+                return;
+            }
+            int ops = 0;
+            if (!closeAfterFlush && pendingBytes <= (isReadPaused() ? LOW_WATER_MARK : HIGH_WATER_MARK)) {
+                ops |= SelectionKey.OP_READ;
+            }
+            if (!outbound.isEmpty()) {
+                ops |= SelectionKey.OP_WRITE;
+            }
+            if (key.interestOps() != ops) {
+                key.interestOps(ops);
+            }
+        }
+
+        boolean isReadPaused() {
+            return (key.interestOps() & SelectionKey.OP_READ) == 0;
+        }
+
+        void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            idleTimer.cancel();
+            key.cancel();
+            channel.close();
+            release(requestBuffer);
+            ByteBuffer buffer;
+            while ((buffer = outbound.pollFirst()) != null) {
+                release(buffer);
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         // 1. 创建网络服务端ServerSocketChannel
         ServerSocketChannel serverSocketChannel = ServerSocketChannel.open();
@@ -31,7 +196,10 @@ public class NIOServerV2 {
 
         while (true) {
             // 不再轮询通道,改用下面轮询事件的方式.select方法有阻塞效果,直到有事件通知才会有返回
-            selector.select();
+            // 有空闲连接需要检查时, 最多阻塞到时间轮的下一个tick
+            long nanos = timerWheel.nanosUntilNextTick(System.nanoTime());
+            selector.select(nanos < 0 ? 0 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999_999)));
+            now = System.nanoTime();
             // 获取事件
             Set<SelectionKey> selectionKeys = selector.selectedKeys();
             // 遍历查询结果e
@@ -46,41 +214,63 @@ public class NIOServerV2 {
                     // 将拿到的客户端连接通道,注册到selector上面
                     SocketChannel clientSocketChannel = server.accept(); // mainReactor 轮询accept
                     clientSocketChannel.configureBlocking(false);
-                    clientSocketChannel.register(selector, SelectionKey.OP_READ, clientSocketChannel);
+                    SelectionKey clientKey = clientSocketChannel.register(selector, SelectionKey.OP_READ);
+                    clientKey.attach(new ConnectionContext(clientSocketChannel, clientKey));
                     System.out.println("收到新连接 : " + clientSocketChannel.getRemoteAddress());
                 }
 
-                if (key.isReadable()) {
-                    SocketChannel socketChannel = (SocketChannel) key.attachment();
+                if (key.isValid() && key.isWritable()) {
+                    ConnectionContext context = (ConnectionContext) key.attachment();
                     try {
-                        ByteBuffer requestBuffer = ByteBuffer.allocate(1024);
-                        while (socketChannel.isOpen() && socketChannel.read(requestBuffer) != -1) {
-                            // 长连接情况下,需要手动判断数据有没有读取结束 (此处做一个简单的判断: 超过0字节就认为请求结束了)
-                            if (requestBuffer.position() > 0) break;
+                        context.flush();
+                    } catch (IOException e) {
+                        context.close();
+                        continue;
+                    }
+                }
+
+                if (key.isValid() && key.isReadable()) {
+                    ConnectionContext context = (ConnectionContext) key.attachment();
+                    SocketChannel socketChannel = context.channel;
+                    ByteBuffer requestBuffer = context.requestBuffer;
+                    try {
+                        if (socketChannel.read(requestBuffer) == -1) {
+                            context.close();
+                            continue;
                         }
-                        if(requestBuffer.position() == 0) continue; // 如果没数据了, 则不继续后面的处理
+                        context.lastActiveTime = now;
                         requestBuffer.flip();
-                        byte[] content = new byte[requestBuffer.limit()];
-                        requestBuffer.get(content);
-                        System.out.println(new String(content));
-                        System.out.println("收到数据,来自：" + socketChannel.getRemoteAddress());
-                        // TODO 业务操作 数据库 接口调用等等
-
-                        // 响应结果 200
-                        String response = "HTTP/1.1 200 OK\r\n" +
-                                "Content-Length: 11\r\n\r\n" +
-                                "Hello World";
-                        ByteBuffer buffer = ByteBuffer.wrap(response.getBytes());
-                        while (buffer.hasRemaining()) {
-                            socketChannel.write(buffer);
+                        try {
+                            // 长连接情况下,一次读到的数据可能不足一个请求,也可能包含多个请求,由解析器判断请求是否结束
+                            while (context.parser.parse(requestBuffer)) {
+                                System.out.println("收到数据,来自：" + socketChannel.getRemoteAddress());
+                                // TODO 业务操作 数据库 接口调用等等
+
+                                // 响应结果 200
+                                boolean keepAlive = context.parser.isKeepAlive();
+                                context.write(keepAlive ? RESPONSE : RESPONSE_CLOSE);
+                                if (!keepAlive) {
+                                    context.closeAfterFlush = true;
+                                    break;
+                                }
+                            }
+                        } catch (HttpParseException e) {
+                            context.write(HttpResponses.error(e.status()));
+                            context.closeAfterFlush = true;
                         }
+                        // 没有解析完的数据保留下来,和下一次读到的数据拼在一起
+                        requestBuffer.compact();
+                        // 这次读到的所有请求的响应一起写出
+                        context.flush();
                     } catch (IOException e) {
                         // e.printStackTrace();
-                        key.cancel(); // 取消事件订阅
+                        context.close(); // 取消事件订阅
                     }
                 }
             }
             selector.selectNow();
+            // 关闭超时的空闲连接
+            timerWheel.expire(now);
         }
         // 问题: 此处一个selector监听所有事件,一个线程处理所有请求事件. 会成为瓶颈! 要有多线程的运用
     }
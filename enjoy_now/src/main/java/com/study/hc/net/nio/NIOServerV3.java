@@ -1,204 +1,175 @@
 package com.study.hc.net.nio;
 
+import com.study.hc.net.nio.http.HttpParseException;
+import com.study.hc.net.nio.http.HttpRequest;
+import com.study.hc.net.nio.http.HttpRequestParser;
+import com.study.hc.net.nio.http.HttpResponses;
+import com.study.hc.net.nio.reactor.Connection;
+import com.study.hc.net.nio.reactor.ConnectionHandler;
+import com.study.hc.net.nio.reactor.IdleState;
+import com.study.hc.net.nio.reactor.NioReactorServer;
+import com.study.hc.net.nio.reactor.ReactorChooser;
+import com.study.hc.net.nio.reactor.RejectionPolicy;
+import com.study.hc.net.nio.reactor.WaitStrategy;
+import com.study.hc.net.nio.reactor.WorkerStage;
+
 import java.io.IOException;
-import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.channels.*;
-import java.util.Iterator;
-import java.util.Random;
-import java.util.Set;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.FutureTask;
-import java.util.concurrent.LinkedBlockingQueue;
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 /**
  * NIO selector 多路复用reactor线程模型
+ * <p>
+ * reactor线程模型的实现已经抽取到{@link NioReactorServer}中, 这里只需要提供连接上的处理逻辑
  */
 public class NIOServerV3 {
-    /** 处理业务操作的线程 */
-    private static ExecutorService workPool = Executors.newCachedThreadPool();
+    static final int PORT = Integer.parseInt(System.getProperty("port", "8080"));
+    static final int ACCEPTOR_THREADS = Integer.parseInt(System.getProperty("acceptorThreads", "1"));
+    /** 多个accept线程时, 每个线程一个SO_REUSEPORT的监听channel */
+    static final boolean REUSE_PORT = Boolean.getBoolean("reusePort");
+    static final int IO_THREADS = Integer.parseInt(System.getProperty("ioThreads",
+            String.valueOf(Runtime.getRuntime().availableProcessors())));
+    /** 新连接分配给哪个I/O线程: round-robin, least-connections, p2c */
+    static final String REACTOR_CHOOSER = System.getProperty("reactorChooser", "p2c");
+    /** I/O线程没有事件时先空转多少轮、再yield多少轮才阻塞, 都是0就是一直阻塞 */
+    static final int SPIN_ITERATIONS = Integer.getInteger("spinIterations", 0);
+    static final int YIELD_ITERATIONS = Integer.getInteger("yieldIterations", 0);
+    static final int WORKER_THREADS = Integer.parseInt(System.getProperty("workerThreads",
+            String.valueOf(Runtime.getRuntime().availableProcessors() * 2)));
+    static final int MAX_PENDING_TASKS = Integer.parseInt(System.getProperty("maxPendingTasks", "10000"));
+    /** 超时配置, 单位秒 */
+    static final long READ_IDLE_TIMEOUT = Long.getLong("readIdleTimeout", 60);
+    static final long WRITE_IDLE_TIMEOUT = Long.getLong("writeIdleTimeout", 30);
+    static final long REQUEST_TIMEOUT = Long.getLong("requestTimeout", 10);
+
+    /** 处理业务操作的线程, 线程数和积压的任务数都有上限, 积压满了直接响应503 */
+    private static final WorkerStage workerStage = new WorkerStage(WORKER_THREADS, MAX_PENDING_TASKS, RejectionPolicy.ABORT);
+
+    private static final byte[] RESPONSE = HttpResponses.text(200, "OK", "Hello World", true);
+    private static final byte[] RESPONSE_CLOSE = HttpResponses.text(200, "OK", "Hello World", false);
+    /** 运行统计接口, 纯文本(Prometheus格式), 也可以通过JMX查看 */
+    private static final byte[] METRICS_PATH = "/metrics".getBytes();
+
+    private static NioReactorServer server;
 
     /**
-     * 封装了selector.select()等事件轮询的代码
+     * 响应Hello World的处理器. 在连接的读缓冲区上增量解析HTTP请求, 支持长连接和流水线(pipelining).
+     * <p>
+     * 解析在reactor线程中完成, 业务操作提交到workerStage执行, 响应在reactor线程中按请求顺序写出
      */
-    abstract class ReactorThread extends Thread {
-
-        Selector selector;
-        LinkedBlockingQueue<Runnable> taskQueue = new LinkedBlockingQueue<>();
-
-        /**
-         * Selector监听到有事件后,调用这个方法
-         */
-        public abstract void handler(SelectableChannel channel) throws Exception;
-
-        private ReactorThread() throws IOException {
-            selector = Selector.open();
-        }
-
-        volatile boolean running = false;
+    static class HelloWorldHandler implements ConnectionHandler {
+        private final HttpRequestParser parser = new HttpRequestParser();
+        /** 已经收到Connection: close的请求, 之后的数据全部丢弃 */
+        private boolean closing;
 
         @Override
-        public void run() {
-            // 轮询Selector事件
-            while (running) {
-                try {
-                    // 执行队列中的任务
-                    Runnable task;
-                    while ((task = taskQueue.poll()) != null) {
-                        task.run();
+        public void onRead(Connection connection, ByteBuffer in) throws IOException {
+            if (closing) {
+                in.position(in.limit());
+                return;
+            }
+            try {
+                // 一次读事件可能包含多个请求, 也可能不足一个请求(剩下的数据留到下一次读事件)
+                while (parser.parse(in)) {
+                    if (parser.pathEquals(METRICS_PATH)) {
+                        // 运行统计在完成回调(reactor线程)中生成, 和其他响应保持顺序; 业务线程池满了(cause是拒绝)也照样返回
+                        boolean keepAlive = parser.isKeepAlive();
+                        workerStage.submit(connection, () -> null, (conn, response, cause) -> {
+                            conn.write(HttpResponses.text(200, "OK", server.metricsText(), keepAlive));
+                            if (!keepAlive) {
+                                conn.closeAfterFlush();
+                            }
+                        });
+                        if (!keepAlive) {
+                            closing = true;
+                            in.position(in.limit());
+                            return;
+                        }
+                        continue;
                     }
-                    selector.select(1000);
-
-                    // 获取查询结果
-                    Set<SelectionKey> selected = selector.selectedKeys();
-                    // 遍历查询结果
-                    Iterator<SelectionKey> iter = selected.iterator();
-                    while (iter.hasNext()) {
-                        // 被封装的查询结果
-                        SelectionKey key = iter.next();
-                        iter.remove();
-                        int readyOps = key.readyOps();
-                        // 关注 Read 和 Accept两个事件
-                        if ((readyOps & (SelectionKey.OP_READ | SelectionKey.OP_ACCEPT)) != 0 || readyOps == 0) {
-                            try {
-                                SelectableChannel channel = (SelectableChannel) key.attachment();
-                                channel.configureBlocking(false);
-                                handler(channel);
-                                if (!channel.isOpen()) {
-                                    key.cancel(); // 如果关闭了,就取消这个KEY的订阅
-                                }
-                            } catch (Exception ex) {
-                                key.cancel(); // 如果有异常,就取消这个KEY的订阅
+                    // 解析器只记录读缓冲区上的偏移量, 交给其他线程之前要拷贝一份
+                    HttpRequest request = parser.snapshot();
+                    workerStage.submit(connection, () -> business(request), (conn, response, cause) -> {
+                        if (cause instanceof RejectedExecutionException) {
+                            conn.write(HttpResponses.error(503));
+                            conn.closeAfterFlush();
+                        } else if (cause != null) {
+                            conn.write(HttpResponses.error(500));
+                            conn.closeAfterFlush();
+                        } else {
+                            conn.write(response);
+                            if (!request.isKeepAlive()) {
+                                conn.closeAfterFlush();
                             }
                         }
+                    });
+                    if (!request.isKeepAlive()) {
+                        closing = true;
+                        in.position(in.limit());
+                        return;
                     }
-                    selector.selectNow();
-                } catch (IOException e) {
-                    e.printStackTrace();
                 }
+            } catch (HttpParseException e) {
+                // 前面已经提交的请求还没有响应, 错误响应也要排在它们后面
+                closing = true;
+                in.position(in.limit());
+                workerStage.submit(connection, () -> null, (conn, response, cause) -> {
+                    conn.write(HttpResponses.error(e.status()));
+                    conn.closeAfterFlush();
+                });
             }
         }
 
-        private SelectionKey register(SelectableChannel channel) throws Exception {
-            // 为什么register要以任务提交的形式，让reactor线程去处理？
-            // 因为线程在执行channel注册到selector的过程中，会和调用selector.select()方法的线程争用同一把锁
-            // 而select()方法实在eventLoop中通过while循环调用的，争抢的可能性很高，为了让register能更快的执行，就放到同一个线程来处理
-            FutureTask<SelectionKey> futureTask = new FutureTask<>(() -> channel.register(selector, 0, channel));
-            taskQueue.add(futureTask);
-            return futureTask.get();
-        }
-
-        private void doStart() {
-            if (!running) {
-                running = true;
-                start();
+        @Override
+        public void onIdle(Connection connection, IdleState state) throws IOException {
+            if (state == IdleState.REQUEST_TIMEOUT && !closing) {
+                // 请求没有在规定时间内收完, 告诉客户端原因再关闭
+                closing = true;
+                workerStage.submit(connection, () -> null, (conn, response, cause) -> {
+                    conn.write(HttpResponses.error(408));
+                    conn.closeAfterFlush();
+                });
+            } else {
+                connection.close();
             }
         }
     }
 
-    private ServerSocketChannel serverSocketChannel;
-    // 1、创建多个线程 - accept处理reactor线程 (accept线程)
-    private ReactorThread[] mainReactorThreads = new ReactorThread[1];
-    // 2、创建多个线程 - io处理reactor线程  (I/O线程)
-    private ReactorThread[] subReactorThreads = new ReactorThread[8];
-
     /**
-     * 初始化线程组
+     * 在业务线程中执行
      */
-    private void newGroup() throws IOException {
-        // 创建IO线程,负责处理客户端连接以后socketChannel的IO读写
-        for (int i = 0; i < subReactorThreads.length; i++) {
-            subReactorThreads[i] = new ReactorThread() {
-                @Override
-                public void handler(SelectableChannel channel) throws IOException {
-                    // work线程只负责处理IO处理，不处理accept事件
-                    SocketChannel ch = (SocketChannel) channel;
-                    ByteBuffer requestBuffer = ByteBuffer.allocate(1024);
-                    while (ch.isOpen() && ch.read(requestBuffer) != -1) {
-                        // 长连接情况下,需要手动判断数据有没有读取结束 (此处做一个简单的判断: 超过0字节就认为请求结束了)
-                        if (requestBuffer.position() > 0) break;
-                    }
-                    if (requestBuffer.position() == 0) return; // 如果没数据了, 则不继续后面的处理
-                    requestBuffer.flip();
-                    byte[] content = new byte[requestBuffer.limit()];
-                    requestBuffer.get(content);
-                    System.out.println(new String(content));
-                    System.out.println(Thread.currentThread().getName() + "收到数据,来自：" + ch.getRemoteAddress());
-
-                    // TODO 业务操作 数据库、接口...
-                    workPool.submit(() -> {
-                    });
-
-                    // 响应结果 200
-                    String response = "HTTP/1.1 200 OK\r\n" +
-                            "Content-Length: 11\r\n\r\n" +
-                            "Hello World";
-                    ByteBuffer buffer = ByteBuffer.wrap(response.getBytes());
-                    while (buffer.hasRemaining()) {
-                        ch.write(buffer);
-                    }
-                }
-            };
-        }
-
-        // 创建mainReactor线程, 只负责处理serverSocketChannel
-        for (int i = 0; i < mainReactorThreads.length; i++) {
-            mainReactorThreads[i] = new ReactorThread() {
-                AtomicInteger incr = new AtomicInteger(0);
-
-                @Override
-                public void handler(SelectableChannel channel) throws Exception {
-                    // 只做请求分发，不做具体的数据读取
-                    ServerSocketChannel ch = (ServerSocketChannel) channel;
-                    SocketChannel socketChannel = ch.accept();
-                    socketChannel.configureBlocking(false);
-                    // 收到连接建立的通知之后，分发给I/O线程继续去读取数据
-                    int index = incr.getAndIncrement() % subReactorThreads.length;
-                    ReactorThread workEventLoop = subReactorThreads[index];
-                    workEventLoop.doStart();
-                    SelectionKey selectionKey = workEventLoop.register(socketChannel);
-                    selectionKey.interestOps(SelectionKey.OP_READ);
-                    System.out.println(Thread.currentThread().getName() + "收到新连接 : " + socketChannel.getRemoteAddress());
-                }
-            };
-        }
-
-
-    }
-
-    /**
-     * 初始化channel,并且绑定一个eventLoop线程
-     *
-     * @throws IOException IO异常
-     */
-    private void initAndRegister() throws Exception {
-        // 1、 创建ServerSocketChannel
-        serverSocketChannel = ServerSocketChannel.open();
-        serverSocketChannel.configureBlocking(false);
-        // 2、 将serverSocketChannel注册到selector
-        int index = new Random().nextInt(mainReactorThreads.length);
-        mainReactorThreads[index].doStart();
-        SelectionKey selectionKey = mainReactorThreads[index].register(serverSocketChannel);
-        selectionKey.interestOps(SelectionKey.OP_ACCEPT);
-    }
-
-    /**
-     * 绑定端口
-     *
-     * @throws IOException IO异常
-     */
-    private void bind() throws IOException {
-        //  1、 正式绑定端口，对外服务
-        serverSocketChannel.bind(new InetSocketAddress(8080));
-        System.out.println("启动完成，端口8080");
+    static byte[] business(HttpRequest request) {
+        // TODO 业务操作 数据库、接口...
+        // 响应结果 200
+        return request.isKeepAlive() ? RESPONSE : RESPONSE_CLOSE;
     }
 
     public static void main(String[] args) throws Exception {
-        NIOServerV3 nioServerV3 = new NIOServerV3();
-        nioServerV3.newGroup(); // 1、 创建main和sub两组线程
-        nioServerV3.initAndRegister(); // 2、 创建serverSocketChannel，注册到mainReactor线程上的selector上
-        nioServerV3.bind(); // 3、 为serverSocketChannel绑定端口
+        server = NioReactorServer.builder()
+                .acceptorThreads(ACCEPTOR_THREADS) // 1、 创建main和sub两组线程
+                .reusePort(REUSE_PORT)
+                .acceptBatchSize(64) // 一次唤醒最多accept 64个连接
+                .ioThreads(IO_THREADS)
+                .reactorChooser(ReactorChooser.of(REACTOR_CHOOSER))
+                .waitStrategy(WaitStrategy.adaptive(SPIN_ITERATIONS, YIELD_ITERATIONS))
+                .port(PORT)
+                .bufferSize(8192) // 一个请求必须能完整放入读缓冲区
+                .readIdleTimeout(READ_IDLE_TIMEOUT, TimeUnit.SECONDS) // 关闭空闲的长连接和半开连接
+                .writeIdleTimeout(WRITE_IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .requestTimeout(REQUEST_TIMEOUT, TimeUnit.SECONDS)
+                .handlerFactory(ch -> new HelloWorldHandler())
+                .build();
+        server.start(); // 2、 创建serverSocketChannel，注册到mainReactor线程上的selector上, 并绑定端口
+        System.out.println("启动完成，端口" + PORT);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            server.stop();
+            workerStage.shutdown();
+            try {
+                workerStage.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
     }
 }
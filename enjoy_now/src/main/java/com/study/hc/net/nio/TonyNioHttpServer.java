@@ -1,5 +1,12 @@
 package com.study.hc.net.nio;
 
+import com.study.hc.net.nio.http.HttpParseException;
+import com.study.hc.net.nio.http.HttpRequestParser;
+import com.study.hc.net.nio.http.HttpResponses;
+import com.study.hc.net.nio.reactor.MpscTaskQueue;
+import com.study.hc.net.nio.reactor.TimerWheel;
+
+import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
@@ -11,7 +18,22 @@ import java.util.Set;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * selector线程只负责事件通知, 读写和业务都交给线程池.
+ * <p>
+ * 两种模式(-Dtony.mode):
+ * <ul>
+ * <li>interest(默认): 每个连接从建立到关闭只有一个SelectionKey. 交给线程池处理时把interestOps设为0,
+ * 处理完通过任务队列让selector线程重新打开OP_READ/OP_WRITE, 不会和select()争用selector的锁</li>
+ * <li>reregister: 原来的写法, 每次读事件都key.cancel(), 处理完在工作线程中重新register(),
+ * 每轮循环还需要selectNow()清理被取消的key</li>
+ * </ul>
+ * interest模式下连接超过 -DidleTimeout 秒(默认60)没有读写, 或者收到请求的一部分之后超过 -DrequestTimeout 秒
+ * (默认10, 防止slowloris)还没收全, 就由selector线程关闭. 每个连接在时间轮中只有一个定时任务, 工作线程只记录时间,
+ * 处理完交回selector线程时按新的截止时间重新安排.
+ */
 public class TonyNioHttpServer {
 
     public static Selector selector;
@@ -24,6 +46,20 @@ public class TonyNioHttpServer {
 
     private static final int port = 8080;
 
+    private static final boolean REREGISTER = "reregister".equals(System.getProperty("tony.mode"));
+
+    /** 工作线程提交给selector线程执行的任务, 比如修改interestOps */
+    private static final MpscTaskQueue taskQueue = new MpscTaskQueue();
+    /** selector线程是否阻塞在select()上, 只有阻塞时才需要wakeup() */
+    private static final AtomicBoolean parked = new AtomicBoolean(false);
+
+    private static final long IDLE_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("idleTimeout", 60));
+    private static final long REQUEST_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(Long.getLong("requestTimeout", 10));
+    /** 连接超时的时间轮, 只在selector线程中访问 */
+    private static final TimerWheel timerWheel = new TimerWheel(100, TimeUnit.MILLISECONDS, 512);
+    /** 本轮select返回的时间 */
+    private static long now = System.nanoTime();
+
     public static void main(String[] args) throws Exception {
 
         // serversocket
@@ -31,7 +67,7 @@ public class TonyNioHttpServer {
         socketChannel.configureBlocking(false);
         socketChannel.bind(new InetSocketAddress(port));
 
-        System.out.println("NIO启动:" + port);
+        System.out.println("NIO启动:" + port + (REREGISTER ? ", reregister模式" : ", interest模式"));
         // 获取一个选择器
         // 底层的事件通知机制
         // 老板娘 selector
@@ -41,11 +77,21 @@ public class TonyNioHttpServer {
         // 此处表示，希望收到socket通道8080端口上建立连接这个通知
         SelectionKey selectionKey = socketChannel.register(TonyNioHttpServer.selector, 0);
         selectionKey.interestOps(selectionKey.OP_ACCEPT);
-        
+
         while (true) { // 带几个美女，坐在大厅
 
-            // 如果没有新的socket与服务器有连接或者是数据交互，这里就会等待1秒
-            TonyNioHttpServer.selector.select(1000);
+            // 先执行工作线程提交过来的任务
+            runAllTasks();
+            // 如果没有新的socket与服务器有连接或者是数据交互，这里就会等待1秒, 有定时任务时最多等到下一个tick
+            parked.set(true);
+            if (taskQueue.isEmpty()) {
+                long nanos = timerWheel.nanosUntilNextTick(System.nanoTime());
+                TonyNioHttpServer.selector.select(nanos < 0 ? 1000 : Math.max(1, TimeUnit.NANOSECONDS.toMillis(nanos + 999_999)));
+            } else {
+                TonyNioHttpServer.selector.selectNow();
+            }
+            parked.set(false);
+            now = System.nanoTime();
 
             // 开始处理
             Set<SelectionKey> selected = TonyNioHttpServer.selector.selectedKeys();
@@ -53,6 +99,11 @@ public class TonyNioHttpServer {
             while (iter.hasNext()) {
                 // 获取注册在上面标记
                 SelectionKey key = iter.next();
+                // 取出后删除
+                iter.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
 
                 if (key.isAcceptable()) { // 判断是否OP_ACCEPT的通知
                     // 处理连接
@@ -60,54 +111,270 @@ public class TonyNioHttpServer {
                             + TonyNioHttpServer.threadPoolExecutor.getActiveCount());
                     // 有新的连接，赶紧接客
                     SocketChannel chan = socketChannel.accept();
+                    if (chan == null) {
+                        continue;
+                    }
                     // 问一下价格多少，需要什么样服务...
                     chan.configureBlocking(false);
                     // 注册一个新监听。
                     // 表示希望收到该连接上OP_READ数据传输事件的通知
-                    chan.register(TonyNioHttpServer.selector, SelectionKey.OP_READ);
-                } else if (key.isReadable()) { // OP_READ
-                    // 取出附着在上面的信息，也就是上面代码中附着的连接信息
-                    SocketChannel socketChannel = (SocketChannel) key.channel();
-                    // 处理中，不需要收到任何通知
-                    key.cancel();
+                    SelectionKey chanKey = chan.register(TonyNioHttpServer.selector, SelectionKey.OP_READ);
+                    if (!REREGISTER) {
+                        chanKey.attach(new HttpConnection(chanKey));
+                    }
+                } else if (REREGISTER) {
+                    reregister(key);
+                } else if (key.isReadable() || key.isWritable()) {
+                    HttpConnection connection = (HttpConnection) key.attachment();
+                    // 处理中，不需要收到任何通知. key保留, 只是暂时不关注任何事件
+                    key.interestOps(0);
+                    connection.busy = true;
                     // tomcat 大保健旗舰店 有200技师，只有付钱的客户才会享受技师 泰式、保shen，
-                    socketChannel.configureBlocking(false);
-                    TonyNioHttpServer.threadPoolExecutor.execute(() -> {
-                        try {
-                            // 读取里面的内容，请注意，此处大小随意写的。
-                            // tomcat中会根据Http协议中定义的长度来读取数据，或者一直读到通道内无数据为止
-                            ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
-                            socketChannel.read(byteBuffer);
-                            byteBuffer.flip(); // 转为读模式
-                            String request = new String(byteBuffer.array());
-
-                            System.out.println("收到新数据，当前线程数："
-                                    + TonyNioHttpServer.threadPoolExecutor.getActiveCount()
-                                    + "，请求内容：" + request);
-                            // 给一个当前时间作为返回值
-                            // 随意返回，不是Http的协议
-                            byteBuffer.clear();
-                            ByteBuffer wrap = ByteBuffer
-                                    .wrap(("tony" + System.currentTimeMillis()).getBytes());
-                            socketChannel.write(wrap);
-                            wrap.clear();
-                            socketChannel.configureBlocking(false);
-                            // 注册一个新监听。 表示希望收到该连接上OP_READ事件的通知
-                            socketChannel.register(TonyNioHttpServer.selector,
-                                    SelectionKey.OP_READ);
-                        } catch (Exception e) {
-                            // e.printStackTrace();
-                        }
-                        System.out.println(Thread.currentThread().getName() + " 服务器线程处理完毕，当前线程数："
-                                + threadPoolExecutor.getActiveCount());
-                    });
+                    TonyNioHttpServer.threadPoolExecutor.execute(connection);
                 }
-                // 取出后删除
-                iter.remove();
             }
-            selected.clear();
-            // 过掉cancelled keys
-            TonyNioHttpServer.selector.selectNow();
+            if (REREGISTER) {
+                // 过掉cancelled keys
+                TonyNioHttpServer.selector.selectNow();
+            }
+            timerWheel.expire(now);
         }
     }
+
+    private static void runAllTasks() {
+        Runnable task;
+        while ((task = taskQueue.poll()) != null) {
+            try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 工作线程调用: 把任务交给selector线程执行
+     */
+    static void execute(Runnable task) {
+        taskQueue.offer(task);
+        if (parked.compareAndSet(true, false)) {
+            TonyNioHttpServer.selector.wakeup();
+        }
+    }
+
+    /**
+     * 一个连接的状态, 同一时刻只有一个工作线程在处理它(处理期间interestOps为0, 不会再被派发)
+     */
+    static class HttpConnection implements Runnable {
+        final SelectionKey key;
+        final SocketChannel channel;
+        final ByteBuffer requestBuffer = ByteBuffer.allocate(8192);
+        final HttpRequestParser parser = new HttpRequestParser();
+        /** 没有写完的响应, 等OP_WRITE之后继续写 */
+        ByteBuffer pendingWrite;
+        boolean closeAfterWrite;
+        /** 最后一次读到或者写出数据的时间, 工作线程写, 交回selector线程之后由它读 */
+        long lastActiveTime = now;
+        /** 缓冲区中不完整请求的第一部分到达的时间, 0表示没有不完整的请求 */
+        long requestStartTime;
+        /** 已经交给工作线程处理, 还没有交回selector线程. 只在selector线程中访问 */
+        boolean busy;
+        /** 空闲/请求超时, 只在selector线程中访问 */
+        final TimerWheel.Timeout timer;
+
+        HttpConnection(SelectionKey key) {
+            this.key = key;
+            this.channel = (SocketChannel) key.channel();
+            this.timer = timerWheel.schedule(this::onTimer, IDLE_TIMEOUT_NANOS, TimeUnit.NANOSECONDS, now);
+        }
+
+        /**
+         * 在selector线程中执行. 工作线程正在处理时不关闭, 晚一点再检查
+         */
+        void onTimer() {
+            if (!channel.isOpen()) {
+                return;
+            }
+            long remaining = busy ? IDLE_TIMEOUT_NANOS : deadline() - now;
+            if (remaining > 0) {
+                timer.reschedule(remaining, TimeUnit.NANOSECONDS, now);
+                return;
+            }
+            try {
+                System.out.println((requestStartTime != 0 ? "请求超时" : "空闲连接超时") + ", 关闭 : " + channel.getRemoteAddress());
+            } catch (IOException ignore) {
+            }
+            key.cancel();
+            closeChannel();
+        }
+
+        private long deadline() {
+            long deadline = lastActiveTime + IDLE_TIMEOUT_NANOS;
+            if (requestStartTime != 0) {
+                deadline = Math.min(deadline, requestStartTime + REQUEST_TIMEOUT_NANOS);
+            }
+            return deadline;
+        }
+
+        @Override
+        public void run() {
+            try {
+                if (pendingWrite == null && !closeAfterWrite && !read()) {
+                    close();
+                    return;
+                }
+                if (!write()) {
+                    // socket发送缓冲区满了, 等可写时再继续
+                    execute(() -> updateInterest(SelectionKey.OP_WRITE));
+                    return;
+                }
+                if (closeAfterWrite) {
+                    close();
+                    return;
+                }
+                // 处理完毕, 重新关注OP_READ
+                execute(() -> updateInterest(SelectionKey.OP_READ));
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        /**
+         * 工作线程中关闭连接, 定时任务交给selector线程取消
+         */
+        private void close() {
+            closeChannel();
+            execute(timer::cancel);
+        }
+
+        private void closeChannel() {
+            try {
+                channel.close();
+            } catch (IOException ignore) {
+            }
+        }
+
+        /**
+         * 读取并解析请求, 生成所有完整请求的响应. 返回false表示连接已经关闭
+         */
+        private boolean read() throws IOException {
+            int n = channel.read(requestBuffer);
+            if (n == -1) {
+                return false;
+            }
+            long time = System.nanoTime();
+            if (n > 0) {
+                lastActiveTime = time;
+            }
+            requestBuffer.flip();
+            ByteBuffer responses = null;
+            try {
+                // 一次可能读到多个请求(pipelining), 也可能不足一个请求
+                while (parser.parse(requestBuffer)) {
+                    boolean keepAlive = parser.isKeepAlive();
+                    // 给一个当前时间作为返回值
+                    byte[] response = HttpResponses.text(200, "OK", "tony" + System.currentTimeMillis(), keepAlive);
+                    responses = append(responses, response);
+                    if (!keepAlive) {
+                        closeAfterWrite = true;
+                        break;
+                    }
+                }
+            } catch (HttpParseException e) {
+                responses = append(responses, HttpResponses.error(e.status()));
+                closeAfterWrite = true;
+            }
+            requestBuffer.compact();
+            // 缓冲区中还剩数据就是一个不完整的请求, 从它的第一部分到达时开始计时
+            if (requestBuffer.position() == 0) {
+                requestStartTime = 0;
+            } else if (requestStartTime == 0) {
+                requestStartTime = time;
+            }
+            if (responses != null) {
+                responses.flip();
+                pendingWrite = responses;
+            }
+            return true;
+        }
+
+        private static ByteBuffer append(ByteBuffer buffer, byte[] data) {
+            if (buffer == null) {
+                buffer = ByteBuffer.allocate(Math.max(data.length, 1024));
+            } else if (buffer.remaining() < data.length) {
+                ByteBuffer bigger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + data.length));
+                buffer.flip();
+                bigger.put(buffer);
+                buffer = bigger;
+            }
+            return buffer.put(data);
+        }
+
+        /**
+         * 写出响应, 返回false表示没有写完
+         */
+        private boolean write() throws IOException {
+            if (pendingWrite == null) {
+                return true;
+            }
+            while (pendingWrite.hasRemaining()) {
+                if (channel.write(pendingWrite) == 0) {
+                    return false;
+                }
+                lastActiveTime = System.nanoTime();
+            }
+            pendingWrite = null;
+            return true;
+        }
+
+        /**
+         * 在selector线程中执行: 工作线程处理完交回来, 按新的截止时间重新安排定时任务
+         */
+        private void updateInterest(int ops) {
+            busy = false;
+            if (key.isValid()) {
+                key.interestOps(ops);
+                timer.reschedule(Math.max(deadline() - now, 0), TimeUnit.NANOSECONDS, now);
+            }
+        }
+    }
+
+    /**
+     * 原来的写法: 取消key, 在工作线程中处理完再重新注册
+     */
+    private static void reregister(SelectionKey key) throws IOException {
+        if (!key.isReadable()) { // OP_READ
+            return;
+        }
+        // 取出附着在上面的信息，也就是上面代码中附着的连接信息
+        SocketChannel socketChannel = (SocketChannel) key.channel();
+        // 处理中，不需要收到任何通知
+        key.cancel();
+        socketChannel.configureBlocking(false);
+        TonyNioHttpServer.threadPoolExecutor.execute(() -> {
+            try {
+                // 读取里面的内容，请注意，此处大小随意写的。
+                // tomcat中会根据Http协议中定义的长度来读取数据，或者一直读到通道内无数据为止
+                ByteBuffer byteBuffer = ByteBuffer.allocate(1024);
+                if (socketChannel.read(byteBuffer) == -1) {
+                    socketChannel.close();
+                    return;
+                }
+                // 给一个当前时间作为返回值
+                ByteBuffer wrap = ByteBuffer
+                        .wrap(HttpResponses.text(200, "OK", "tony" + System.currentTimeMillis(), true));
+                while (wrap.hasRemaining()) {
+                    socketChannel.write(wrap);
+                }
+                // 注册一个新监听。 表示希望收到该连接上OP_READ事件的通知
+                // 和selector线程中的select()争用同一把锁
+                socketChannel.register(TonyNioHttpServer.selector, SelectionKey.OP_READ);
+            } catch (Exception e) {
+                try {
+                    socketChannel.close();
+                } catch (IOException ignore) {
+                }
+            }
+        });
+    }
 }
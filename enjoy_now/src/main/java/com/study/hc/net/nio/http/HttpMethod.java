@@ -0,0 +1,36 @@
+package com.study.hc.net.nio.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 请求方法. 解析时直接和缓冲区中的字节比较, 不会创建String
+ */
+public enum HttpMethod {
+    GET, HEAD, POST, PUT, DELETE, OPTIONS, PATCH, TRACE, CONNECT;
+
+    private static final HttpMethod[] VALUES = values();
+
+    private final byte[] bytes = name().getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * 匹配缓冲区中[start, end)范围内的方法名, 不认识的方法返回null
+     */
+    static HttpMethod match(ByteBuffer buf, int start, int end) {
+        int len = end - start;
+        for (HttpMethod method : VALUES) {
+            byte[] name = method.bytes;
+            if (name.length != len) {
+                continue;
+            }
+            int i = 0;
+            while (i < len && buf.get(start + i) == name[i]) {
+                i++;
+            }
+            if (i == len) {
+                return method;
+            }
+        }
+        return null;
+    }
+}
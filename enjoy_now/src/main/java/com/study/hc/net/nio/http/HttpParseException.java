@@ -0,0 +1,22 @@
+package com.study.hc.net.nio.http;
+
+import java.io.IOException;
+
+/**
+ * 请求不符合HTTP/1.1协议, status是应该返回给客户端的状态码
+ */
+public class HttpParseException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int status;
+
+    public HttpParseException(int status, String message) {
+        super(message);
+        this.status = status;
+    }
+
+    public int status() {
+        return status;
+    }
+}
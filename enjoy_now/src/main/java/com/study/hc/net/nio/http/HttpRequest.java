@@ -0,0 +1,52 @@
+package com.study.hc.net.nio.http;
+
+/**
+ * 请求的不可变副本. 解析器只在读缓冲区上记录偏移量, 请求要交给其他线程处理时, 通过
+ * {@link HttpRequestParser#snapshot()}拷贝一份出来
+ */
+public final class HttpRequest {
+
+    private final HttpMethod method;
+    private final String uri;
+    private final boolean keepAlive;
+    private final String[] headerNames;
+    private final String[] headerValues;
+    private final byte[] body;
+
+    HttpRequest(HttpMethod method, String uri, boolean keepAlive, String[] headerNames, String[] headerValues, byte[] body) {
+        this.method = method;
+        this.uri = uri;
+        this.keepAlive = keepAlive;
+        this.headerNames = headerNames;
+        this.headerValues = headerValues;
+        this.body = body;
+    }
+
+    public HttpMethod method() {
+        return method;
+    }
+
+    public String uri() {
+        return uri;
+    }
+
+    public boolean isKeepAlive() {
+        return keepAlive;
+    }
+
+    /**
+     * 忽略大小写查找请求头, 找不到返回null
+     */
+    public String header(String name) {
+        for (int i = 0; i < headerNames.length; i++) {
+            if (headerNames[i].equalsIgnoreCase(name)) {
+                return headerValues[i];
+            }
+        }
+        return null;
+    }
+
+    public byte[] body() {
+        return body;
+    }
+}
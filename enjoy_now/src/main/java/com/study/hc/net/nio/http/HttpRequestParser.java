@@ -0,0 +1,648 @@
+package com.study.hc.net.nio.http;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 增量式的HTTP/1.1请求解析器 (状态机), 每个连接一个实例, 非线程安全.
+ * <p>
+ * 直接在连接的读缓冲区上解析, 不拷贝数据, 也不创建String: 请求行/请求头/请求体都只记录相对于请求起始位置的偏移量.
+ * 一次读事件没有读到完整的请求时, parse()返回false并且不移动缓冲区的position, 解析进度保存在解析器中,
+ * 缓冲区compact()之后请求整体前移, 相对偏移量依然有效, 下一次读到数据后从上次停下的地方继续解析.
+ * <pre>
+ * while (parser.parse(in)) {
+ *     // 此时可以访问parser.method()/uriEquals()/findHeader()...
+ *     // 下一次调用parse()之前有效, position已经移动到这个请求之后, 流水线中的下一个请求继续解析
+ * }
+ * </pre>
+ * 支持Content-Length和chunked两种请求体, 请求必须能完整放入读缓冲区, 否则抛出413/431.
+ */
+public final class HttpRequestParser {
+
+    private static final byte CR = '\r';
+    private static final byte LF = '\n';
+    private static final byte SP = ' ';
+    private static final byte HT = '\t';
+
+    private static final int ST_REQUEST_START = 0;
+    private static final int ST_METHOD = 1;
+    private static final int ST_URI = 2;
+    private static final int ST_VERSION = 3;
+    private static final int ST_HEADER_START = 4;
+    private static final int ST_HEADER_NAME = 5;
+    private static final int ST_HEADER_VALUE_START = 6;
+    private static final int ST_HEADER_VALUE = 7;
+    // 以下是请求体的状态
+    private static final int ST_BODY = 8;
+    private static final int ST_CHUNK_SIZE = 9;
+    private static final int ST_CHUNK_EXT = 10;
+    private static final int ST_CHUNK_DATA = 11;
+    private static final int ST_CHUNK_DATA_END = 12;
+    private static final int ST_TRAILER = 13;
+    private static final int ST_COMPLETE = 14;
+
+    private static final byte[] HTTP_1_ = "HTTP/1.".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONTENT_LENGTH = "content-length".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TRANSFER_ENCODING = "transfer-encoding".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CONNECTION = "connection".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CHUNKED = "chunked".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CLOSE = "close".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] KEEP_ALIVE = "keep-alive".getBytes(StandardCharsets.US_ASCII);
+
+    private final int maxHeaders;
+
+    /** 当前请求所在的缓冲区, 以及请求在缓冲区中的起始下标 */
+    private ByteBuffer buf;
+    private int start;
+    /** 已经扫描过的字节数(相对start) */
+    private int cursor;
+    private int state = ST_REQUEST_START;
+
+    private HttpMethod method;
+    private int uriStart;
+    private int uriEnd;
+    private int versionStart;
+    private int minorVersion;
+
+    /** 每个请求头4个int: nameStart, nameEnd, valueStart, valueEnd (都相对start) */
+    private final int[] headers;
+    private int headerCount;
+    private int nameStart;
+    private int nameEnd;
+    private int valueStart;
+
+    private long contentLength = -1;
+    private boolean hasTransferEncoding;
+    private boolean chunked;
+    private boolean connectionClose;
+    private boolean connectionKeepAlive;
+
+    /** 请求体片段, 每个片段2个int: start, end (相对start). Content-Length请求体只有一个片段 */
+    private int[] bodySegments = new int[8];
+    private int bodySegmentCount;
+    private int bodyLength;
+    private long remaining;
+    private int chunkDataStart;
+    private int chunkDigits;
+    private int trailerLineLength;
+    private int requestLength;
+
+    public HttpRequestParser() {
+        this(64);
+    }
+
+    public HttpRequestParser(int maxHeaders) {
+        this.maxHeaders = maxHeaders;
+        this.headers = new int[maxHeaders * 4];
+    }
+
+    /**
+     * 从in.position()开始解析, 解析出一个完整请求时返回true, 并把position移动到这个请求之后.
+     * 数据不够时返回false, position保持在请求起始位置不变.
+     */
+    @SuppressWarnings("fallthrough")
+    public boolean parse(ByteBuffer in) throws HttpParseException {
+        if (state == ST_COMPLETE) {
+            reset();
+        }
+        buf = in;
+        start = in.position();
+        final int limit = in.limit();
+        int p = start + cursor;
+        while (p < limit) {
+            byte b = in.get(p);
+            switch (state) {
+                case ST_REQUEST_START:
+                    if (b == CR || b == LF) {
+                        // 请求之间多余的空行直接跳过
+                        p++;
+                        start = p;
+                        in.position(p);
+                        continue;
+                    }
+                    state = ST_METHOD;
+                    // fall through
+                case ST_METHOD:
+                    if (b == SP) {
+                        method = HttpMethod.match(in, start, p);
+                        if (method == null) {
+                            throw new HttpParseException(501, "unsupported method");
+                        }
+                        uriStart = p + 1 - start;
+                        state = ST_URI;
+                    } else if (!isTokenChar(b)) {
+                        throw new HttpParseException(400, "bad method");
+                    }
+                    p++;
+                    break;
+                case ST_URI:
+                    if (b == SP) {
+                        uriEnd = p - start;
+                        if (uriEnd == uriStart) {
+                            throw new HttpParseException(400, "empty uri");
+                        }
+                        versionStart = p + 1 - start;
+                        state = ST_VERSION;
+                    } else if (b == CR || b == LF) {
+                        throw new HttpParseException(400, "missing http version");
+                    }
+                    p++;
+                    break;
+                case ST_VERSION:
+                    if (b == LF) {
+                        parseVersion(p);
+                        state = ST_HEADER_START;
+                    }
+                    p++;
+                    break;
+                case ST_HEADER_START:
+                    if (b == CR) {
+                        p++;
+                    } else if (b == LF) {
+                        p++;
+                        if (headersComplete(p)) {
+                            return complete(in, p);
+                        }
+                    } else if (b == SP || b == HT) {
+                        throw new HttpParseException(400, "obsolete line folding");
+                    } else {
+                        if (headerCount == maxHeaders) {
+                            throw new HttpParseException(431, "too many headers");
+                        }
+                        nameStart = p - start;
+                        state = ST_HEADER_NAME;
+                    }
+                    break;
+                case ST_HEADER_NAME:
+                    if (b == ':') {
+                        nameEnd = p - start;
+                        if (nameEnd == nameStart) {
+                            throw new HttpParseException(400, "empty header name");
+                        }
+                        state = ST_HEADER_VALUE_START;
+                    } else if (!isTokenChar(b)) {
+                        throw new HttpParseException(400, "bad header name");
+                    }
+                    p++;
+                    break;
+                case ST_HEADER_VALUE_START:
+                    if (b == SP || b == HT) {
+                        p++;
+                        break;
+                    }
+                    valueStart = p - start;
+                    state = ST_HEADER_VALUE;
+                    // fall through
+                case ST_HEADER_VALUE:
+                    if (b == LF) {
+                        headerLine(p);
+                        state = ST_HEADER_START;
+                    }
+                    p++;
+                    break;
+                case ST_BODY: {
+                    int n = (int) Math.min(remaining, limit - p);
+                    p += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        return complete(in, p);
+                    }
+                    break;
+                }
+                case ST_CHUNK_SIZE:
+                    if (b == LF) {
+                        chunkSizeLine(p);
+                    } else if (b == ';' || b == SP || b == HT) {
+                        state = ST_CHUNK_EXT;
+                    } else if (b != CR) {
+                        int digit = Character.digit(b, 16);
+                        if (digit < 0) {
+                            throw new HttpParseException(400, "bad chunk size");
+                        }
+                        remaining = (remaining << 4) + digit;
+                        if (++chunkDigits > 8 || bodyLength + remaining > Integer.MAX_VALUE) {
+                            throw new HttpParseException(413, "chunk too large");
+                        }
+                    }
+                    p++;
+                    break;
+                case ST_CHUNK_EXT:
+                    if (b == LF) {
+                        chunkSizeLine(p);
+                    }
+                    p++;
+                    break;
+                case ST_CHUNK_DATA: {
+                    int n = (int) Math.min(remaining, limit - p);
+                    p += n;
+                    remaining -= n;
+                    if (remaining == 0) {
+                        addBodySegment(chunkDataStart, p - start);
+                        state = ST_CHUNK_DATA_END;
+                    }
+                    break;
+                }
+                case ST_CHUNK_DATA_END:
+                    if (b == LF) {
+                        state = ST_CHUNK_SIZE;
+                        chunkDigits = 0;
+                        remaining = 0;
+                    } else if (b != CR) {
+                        throw new HttpParseException(400, "missing CRLF after chunk");
+                    }
+                    p++;
+                    break;
+                case ST_TRAILER:
+                    p++;
+                    if (b == LF) {
+                        if (trailerLineLength == 0) {
+                            return complete(in, p);
+                        }
+                        trailerLineLength = 0;
+                    } else if (b != CR) {
+                        trailerLineLength++;
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("state: " + state);
+            }
+        }
+        cursor = p - start;
+        if (start == 0 && limit == in.capacity()) {
+            // 缓冲区已经被这一个请求占满了, compact()也腾不出空间
+            throw new HttpParseException(state < ST_BODY ? 431 : 413, "request too large");
+        }
+        return false;
+    }
+
+    /**
+     * 丢弃当前的解析进度, 准备解析下一个请求
+     */
+    public void reset() {
+        state = ST_REQUEST_START;
+        cursor = 0;
+        method = null;
+        uriStart = uriEnd = versionStart = 0;
+        minorVersion = 0;
+        headerCount = 0;
+        contentLength = -1;
+        hasTransferEncoding = chunked = false;
+        connectionClose = connectionKeepAlive = false;
+        bodySegmentCount = 0;
+        bodyLength = 0;
+        remaining = 0;
+        chunkDigits = 0;
+        trailerLineLength = 0;
+        requestLength = 0;
+    }
+
+    private boolean complete(ByteBuffer in, int p) {
+        state = ST_COMPLETE;
+        requestLength = p - start;
+        cursor = 0;
+        in.position(p);
+        return true;
+    }
+
+    private void parseVersion(int lf) throws HttpParseException {
+        int end = lf - start;
+        if (end > versionStart && buf.get(start + end - 1) == CR) {
+            end--;
+        }
+        if (end - versionStart != HTTP_1_.length + 1 || !regionEquals(versionStart, HTTP_1_, false)) {
+            throw new HttpParseException(505, "unsupported http version");
+        }
+        byte minor = buf.get(start + end - 1);
+        if (minor != '0' && minor != '1') {
+            throw new HttpParseException(505, "unsupported http version");
+        }
+        minorVersion = minor - '0';
+    }
+
+    private void headerLine(int lf) throws HttpParseException {
+        int valueEnd = lf - start;
+        while (valueEnd > valueStart) {
+            byte c = buf.get(start + valueEnd - 1);
+            if (c != CR && c != SP && c != HT) {
+                break;
+            }
+            valueEnd--;
+        }
+        int i = headerCount * 4;
+        headers[i] = nameStart;
+        headers[i + 1] = nameEnd;
+        headers[i + 2] = valueStart;
+        headers[i + 3] = valueEnd;
+        headerCount++;
+
+        int nameLength = nameEnd - nameStart;
+        if (nameLength == CONTENT_LENGTH.length && regionEquals(nameStart, CONTENT_LENGTH, true)) {
+            long length = parseContentLength(valueStart, valueEnd);
+            if (contentLength >= 0 && contentLength != length) {
+                throw new HttpParseException(400, "conflicting content-length");
+            }
+            contentLength = length;
+        } else if (nameLength == TRANSFER_ENCODING.length && regionEquals(nameStart, TRANSFER_ENCODING, true)) {
+            hasTransferEncoding = true;
+            // chunked必须是最后一个编码, 而且是完整的token: "xchunked"、"chunked, gzip"都不算
+            chunked = lastTokenEquals(valueStart, valueEnd, CHUNKED);
+        } else if (nameLength == CONNECTION.length && regionEquals(nameStart, CONNECTION, true)) {
+            connectionClose |= containsToken(valueStart, valueEnd, CLOSE);
+            connectionKeepAlive |= containsToken(valueStart, valueEnd, KEEP_ALIVE);
+        }
+    }
+
+    private long parseContentLength(int s, int e) throws HttpParseException {
+        if (s == e) {
+            throw new HttpParseException(400, "bad content-length");
+        }
+        long length = 0;
+        for (int i = s; i < e; i++) {
+            byte c = buf.get(start + i);
+            if (c < '0' || c > '9') {
+                throw new HttpParseException(400, "bad content-length");
+            }
+            length = length * 10 + (c - '0');
+            if (length > Integer.MAX_VALUE) {
+                throw new HttpParseException(413, "content-length too large");
+            }
+        }
+        return length;
+    }
+
+    /**
+     * 请求头解析完成, 决定请求体的解析方式. 没有请求体时返回true
+     */
+    private boolean headersComplete(int p) throws HttpParseException {
+        if (hasTransferEncoding) {
+            if (!chunked) {
+                // 最后一个编码不是chunked时请求体的长度无法确定, 前面的代理可能有不同的理解, 按请求走私拒绝
+                throw new HttpParseException(400, "transfer-encoding without final chunked");
+            }
+            if (contentLength >= 0) {
+                // 同时出现两种长度声明, 可能是请求走私, 直接拒绝
+                throw new HttpParseException(400, "both content-length and transfer-encoding");
+            }
+            state = ST_CHUNK_SIZE;
+            remaining = 0;
+            chunkDigits = 0;
+            return false;
+        }
+        if (contentLength > 0) {
+            addBodySegment(p - start, p - start + (int) contentLength);
+            bodyLength = (int) contentLength;
+            remaining = contentLength;
+            state = ST_BODY;
+            return false;
+        }
+        return true;
+    }
+
+    private void chunkSizeLine(int lf) throws HttpParseException {
+        if (chunkDigits == 0) {
+            throw new HttpParseException(400, "missing chunk size");
+        }
+        if (remaining == 0) {
+            state = ST_TRAILER;
+            trailerLineLength = 0;
+        } else {
+            // 先记下chunk数据的起始位置, 读完之后再补上结束位置
+            chunkDataStart = lf + 1 - start;
+            bodyLength += (int) remaining;
+            state = ST_CHUNK_DATA;
+        }
+    }
+
+    private void addBodySegment(int s, int e) {
+        int i = bodySegmentCount * 2;
+        if (i + 2 > bodySegments.length) {
+            int[] grown = new int[bodySegments.length * 2];
+            System.arraycopy(bodySegments, 0, grown, 0, bodySegments.length);
+            bodySegments = grown;
+        }
+        bodySegments[i] = s;
+        bodySegments[i + 1] = e;
+        bodySegmentCount++;
+    }
+
+    private boolean regionEquals(int offset, byte[] expected, boolean ignoreCase) {
+        for (int i = 0; i < expected.length; i++) {
+            byte c = buf.get(start + offset + i);
+            if (ignoreCase && c >= 'A' && c <= 'Z') {
+                c += 32;
+            }
+            if (c != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 逗号分隔的列表中是否包含token (忽略大小写)
+     */
+    private boolean containsToken(int s, int e, byte[] token) {
+        int i = s;
+        while (i < e) {
+            while (i < e && (buf.get(start + i) == SP || buf.get(start + i) == HT || buf.get(start + i) == ',')) {
+                i++;
+            }
+            int tokenStart = i;
+            while (i < e && buf.get(start + i) != ',') {
+                i++;
+            }
+            int tokenEnd = i;
+            while (tokenEnd > tokenStart && (buf.get(start + tokenEnd - 1) == SP || buf.get(start + tokenEnd - 1) == HT)) {
+                tokenEnd--;
+            }
+            if (tokenEnd - tokenStart == token.length && regionEquals(tokenStart, token, true)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 逗号分隔的列表中最后一个token是否等于token (忽略大小写), 分隔规则和{@link #containsToken}相同
+     */
+    private boolean lastTokenEquals(int s, int e, byte[] token) {
+        int tokenEnd = e;
+        while (tokenEnd > s && (buf.get(start + tokenEnd - 1) == SP || buf.get(start + tokenEnd - 1) == HT)) {
+            tokenEnd--;
+        }
+        int tokenStart = tokenEnd;
+        while (tokenStart > s && buf.get(start + tokenStart - 1) != ',') {
+            tokenStart--;
+        }
+        while (tokenStart < tokenEnd && (buf.get(start + tokenStart) == SP || buf.get(start + tokenStart) == HT)) {
+            tokenStart++;
+        }
+        return tokenEnd - tokenStart == token.length && regionEquals(tokenStart, token, true);
+    }
+
+    private static boolean isTokenChar(byte b) {
+        return b > SP && b < 127 && b != ':' && b != '(' && b != ')' && b != '<' && b != '>' && b != '@'
+                && b != ',' && b != ';' && b != '\\' && b != '"' && b != '/' && b != '['
+                && b != ']' && b != '?' && b != '=' && b != '{' && b != '}';
+    }
+
+    // ---------------- 以下方法在parse()返回true之后, 下一次parse()之前有效 ----------------
+
+    public HttpMethod method() {
+        return method;
+    }
+
+    /** 请求所在的缓冲区 */
+    public ByteBuffer buffer() {
+        return buf;
+    }
+
+    /** 请求在缓冲区中的起始下标 */
+    public int requestStart() {
+        return start;
+    }
+
+    /** 整个请求(请求行+请求头+请求体)的字节数 */
+    public int requestLength() {
+        return requestLength;
+    }
+
+    public int uriLength() {
+        return uriEnd - uriStart;
+    }
+
+    public byte uriByte(int index) {
+        return buf.get(start + uriStart + index);
+    }
+
+    public boolean uriEquals(byte[] uri) {
+        return uri.length == uriLength() && regionEquals(uriStart, uri, false);
+    }
+
+    /**
+     * 比较uri中'?'之前的部分
+     */
+    public boolean pathEquals(byte[] path) {
+        int length = uriLength();
+        if (length < path.length || !regionEquals(uriStart, path, false)) {
+            return false;
+        }
+        return length == path.length || buf.get(start + uriStart + path.length) == '?';
+    }
+
+    /** 会创建String, 调试/日志用 */
+    public String uri() {
+        return string(uriStart, uriEnd);
+    }
+
+    public boolean isHttp11() {
+        return minorVersion == 1;
+    }
+
+    /**
+     * HTTP/1.1默认长连接, 除非Connection: close; HTTP/1.0默认短连接, 除非Connection: keep-alive
+     */
+    public boolean isKeepAlive() {
+        return minorVersion == 1 ? !connectionClose : connectionKeepAlive && !connectionClose;
+    }
+
+    public boolean isChunked() {
+        return chunked;
+    }
+
+    /** 没有Content-Length时返回-1 */
+    public long contentLength() {
+        return contentLength;
+    }
+
+    public int headerCount() {
+        return headerCount;
+    }
+
+    /**
+     * 查找请求头, name必须是小写. 找不到返回-1
+     */
+    public int findHeader(byte[] lowerCaseName) {
+        for (int i = 0; i < headerCount; i++) {
+            int nameStart = headers[i * 4];
+            int nameEnd = headers[i * 4 + 1];
+            if (nameEnd - nameStart == lowerCaseName.length && regionEquals(nameStart, lowerCaseName, true)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    public boolean headerValueEquals(int index, byte[] value, boolean ignoreCase) {
+        int valueStart = headers[index * 4 + 2];
+        int valueEnd = headers[index * 4 + 3];
+        return valueEnd - valueStart == value.length && regionEquals(valueStart, value, ignoreCase);
+    }
+
+    /** 会创建String, 调试/日志用 */
+    public String headerName(int index) {
+        return string(headers[index * 4], headers[index * 4 + 1]);
+    }
+
+    /** 会创建String, 调试/日志用 */
+    public String headerValue(int index) {
+        return string(headers[index * 4 + 2], headers[index * 4 + 3]);
+    }
+
+    /** 请求体总长度(chunked请求体是所有chunk的长度之和) */
+    public int bodyLength() {
+        return bodyLength;
+    }
+
+    /** 请求体片段数, Content-Length请求体是1个, chunked请求体每个chunk一个 */
+    public int bodySegmentCount() {
+        return bodySegmentCount;
+    }
+
+    /** 第index个请求体片段在缓冲区中的起始下标 */
+    public int bodySegmentOffset(int index) {
+        return start + bodySegments[index * 2];
+    }
+
+    public int bodySegmentLength(int index) {
+        return bodySegments[index * 2 + 1] - bodySegments[index * 2];
+    }
+
+    /**
+     * 把请求体拷贝到dst中, 返回拷贝的字节数
+     */
+    public int copyBody(byte[] dst, int dstOffset) {
+        int n = 0;
+        for (int i = 0; i < bodySegmentCount; i++) {
+            int offset = bodySegmentOffset(i);
+            int length = bodySegmentLength(i);
+            for (int j = 0; j < length; j++) {
+                dst[dstOffset + n++] = buf.get(offset + j);
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 拷贝出一个不可变的请求, 可以交给其他线程处理
+     */
+    public HttpRequest snapshot() {
+        String[] names = new String[headerCount];
+        String[] values = new String[headerCount];
+        for (int i = 0; i < headerCount; i++) {
+            names[i] = headerName(i);
+            values[i] = headerValue(i);
+        }
+        byte[] body = new byte[bodyLength];
+        copyBody(body, 0);
+        return new HttpRequest(method, uri(), isKeepAlive(), names, values, body);
+    }
+
+    private String string(int s, int e) {
+        byte[] bytes = new byte[e - s];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = buf.get(start + s + i);
+        }
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+}
@@ -0,0 +1,64 @@
+package com.study.hc.net.nio.http;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 预先编码好的响应
+ */
+public final class HttpResponses {
+
+    private HttpResponses() {
+    }
+
+    /**
+     * 编码一个完整的text/plain响应 (状态行+响应头+响应体)
+     */
+    public static byte[] text(int status, String reason, String body, boolean keepAlive) {
+        byte[] content = body.getBytes(StandardCharsets.UTF_8);
+        String head = "HTTP/1.1 " + status + " " + reason + "\r\n" +
+                "Content-Type: text/plain; charset=UTF-8\r\n" +
+                "Content-Length: " + content.length + "\r\n" +
+                (keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n") +
+                "\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.US_ASCII);
+        byte[] response = new byte[headBytes.length + content.length];
+        System.arraycopy(headBytes, 0, response, 0, headBytes.length);
+        System.arraycopy(content, 0, response, headBytes.length, content.length);
+        return response;
+    }
+
+    /**
+     * 解析失败时返回的错误响应, 发送之后连接会被关闭
+     */
+    public static byte[] error(int status) {
+        String reason = reason(status);
+        return text(status, reason, reason, false);
+    }
+
+    static String reason(int status) {
+        switch (status) {
+            case 200:
+                return "OK";
+            case 400:
+                return "Bad Request";
+            case 404:
+                return "Not Found";
+            case 408:
+                return "Request Timeout";
+            case 413:
+                return "Payload Too Large";
+            case 431:
+                return "Request Header Fields Too Large";
+            case 500:
+                return "Internal Server Error";
+            case 501:
+                return "Not Implemented";
+            case 503:
+                return "Service Unavailable";
+            case 505:
+                return "HTTP Version Not Supported";
+            default:
+                return "Error";
+        }
+    }
+}
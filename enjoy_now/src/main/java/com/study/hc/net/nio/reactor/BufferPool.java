@@ -0,0 +1,50 @@
+package com.study.hc.net.nio.reactor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * 堆外内存缓冲区池, 每个subReactor一个, 只会被reactor线程访问, 所以不需要加锁.
+ * <p>
+ * 分配/释放直接内存的开销很大, 连接上的读缓冲区和写队列里的缓冲区都从这里借用, 用完归还
+ */
+final class BufferPool {
+
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ArrayDeque<ByteBuffer> free = new ArrayDeque<>();
+
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+
+    /**
+     * 借一个处于写模式的空缓冲区
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.pollLast();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区, 池满了就交给GC回收
+     */
+    void release(ByteBuffer buffer) {
+        if (free.size() < maxPooled) {
+            buffer.clear();
+            free.addLast(buffer);
+        }
+    }
+
+    int bufferSize() {
+        return bufferSize;
+    }
+
+    int pooled() {
+        return free.size();
+    }
+}
@@ -0,0 +1,372 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 一个客户端连接, 只会被所属的subReactor线程访问
+ * <p>
+ * 读: 读缓冲区从reactor的缓冲区池中借用, 数据全部被handler消费完之后立即归还, 空闲的长连接不占用缓冲区.
+ * <p>
+ * 写: write()只是把数据拷贝到写队列(池化的堆外缓冲区)中, 由flush()通过gathering write一次写出多个缓冲区.
+ * socket发送缓冲区满了就关注OP_WRITE, 等可写时再继续, 不会在reactor线程上自旋等待慢客户端.
+ * 写队列中积压的数据超过高水位时暂停读取这个连接, 降到低水位以下再恢复, 慢客户端不会无限占用内存.
+ * <p>
+ * 超时: 每个连接只在reactor的时间轮上放一个定时任务, 读写时只更新时间戳, 不操作时间轮.
+ * 定时任务到期时再根据时间戳判断是否真的超时, 没有超时就按剩余时间重新放回时间轮.
+ */
+public final class Connection {
+
+    private final SocketChannel channel;
+    private final SubReactor reactor;
+    private final ConnectionHandler handler;
+    private final BufferPool pool;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final long requestTimeoutNanos;
+
+    private ByteBuffer readBuffer;
+    /** 写队列, 其中的缓冲区都处于读模式: [position, limit)是待写出的数据 */
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private long pendingBytes;
+
+    /** 提交到{@link WorkerStage}的任务在这个连接上的串行队列 */
+    WorkerStage.SerialQueue serialQueue;
+
+    private SelectionKey key;
+    private int interestOps = SelectionKey.OP_READ;
+    private boolean readPaused;
+    private boolean closeAfterFlush;
+    private boolean closed;
+
+    private TimerWheel.Timeout idleTimer;
+    /** 最后一次读到数据的时间 */
+    private long lastReadTime;
+    /** 最后一次写出数据的时间, 写队列由空变为非空时也会更新 */
+    private long lastWriteTime;
+    /** 读缓冲区中未完成的请求是什么时候开始的, 只在requestPending时有意义 */
+    private long requestStartTime;
+    private boolean requestPending;
+
+    Connection(SocketChannel channel, SubReactor reactor, ConnectionHandler handler, int lowWaterMark, int highWaterMark,
+               long readIdleNanos, long writeIdleNanos, long requestTimeoutNanos) {
+        this.channel = channel;
+        this.reactor = reactor;
+        this.handler = handler;
+        this.pool = reactor.bufferPool();
+        this.lowWaterMark = lowWaterMark;
+        this.highWaterMark = highWaterMark;
+        this.readIdleNanos = readIdleNanos;
+        this.writeIdleNanos = writeIdleNanos;
+        this.requestTimeoutNanos = requestTimeoutNanos;
+    }
+
+    void onRegistered(SelectionKey key) throws IOException {
+        this.key = key;
+        lastReadTime = lastWriteTime = reactor.now();
+        long delay = nextIdleCheck();
+        if (delay > 0) {
+            idleTimer = reactor.schedule(this::onIdleTimer, delay, TimeUnit.NANOSECONDS);
+        }
+        handler.onOpen(this);
+        flush();
+    }
+
+    /**
+     * OP_READ事件: 读取数据交给handler, handler没有消费完的数据留在缓冲区里
+     */
+    void onReadable() throws IOException {
+        if (readBuffer == null) {
+            readBuffer = pool.acquire();
+        }
+        int n = channel.read(readBuffer);
+        if (n == -1) {
+            close();
+            return;
+        }
+        if (n > 0) {
+            lastReadTime = reactor.now();
+            reactor.metrics().recordRead(n);
+            readBuffer.flip();
+            long start = System.nanoTime();
+            try {
+                handler.onRead(this, readBuffer);
+            } finally {
+                reactor.metrics().recordHandler(System.nanoTime() - start);
+                if (readBuffer != null) {
+                    updateRequestPending(readBuffer.position() > 0, readBuffer.hasRemaining());
+                    readBuffer.compact();
+                }
+            }
+        }
+        if (readBuffer != null && readBuffer.position() == 0) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+        // 一次读事件中handler写出的所有响应合并成一次gathering write
+        flush();
+    }
+
+    /**
+     * handler没有消费完的数据是一个不完整的请求, 从它开始时计算请求超时; 消费了数据说明前一个请求已经完整
+     */
+    private void updateRequestPending(boolean consumed, boolean remaining) {
+        if (!remaining) {
+            requestPending = false;
+        } else if (consumed || !requestPending) {
+            requestPending = true;
+            requestStartTime = reactor.now();
+        }
+    }
+
+    /**
+     * OP_WRITE事件: socket发送缓冲区有空间了, 继续写出写队列中的数据
+     */
+    void onWritable() throws IOException {
+        flush();
+    }
+
+    public void write(byte[] src) {
+        write(ByteBuffer.wrap(src));
+    }
+
+    /**
+     * 把数据拷贝到写队列中, 调用flush()之后才会真正写出. 只能在reactor线程中调用
+     */
+    public void write(ByteBuffer src) {
+        reactor.checkInEventLoop();
+        if (closed) {
+            return;
+        }
+        if (outbound.isEmpty() && src.hasRemaining()) {
+            // 写超时从数据开始排队时计算
+            lastWriteTime = reactor.now();
+        }
+        while (src.hasRemaining()) {
+            ByteBuffer tail = outbound.peekLast();
+            if (tail == null || tail.limit() == tail.capacity()) {
+                tail = pool.acquire();
+                tail.limit(0);
+                outbound.addLast(tail);
+            }
+            int n = Math.min(src.remaining(), tail.capacity() - tail.limit());
+            // 切换到写模式追加数据, 再切回读模式
+            int readIndex = tail.position();
+            int writeIndex = tail.limit();
+            tail.limit(writeIndex + n);
+            tail.position(writeIndex);
+            int srcLimit = src.limit();
+            src.limit(src.position() + n);
+            tail.put(src);
+            src.limit(srcLimit);
+            tail.position(readIndex);
+            pendingBytes += n;
+        }
+        if (pendingBytes > highWaterMark && !readPaused) {
+            readPaused = true;
+            updateInterest(SelectionKey.OP_READ, false);
+            handler.onWritabilityChanged(this, false);
+        }
+    }
+
+    /**
+     * 写出写队列中的数据, 写不完就关注OP_WRITE. 只能在reactor线程中调用
+     */
+    public void flush() throws IOException {
+        if (closed) {
+            return;
+        }
+        ByteBuffer[] array = reactor.gatherArray();
+        while (!outbound.isEmpty()) {
+            int n = 0;
+            long attempted = 0;
+            for (ByteBuffer buffer : outbound) {
+                array[n++] = buffer;
+                attempted += buffer.remaining();
+                if (n == array.length) {
+                    break;
+                }
+            }
+            long written = channel.write(array, 0, n);
+            for (int i = 0; i < n; i++) {
+                array[i] = null;
+            }
+            pendingBytes -= written;
+            if (written > 0) {
+                lastWriteTime = reactor.now();
+                reactor.metrics().recordWritten(written);
+            }
+            while (!outbound.isEmpty() && !outbound.peekFirst().hasRemaining()) {
+                pool.release(outbound.pollFirst());
+            }
+            if (written < attempted) {
+                // 没有全部写完, 说明socket发送缓冲区满了
+                break;
+            }
+        }
+        if (readPaused && pendingBytes <= lowWaterMark && !closeAfterFlush) {
+            readPaused = false;
+            updateInterest(SelectionKey.OP_READ, true);
+            handler.onWritabilityChanged(this, true);
+        }
+        if (outbound.isEmpty()) {
+            updateInterest(SelectionKey.OP_WRITE, false);
+            if (closeAfterFlush) {
+                close();
+            }
+        } else {
+            updateInterest(SelectionKey.OP_WRITE, true);
+        }
+    }
+
+    /**
+     * 写队列中的数据全部写出之后再关闭连接, 期间不再读取新的请求
+     */
+    public void closeAfterFlush() throws IOException {
+        reactor.checkInEventLoop();
+        closeAfterFlush = true;
+        updateInterest(SelectionKey.OP_READ, false);
+        flush();
+    }
+
+    private void updateInterest(int op, boolean on) {
+        int ops = on ? interestOps | op : interestOps & ~op;
+        if (ops != interestOps && key != null && key.isValid()) {
+            interestOps = ops;
+            key.interestOps(ops);
+        }
+    }
+
+    /**
+     * 连接上的定时任务到期: 检查各种超时, 没有超时就按最近的截止时间重新放回时间轮
+     */
+    private void onIdleTimer() {
+        if (closed) {
+            return;
+        }
+        long now = reactor.now();
+        if (readIdleNanos > 0 && (readPaused || closeAfterFlush || !outbound.isEmpty()
+                || (serialQueue != null && !serialQueue.isIdle()))) {
+            // 在等待响应写出或者业务处理完成, 不算读空闲
+            lastReadTime = now;
+        }
+        IdleState state = null;
+        if (requestTimeoutNanos > 0 && requestPending && now - requestStartTime >= requestTimeoutNanos) {
+            state = IdleState.REQUEST_TIMEOUT;
+            requestStartTime = now;
+        } else if (writeIdleNanos > 0 && !outbound.isEmpty() && now - lastWriteTime >= writeIdleNanos) {
+            state = IdleState.WRITE_IDLE;
+            lastWriteTime = now;
+        } else if (readIdleNanos > 0 && now - lastReadTime >= readIdleNanos) {
+            state = IdleState.READ_IDLE;
+            lastReadTime = now;
+        }
+        if (state != null) {
+            try {
+                handler.onIdle(this, state);
+                flush();
+            } catch (Exception e) {
+                close();
+            }
+            if (closed) {
+                return;
+            }
+        }
+        idleTimer.reschedule(nextIdleCheck(), TimeUnit.NANOSECONDS, now);
+    }
+
+    /**
+     * 距离最近一个超时截止时间还有多久, 没有配置任何超时返回0
+     */
+    private long nextIdleCheck() {
+        long now = reactor.now();
+        long next = Long.MAX_VALUE;
+        if (readIdleNanos > 0) {
+            next = Math.min(next, lastReadTime + readIdleNanos - now);
+        }
+        if (writeIdleNanos > 0) {
+            // 写队列为空时, 写超时最早也要在一个完整的周期之后才可能发生
+            next = Math.min(next, outbound.isEmpty() ? writeIdleNanos : lastWriteTime + writeIdleNanos - now);
+        }
+        if (requestTimeoutNanos > 0) {
+            next = Math.min(next, requestPending ? requestStartTime + requestTimeoutNanos - now : requestTimeoutNanos);
+        }
+        return next == Long.MAX_VALUE ? 0 : Math.max(next, 1);
+    }
+
+    /**
+     * 立即关闭连接, 丢弃写队列中的数据. 可以在任意线程中调用
+     */
+    public void close() {
+        if (!reactor.inEventLoop()) {
+            reactor.execute(this::close);
+            return;
+        }
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (idleTimer != null) {
+            idleTimer.cancel();
+        }
+        if (key != null) {
+            key.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            // ignore
+        }
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+        ByteBuffer buffer;
+        while ((buffer = outbound.pollFirst()) != null) {
+            pool.release(buffer);
+        }
+        pendingBytes = 0;
+        reactor.connectionClosed();
+        reactor.metrics().recordClosed();
+        handler.onClose(this);
+    }
+
+    public boolean isOpen() {
+        return !closed && channel.isOpen();
+    }
+
+    /**
+     * 写队列中积压的数据是否低于高水位
+     */
+    public boolean isWritable() {
+        return !readPaused;
+    }
+
+    /** 写队列中还没有写出的字节数 */
+    public long pendingBytes() {
+        return pendingBytes;
+    }
+
+    public SocketChannel channel() {
+        return channel;
+    }
+
+    public ReactorThread reactor() {
+        return reactor;
+    }
+
+    public SocketAddress remoteAddress() {
+        try {
+            return channel.getRemoteAddress();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * 连接上的业务处理器, 每个连接一个实例, 所有方法都在连接所属的subReactor线程中调用
+ */
+public interface ConnectionHandler {
+
+    /**
+     * 连接注册到subReactor之后调用
+     */
+    default void onOpen(Connection connection) throws IOException {
+    }
+
+    /**
+     * 有数据可读时调用. in处于读模式, 没有读完的数据会保留下来, 和下一次读到的数据拼在一起再交给handler
+     */
+    void onRead(Connection connection, ByteBuffer in) throws IOException;
+
+    /**
+     * 写队列中积压的数据超过高水位(writable=false, 此时已暂停读取)或者降到低水位以下(writable=true)时调用
+     */
+    default void onWritabilityChanged(Connection connection, boolean writable) {
+    }
+
+    /**
+     * 连接超时时调用, 默认直接关闭连接. 如果没有关闭连接, 这种超时会重新计时
+     */
+    default void onIdle(Connection connection, IdleState state) throws IOException {
+        connection.close();
+    }
+
+    /**
+     * 连接关闭时调用
+     */
+    default void onClose(Connection connection) {
+    }
+}
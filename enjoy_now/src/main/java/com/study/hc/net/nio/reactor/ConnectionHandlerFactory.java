@@ -0,0 +1,12 @@
+package com.study.hc.net.nio.reactor;
+
+import java.nio.channels.SocketChannel;
+
+/**
+ * 为每个新建立的连接创建一个ConnectionHandler
+ */
+@FunctionalInterface
+public interface ConnectionHandlerFactory {
+
+    ConnectionHandler newHandler(SocketChannel channel) throws Exception;
+}
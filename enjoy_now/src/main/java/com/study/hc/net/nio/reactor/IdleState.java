@@ -0,0 +1,13 @@
+package com.study.hc.net.nio.reactor;
+
+/**
+ * 连接超时的类型, 见{@link NioReactorServer.Builder#readIdleTimeout}等配置
+ */
+public enum IdleState {
+    /** 长时间没有读到任何数据 */
+    READ_IDLE,
+    /** 写队列中有数据, 但长时间写不出去(对端不读取) */
+    WRITE_IDLE,
+    /** 收到了请求的一部分, 长时间没有收到完整的请求 */
+    REQUEST_TIMEOUT
+}
@@ -0,0 +1,76 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 按2的幂分桶的直方图, 只允许一个线程记录(reactor线程), 任意线程读取.
+ * <p>
+ * 记录是一次数组下标计算加一次lazySet, 没有CAS, 适合放在事件循环的热路径上.
+ * 百分位的精度是2倍(只知道落在[2^k, 2^(k+1))之间), 用来观察数量级足够了.
+ */
+final class Log2Histogram {
+
+    private static final int BUCKETS = 64;
+
+    /** 第k个桶记录[2^(k-1), 2^k)的值, 0记在第0个桶 */
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLongArray totals = new AtomicLongArray(3);
+    private static final int COUNT = 0;
+    private static final int SUM = 1;
+    private static final int MAX = 2;
+
+    void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        int bucket = BUCKETS - Long.numberOfLeadingZeros(value);
+        if (bucket >= BUCKETS) {
+            bucket = BUCKETS - 1;
+        }
+        // 单线程写, lazySet保证其他线程能看到, 不需要CAS
+        buckets.lazySet(bucket, buckets.get(bucket) + 1);
+        totals.lazySet(COUNT, totals.get(COUNT) + 1);
+        totals.lazySet(SUM, totals.get(SUM) + value);
+        if (value > totals.get(MAX)) {
+            totals.lazySet(MAX, value);
+        }
+    }
+
+    long count() {
+        return totals.get(COUNT);
+    }
+
+    long sum() {
+        return totals.get(SUM);
+    }
+
+    long max() {
+        return totals.get(MAX);
+    }
+
+    double mean() {
+        long count = count();
+        return count == 0 ? 0 : (double) sum() / count;
+    }
+
+    /**
+     * 近似的百分位值, 返回所在桶的上界
+     *
+     * @param percentile 0到100
+     */
+    long percentile(double percentile) {
+        long count = count();
+        if (count == 0) {
+            return 0;
+        }
+        long target = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= Math.max(target, 1)) {
+                return i == 0 ? 0 : Math.min((1L << i) - 1, max());
+            }
+        }
+        return max();
+    }
+}
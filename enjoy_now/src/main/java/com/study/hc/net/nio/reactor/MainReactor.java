@@ -0,0 +1,53 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+
+/**
+ * accept处理reactor线程 (accept线程), 只负责处理serverSocketChannel
+ */
+final class MainReactor extends ReactorThread {
+
+    private final NioReactorServer server;
+    /** 一次OP_ACCEPT事件最多accept多少个连接 */
+    private final int acceptBatchSize;
+
+    MainReactor(String name, NioReactorServer server, int acceptBatchSize) throws IOException {
+        super(name);
+        this.server = server;
+        this.acceptBatchSize = acceptBatchSize;
+    }
+
+    @Override
+    protected void processSelectedKey(SelectionKey key) throws Exception {
+        if (!key.isAcceptable()) {
+            return;
+        }
+        // 只做请求分发，不做具体的数据读取
+        ServerSocketChannel ch = (ServerSocketChannel) key.channel();
+        // 一次唤醒尽量把backlog中已经建立好的连接都取出来, 连接风暴时不用每个连接都经过一次select().
+        // 有上限, 避免一直accept而耽误了任务队列中的任务
+        for (int i = 0; i < acceptBatchSize; i++) {
+            SocketChannel socketChannel;
+            try {
+                socketChannel = ch.accept();
+            } catch (IOException e) {
+                // 比如文件描述符用完了(Too many open files), 不能让异常取消监听端口的key, 下一轮select再试
+                e.printStackTrace();
+                return;
+            }
+            if (socketChannel == null) {
+                return;
+            }
+            metrics().recordAccepted();
+            try {
+                server.dispatch(socketChannel);
+            } catch (IOException e) {
+                // 单个连接分发失败(dispatch中已经关闭了它), 不影响其他连接
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * 多生产者-单消费者的无锁任务队列 (基于链表, 参考Dmitry Vyukov的MPSC队列).
+ * <p>
+ * offer()可以被任意线程调用, 只有一次getAndSet; poll()只能被reactor线程自己调用, 不需要任何CAS.
+ * 相比LinkedBlockingQueue, 生产者之间/生产者和消费者之间都不会争用同一把锁.
+ */
+public final class MpscTaskQueue {
+
+    static final class Node {
+        volatile Node next;
+        Runnable task;
+
+        Node(Runnable task) {
+            this.task = task;
+        }
+    }
+
+    private static final AtomicReferenceFieldUpdater<MpscTaskQueue, Node> TAIL =
+            AtomicReferenceFieldUpdater.newUpdater(MpscTaskQueue.class, Node.class, "tail");
+    private static final AtomicReferenceFieldUpdater<Node, Node> NEXT =
+            AtomicReferenceFieldUpdater.newUpdater(Node.class, Node.class, "next");
+
+    /** 只被消费者线程访问, 指向一个已经被消费过的节点(哨兵) */
+    private Node head;
+    /** 生产者通过getAndSet竞争 */
+    private volatile Node tail;
+
+    public MpscTaskQueue() {
+        Node stub = new Node(null);
+        head = stub;
+        tail = stub;
+    }
+
+    /**
+     * 任意线程调用
+     */
+    public void offer(Runnable task) {
+        if (task == null) {
+            throw new NullPointerException("task");
+        }
+        Node node = new Node(task);
+        Node prev = TAIL.getAndSet(this, node);
+        // getAndSet和链接next之间, 消费者可能暂时看不到这个节点, poll()会返回null, 但isEmpty()会返回false
+        NEXT.lazySet(prev, node);
+    }
+
+    /**
+     * 只能由消费者线程调用. 队列为空(或者生产者还没有完成链接)时返回null
+     */
+    public Runnable poll() {
+        Node next = head.next;
+        if (next == null) {
+            return null;
+        }
+        Runnable task = next.task;
+        next.task = null;
+        head = next;
+        return task;
+    }
+
+    /**
+     * 由消费者线程调用, 只要有生产者已经完成了getAndSet就返回false
+     */
+    public boolean isEmpty() {
+        return head == tail;
+    }
+}
@@ -0,0 +1,477 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketOption;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * 主从reactor线程模型的NIO服务端: mainReactor负责accept, subReactor负责连接上的IO读写.
+ * <p>
+ * 业务协议通过{@link ConnectionHandlerFactory}注入, 每个连接创建一个{@link ConnectionHandler}.
+ * <pre>
+ * NioReactorServer server = NioReactorServer.builder()
+ *         .port(8080)
+ *         .handlerFactory(ch -&gt; new MyHandler())
+ *         .build();
+ * server.start();
+ * ...
+ * server.stop();
+ * </pre>
+ */
+public final class NioReactorServer {
+
+    private static final int NEW = 0;
+    private static final int STARTED = 1;
+    private static final int STOPPED = 2;
+
+    private final SocketAddress bindAddress;
+    private final ConnectionHandlerFactory handlerFactory;
+    private final int backlog;
+    private final boolean reusePort;
+    private final int lowWaterMark;
+    private final int highWaterMark;
+    private final long readIdleNanos;
+    private final long writeIdleNanos;
+    private final long requestTimeoutNanos;
+
+    // 1、创建多个线程 - accept处理reactor线程 (accept线程)
+    private final MainReactor[] mainReactors;
+    // 2、创建多个线程 - io处理reactor线程  (I/O线程)
+    private final SubReactor[] subReactors;
+
+    private final AtomicInteger state = new AtomicInteger(NEW);
+    private final ReactorChooser reactorChooser;
+    private final boolean jmxEnabled;
+    private final List<ObjectName> registeredMBeans = new ArrayList<>();
+    private ServerSocketChannel[] serverSocketChannels = new ServerSocketChannel[0];
+
+    private NioReactorServer(Builder builder) throws IOException {
+        this.bindAddress = builder.bindAddress;
+        this.handlerFactory = builder.handlerFactory;
+        this.backlog = builder.backlog;
+        this.reusePort = builder.reusePort;
+        this.reactorChooser = builder.reactorChooser;
+        this.jmxEnabled = builder.jmxEnabled;
+        this.lowWaterMark = builder.lowWaterMark;
+        this.highWaterMark = builder.highWaterMark;
+        this.readIdleNanos = builder.readIdleNanos;
+        this.writeIdleNanos = builder.writeIdleNanos;
+        this.requestTimeoutNanos = builder.requestTimeoutNanos;
+        this.mainReactors = new MainReactor[builder.acceptorThreads];
+        this.subReactors = new SubReactor[builder.ioThreads];
+        for (int i = 0; i < mainReactors.length; i++) {
+            mainReactors[i] = new MainReactor("main-reactor-" + i, this, builder.acceptBatchSize);
+        }
+        for (int i = 0; i < subReactors.length; i++) {
+            subReactors[i] = new SubReactor("sub-reactor-" + i, builder.bufferSize, builder.maxPooledBuffers, builder.waitStrategy);
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * 启动所有reactor线程, 创建serverSocketChannel注册到mainReactor上, 并绑定端口
+     */
+    public void start() throws IOException {
+        if (!state.compareAndSet(NEW, STARTED)) {
+            throw new IllegalStateException("server already started");
+        }
+        for (SubReactor subReactor : subReactors) {
+            subReactor.doStart();
+        }
+        for (MainReactor mainReactor : mainReactors) {
+            mainReactor.doStart();
+        }
+        if (jmxEnabled) {
+            registerMBeans();
+        }
+        try {
+            ServerSocketChannel first = openServerChannel();
+            SocketOption<Boolean> reusePortOption = reusePort ? reusePortOption(first) : null;
+            if (reusePort && reusePortOption == null) {
+                System.err.println("SO_REUSEPORT is not supported, all main reactors share one listening channel");
+            }
+            if (reusePortOption == null || mainReactors.length == 1) {
+                // 只有一个监听channel, 注册到每个mainReactor的selector上, 新连接到来时它们都会被唤醒,
+                // 抢到的accept成功, 其它的accept()返回null直接返回
+                serverSocketChannels = new ServerSocketChannel[]{first};
+                bindAndRegister(first, bindAddress, mainReactors);
+            } else {
+                // 每个mainReactor一个监听channel, 都绑定到同一个端口上, 由内核把新连接分散到各个channel的accept队列
+                serverSocketChannels = new ServerSocketChannel[mainReactors.length];
+                serverSocketChannels[0] = first;
+                first.setOption(reusePortOption, true);
+                bindAndRegister(first, bindAddress, mainReactors[0]);
+                // 绑定的是0端口时, 其他channel要绑定到第一个channel实际分配到的端口
+                SocketAddress boundAddress = first.getLocalAddress();
+                for (int i = 1; i < mainReactors.length; i++) {
+                    serverSocketChannels[i] = openServerChannel();
+                    serverSocketChannels[i].setOption(reusePortOption, true);
+                    bindAndRegister(serverSocketChannels[i], boundAddress, mainReactors[i]);
+                }
+            }
+        } catch (Exception e) {
+            stop();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+    }
+
+    /**
+     * 每个reactor线程注册一个MBean: com.study.hc.net.nio:type=Reactor,name=sub-reactor-0
+     */
+    private void registerMBeans() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ReactorThread reactor : allReactors()) {
+            try {
+                ObjectName name = new ObjectName("com.study.hc.net.nio:type=Reactor,name=" + reactor.getName());
+                mBeanServer.registerMBean(reactor.metrics(), name);
+                registeredMBeans.add(name);
+            } catch (Exception e) {
+                // 比如同一个JVM中启动了多个server, 名字冲突, 只是少了JMX统计, 不影响服务
+                System.err.println("failed to register MBean for " + reactor.getName() + ": " + e);
+            }
+        }
+    }
+
+    private void unregisterMBeans() {
+        MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registeredMBeans) {
+            try {
+                mBeanServer.unregisterMBean(name);
+            } catch (Exception e) {
+                // ignore
+            }
+        }
+        registeredMBeans.clear();
+    }
+
+    private List<ReactorThread> allReactors() {
+        List<ReactorThread> reactors = new ArrayList<>(mainReactors.length + subReactors.length);
+        Collections.addAll(reactors, mainReactors);
+        Collections.addAll(reactors, subReactors);
+        return reactors;
+    }
+
+    /**
+     * 所有reactor线程的运行统计
+     */
+    public List<ReactorMetrics> metrics() {
+        List<ReactorMetrics> metrics = new ArrayList<>();
+        for (ReactorThread reactor : allReactors()) {
+            metrics.add(reactor.metrics());
+        }
+        return metrics;
+    }
+
+    /**
+     * 所有reactor线程的运行统计, Prometheus的文本格式, 可以直接作为/metrics这类接口的响应
+     */
+    public String metricsText() {
+        StringBuilder out = new StringBuilder(4096);
+        for (ReactorThread reactor : allReactors()) {
+            reactor.metrics().appendText(out);
+        }
+        return out.toString();
+    }
+
+    private static ServerSocketChannel openServerChannel() throws IOException {
+        ServerSocketChannel channel = ServerSocketChannel.open();
+        channel.configureBlocking(false);
+        return channel;
+    }
+
+    private void bindAndRegister(ServerSocketChannel channel, SocketAddress address, MainReactor... mainReactors) throws Exception {
+        // 先绑定端口再注册OP_ACCEPT, 未绑定的channel会被selector一直报告为可accept
+        channel.bind(address, backlog);
+        for (MainReactor mainReactor : mainReactors) {
+            mainReactor.register(channel, SelectionKey.OP_ACCEPT, null).get();
+        }
+    }
+
+    /**
+     * StandardSocketOptions.SO_REUSEPORT是JDK 9才加入的, 这里按名字从channel支持的选项中查找, 找不到返回null
+     */
+    @SuppressWarnings("unchecked")
+    private static SocketOption<Boolean> reusePortOption(ServerSocketChannel channel) {
+        for (SocketOption<?> option : channel.supportedOptions()) {
+            if ("SO_REUSEPORT".equals(option.name()) && option.type() == Boolean.class) {
+                return (SocketOption<Boolean>) option;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 关闭监听端口, 停止所有reactor线程, 并关闭所有连接
+     */
+    public void stop() {
+        if (!state.compareAndSet(STARTED, STOPPED)) {
+            return;
+        }
+        for (ServerSocketChannel serverSocketChannel : serverSocketChannels) {
+            if (serverSocketChannel == null) {
+                continue;
+            }
+            try {
+                serverSocketChannel.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        for (MainReactor mainReactor : mainReactors) {
+            mainReactor.shutdown();
+        }
+        for (SubReactor subReactor : subReactors) {
+            subReactor.shutdown();
+        }
+        joinAll(mainReactors);
+        joinAll(subReactors);
+        unregisterMBeans();
+    }
+
+    private static void joinAll(ReactorThread[] reactors) {
+        for (ReactorThread reactor : reactors) {
+            if (reactor == Thread.currentThread()) {
+                continue;
+            }
+            try {
+                reactor.join(5000);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return state.get() == STARTED;
+    }
+
+    public SocketAddress localAddress() throws IOException {
+        return serverSocketChannels.length == 0 ? null : serverSocketChannels[0].getLocalAddress();
+    }
+
+    /**
+     * 收到连接建立的通知之后，分发给I/O线程继续去读取数据
+     */
+    void dispatch(SocketChannel socketChannel) throws IOException {
+        socketChannel.configureBlocking(false);
+        ConnectionHandler handler;
+        try {
+            handler = handlerFactory.newHandler(socketChannel);
+        } catch (Exception e) {
+            socketChannel.close();
+            throw e instanceof IOException ? (IOException) e : new IOException(e);
+        }
+        SubReactor subReactor = subReactors[reactorChooser.next(subReactors)];
+        // 马上计数, 连接风暴时后面的连接就能看到这个reactor的负载, 连接关闭时减掉
+        subReactor.connectionOpened();
+        Connection connection = new Connection(socketChannel, subReactor, handler, lowWaterMark, highWaterMark,
+                readIdleNanos, writeIdleNanos, requestTimeoutNanos);
+        // 不等待注册完成, mainReactor可以马上去accept下一个连接.
+        // 整个注册过程作为一个任务交给subReactor, register()在reactor线程中同步完成, 回调也一定在subReactor线程中执行
+        // (如果在mainReactor中调用register()再添加回调, future可能已经完成, 回调就会在mainReactor线程中执行)
+        subReactor.execute(() -> subReactor.register(socketChannel, SelectionKey.OP_READ, connection).whenComplete((key, cause) -> {
+            if (cause != null) {
+                connection.close();
+                return;
+            }
+            try {
+                connection.onRegistered(key);
+            } catch (Exception e) {
+                connection.close();
+            }
+        }));
+    }
+
+    public static final class Builder {
+        private int acceptorThreads = 1;
+        private int ioThreads = Runtime.getRuntime().availableProcessors();
+        private SocketAddress bindAddress = new InetSocketAddress(8080);
+        private ConnectionHandlerFactory handlerFactory;
+        private int bufferSize = 8192;
+        private int maxPooledBuffers = 1024;
+        private int backlog = 1024;
+        private int acceptBatchSize = 16;
+        private boolean reusePort;
+        private ReactorChooser reactorChooser = ReactorChooser.roundRobin();
+        private boolean jmxEnabled = true;
+        private WaitStrategy waitStrategy = WaitStrategy.blocking();
+        private int lowWaterMark = 32 * 1024;
+        private int highWaterMark = 64 * 1024;
+        private long readIdleNanos;
+        private long writeIdleNanos;
+        private long requestTimeoutNanos;
+
+        private Builder() {
+        }
+
+        /**
+         * accept线程数. 没有开启{@link #reusePort(boolean)}时它们共用一个监听channel,
+         * 可以分担accept之后的分发工作, 但同一个连接到来时会一起被唤醒
+         */
+        public Builder acceptorThreads(int acceptorThreads) {
+            if (acceptorThreads < 1) {
+                throw new IllegalArgumentException("acceptorThreads: " + acceptorThreads);
+            }
+            this.acceptorThreads = acceptorThreads;
+            return this;
+        }
+
+        /** I/O线程数, 默认是CPU核数 */
+        public Builder ioThreads(int ioThreads) {
+            if (ioThreads < 1) {
+                throw new IllegalArgumentException("ioThreads: " + ioThreads);
+            }
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        public Builder port(int port) {
+            return bind(new InetSocketAddress(port));
+        }
+
+        public Builder bind(String host, int port) {
+            return bind(new InetSocketAddress(host, port));
+        }
+
+        public Builder bind(SocketAddress bindAddress) {
+            this.bindAddress = Objects.requireNonNull(bindAddress, "bindAddress");
+            return this;
+        }
+
+        public Builder handlerFactory(ConnectionHandlerFactory handlerFactory) {
+            this.handlerFactory = Objects.requireNonNull(handlerFactory, "handlerFactory");
+            return this;
+        }
+
+        /** 池化缓冲区的大小, 也就是每个连接的读缓冲区大小, 写队列也按这个大小分段 */
+        public Builder bufferSize(int bufferSize) {
+            if (bufferSize < 64) {
+                throw new IllegalArgumentException("bufferSize: " + bufferSize);
+            }
+            this.bufferSize = bufferSize;
+            return this;
+        }
+
+        /** 每个subReactor的缓冲区池最多缓存多少个空闲缓冲区 */
+        public Builder maxPooledBuffers(int maxPooledBuffers) {
+            if (maxPooledBuffers < 0) {
+                throw new IllegalArgumentException("maxPooledBuffers: " + maxPooledBuffers);
+            }
+            this.maxPooledBuffers = maxPooledBuffers;
+            return this;
+        }
+
+        /**
+         * 写队列水位: 积压超过high时暂停读取这个连接, 降到low以下再恢复
+         */
+        public Builder writeBufferWaterMark(int low, int high) {
+            if (low < 0 || high < low) {
+                throw new IllegalArgumentException("low: " + low + ", high: " + high);
+            }
+            this.lowWaterMark = low;
+            this.highWaterMark = high;
+            return this;
+        }
+
+        /**
+         * 连接上超过这个时间没有读到数据(也没有正在处理或正在写出的响应)就关闭, 0表示不检查
+         */
+        public Builder readIdleTimeout(long timeout, TimeUnit unit) {
+            this.readIdleNanos = checkTimeout(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 写队列中有数据但超过这个时间一个字节都写不出去就关闭连接, 0表示不检查
+         */
+        public Builder writeIdleTimeout(long timeout, TimeUnit unit) {
+            this.writeIdleNanos = checkTimeout(timeout, unit);
+            return this;
+        }
+
+        /**
+         * 收到请求的第一部分之后, 超过这个时间还没有收到完整的请求就关闭连接(防止slowloris), 0表示不检查
+         */
+        public Builder requestTimeout(long timeout, TimeUnit unit) {
+            this.requestTimeoutNanos = checkTimeout(timeout, unit);
+            return this;
+        }
+
+        private static long checkTimeout(long timeout, TimeUnit unit) {
+            if (timeout < 0) {
+                throw new IllegalArgumentException("timeout: " + timeout);
+            }
+            return unit.toNanos(timeout);
+        }
+
+        /** 一次OP_ACCEPT事件最多accept多少个连接 */
+        public Builder acceptBatchSize(int acceptBatchSize) {
+            if (acceptBatchSize < 1) {
+                throw new IllegalArgumentException("acceptBatchSize: " + acceptBatchSize);
+            }
+            this.acceptBatchSize = acceptBatchSize;
+            return this;
+        }
+
+        /**
+         * 为每个accept线程打开一个设置了SO_REUSEPORT的监听channel, 建连的处理能力可以超过一个CPU核.
+         * 平台不支持SO_REUSEPORT时退化为所有accept线程共用一个监听channel
+         */
+        public Builder reusePort(boolean reusePort) {
+            this.reusePort = reusePort;
+            return this;
+        }
+
+        /**
+         * 新连接分配给哪个I/O线程, 默认轮询. 见{@link ReactorChooser#leastConnections()},
+         * {@link ReactorChooser#powerOfTwoChoices()}
+         */
+        public Builder reactorChooser(ReactorChooser reactorChooser) {
+            this.reactorChooser = Objects.requireNonNull(reactorChooser, "reactorChooser");
+            return this;
+        }
+
+        /**
+         * I/O线程没有事件时的等待策略, 默认阻塞. 对延迟敏感时用{@link WaitStrategy#adaptive(int, int)}空转一段时间再阻塞
+         */
+        public Builder waitStrategy(WaitStrategy waitStrategy) {
+            this.waitStrategy = Objects.requireNonNull(waitStrategy, "waitStrategy");
+            return this;
+        }
+
+        /** 是否把每个reactor线程的运行统计注册为JMX MBean, 默认注册 */
+        public Builder jmxEnabled(boolean jmxEnabled) {
+            this.jmxEnabled = jmxEnabled;
+            return this;
+        }
+
+        public Builder backlog(int backlog) {
+            this.backlog = backlog;
+            return this;
+        }
+
+        public NioReactorServer build() throws IOException {
+            if (handlerFactory == null) {
+                throw new IllegalStateException("handlerFactory not set");
+            }
+            return new NioReactorServer(this);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 新连接分配给哪个subReactor. 在mainReactor线程中调用, 有多个accept线程时会被并发调用.
+ * <p>
+ * 负载统计来自{@link ReactorThread#activeConnections()}和{@link ReactorThread#pendingTasks()},
+ * 都是近似值, 不需要精确.
+ */
+@FunctionalInterface
+public interface ReactorChooser {
+
+    /**
+     * @return 选中的reactor在reactors中的下标
+     */
+    int next(ReactorThread[] reactors);
+
+    /**
+     * 轮询, 不考虑负载. 连接的负载差不多时最便宜
+     */
+    static ReactorChooser roundRobin() {
+        AtomicInteger index = new AtomicInteger();
+        // floorMod: 计数器溢出变成负数之后下标仍然合法
+        return reactors -> Math.floorMod(index.getAndIncrement(), reactors.length);
+    }
+
+    /**
+     * 选连接数最少的reactor, 每次都要遍历所有reactor
+     */
+    static ReactorChooser leastConnections() {
+        return reactors -> {
+            int best = 0;
+            int bestLoad = Integer.MAX_VALUE;
+            for (int i = 0; i < reactors.length; i++) {
+                int load = reactors[i].activeConnections();
+                if (load < bestLoad) {
+                    best = i;
+                    bestLoad = load;
+                }
+            }
+            return best;
+        };
+    }
+
+    /**
+     * 随机选两个reactor, 取负载(连接数+待执行任务数)较小的那个.
+     * 只看两个就能避免连接堆积到某一个reactor上, 又不会让并发的accept线程都挤到同一个"最空闲"的reactor
+     */
+    static ReactorChooser powerOfTwoChoices() {
+        return reactors -> {
+            int n = reactors.length;
+            if (n == 1) {
+                return 0;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int a = random.nextInt(n);
+            int b = random.nextInt(n - 1);
+            if (b >= a) {
+                b++;
+            }
+            return load(reactors[a]) <= load(reactors[b]) ? a : b;
+        };
+    }
+
+    static int load(ReactorThread reactor) {
+        return reactor.activeConnections() + reactor.pendingTasks();
+    }
+
+    /**
+     * 按名字创建: round-robin, least-connections, p2c
+     */
+    static ReactorChooser of(String name) {
+        switch (name) {
+            case "round-robin":
+                return roundRobin();
+            case "least-connections":
+                return leastConnections();
+            case "p2c":
+            case "power-of-two-choices":
+                return powerOfTwoChoices();
+            default:
+                throw new IllegalArgumentException("unknown reactor chooser: " + name);
+        }
+    }
+}
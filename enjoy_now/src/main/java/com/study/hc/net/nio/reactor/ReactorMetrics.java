@@ -0,0 +1,221 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 每个reactor线程一份的运行统计. 只有reactor线程自己写, 所以计数器不需要CAS, 用lazySet发布给读取线程.
+ * <p>
+ * 可以通过JMX读取, 也可以用{@link #appendText(StringBuilder)}输出成纯文本(Prometheus的文本格式)
+ */
+public final class ReactorMetrics implements ReactorMetricsMXBean {
+
+    private static final int SELECT_COUNT = 0;
+    private static final int TASKS_EXECUTED = 1;
+    private static final int BYTES_READ = 2;
+    private static final int BYTES_WRITTEN = 3;
+    private static final int CONNECTIONS_ACCEPTED = 4;
+    private static final int CONNECTIONS_CLOSED = 5;
+    private static final int SPINS = 6;
+    private static final int YIELDS = 7;
+    private static final int PARKS = 8;
+    private static final int COUNTERS = 9;
+
+    private final ReactorThread reactor;
+    private final AtomicLongArray counters = new AtomicLongArray(COUNTERS);
+    private final Log2Histogram selectWaitNanos = new Log2Histogram();
+    private final Log2Histogram readyKeys = new Log2Histogram();
+    private final Log2Histogram handlerNanos = new Log2Histogram();
+
+    ReactorMetrics(ReactorThread reactor) {
+        this.reactor = reactor;
+    }
+
+    private void add(int counter, long delta) {
+        counters.lazySet(counter, counters.get(counter) + delta);
+    }
+
+    void recordSelect(long waitNanos, int ready) {
+        add(SELECT_COUNT, 1);
+        selectWaitNanos.record(waitNanos);
+        readyKeys.record(ready);
+    }
+
+    void recordSpin() {
+        add(SPINS, 1);
+    }
+
+    void recordYield() {
+        add(YIELDS, 1);
+    }
+
+    void recordPark() {
+        add(PARKS, 1);
+    }
+
+    void recordTasks(long n) {
+        add(TASKS_EXECUTED, n);
+    }
+
+    void recordRead(long bytes) {
+        add(BYTES_READ, bytes);
+    }
+
+    void recordWritten(long bytes) {
+        add(BYTES_WRITTEN, bytes);
+    }
+
+    void recordAccepted() {
+        add(CONNECTIONS_ACCEPTED, 1);
+    }
+
+    void recordClosed() {
+        add(CONNECTIONS_CLOSED, 1);
+    }
+
+    void recordHandler(long nanos) {
+        handlerNanos.record(nanos);
+    }
+
+    @Override
+    public String getName() {
+        return reactor.getName();
+    }
+
+    @Override
+    public long getSelectCount() {
+        return counters.get(SELECT_COUNT);
+    }
+
+    @Override
+    public long getSelectWaitMillisTotal() {
+        return TimeUnit.NANOSECONDS.toMillis(selectWaitNanos.sum());
+    }
+
+    @Override
+    public long getSelectWaitP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(selectWaitNanos.percentile(99));
+    }
+
+    @Override
+    public long getSpinCount() {
+        return counters.get(SPINS);
+    }
+
+    @Override
+    public long getYieldCount() {
+        return counters.get(YIELDS);
+    }
+
+    @Override
+    public long getParkCount() {
+        return counters.get(PARKS);
+    }
+
+    @Override
+    public double getSpinParkRatio() {
+        long parks = getParkCount();
+        return (double) (getSpinCount() + getYieldCount()) / Math.max(parks, 1);
+    }
+
+    @Override
+    public double getReadyKeysMean() {
+        return readyKeys.mean();
+    }
+
+    @Override
+    public long getReadyKeysMax() {
+        return readyKeys.max();
+    }
+
+    @Override
+    public int getPendingTasks() {
+        return reactor.pendingTasks();
+    }
+
+    @Override
+    public long getTasksExecuted() {
+        return counters.get(TASKS_EXECUTED);
+    }
+
+    @Override
+    public long getBytesRead() {
+        return counters.get(BYTES_READ);
+    }
+
+    @Override
+    public long getBytesWritten() {
+        return counters.get(BYTES_WRITTEN);
+    }
+
+    @Override
+    public long getConnectionsAccepted() {
+        return counters.get(CONNECTIONS_ACCEPTED);
+    }
+
+    @Override
+    public long getConnectionsClosed() {
+        return counters.get(CONNECTIONS_CLOSED);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        return reactor.activeConnections();
+    }
+
+    @Override
+    public long getHandlerCount() {
+        return handlerNanos.count();
+    }
+
+    @Override
+    public double getHandlerMeanMicros() {
+        return handlerNanos.mean() / 1000;
+    }
+
+    @Override
+    public long getHandlerP99Micros() {
+        return TimeUnit.NANOSECONDS.toMicros(handlerNanos.percentile(99));
+    }
+
+    /**
+     * 输出成Prometheus的文本格式, 每行一个指标, 用reactor标签区分不同的reactor线程
+     */
+    public void appendText(StringBuilder out) {
+        String label = "{reactor=\"" + reactor.getName() + "\"";
+        line(out, "reactor_select_total", label, getSelectCount());
+        line(out, "reactor_select_wait_seconds_total", label, selectWaitNanos.sum() / 1e9);
+        quantiles(out, "reactor_select_wait_seconds", label, selectWaitNanos, 1e9);
+        line(out, "reactor_spin_total", label, getSpinCount());
+        line(out, "reactor_yield_total", label, getYieldCount());
+        line(out, "reactor_park_total", label, getParkCount());
+        line(out, "reactor_ready_keys_mean", label, getReadyKeysMean());
+        line(out, "reactor_ready_keys_max", label, getReadyKeysMax());
+        line(out, "reactor_pending_tasks", label, getPendingTasks());
+        line(out, "reactor_tasks_executed_total", label, getTasksExecuted());
+        line(out, "reactor_read_bytes_total", label, getBytesRead());
+        line(out, "reactor_written_bytes_total", label, getBytesWritten());
+        line(out, "reactor_connections_accepted_total", label, getConnectionsAccepted());
+        line(out, "reactor_connections_closed_total", label, getConnectionsClosed());
+        line(out, "reactor_connections_active", label, getActiveConnections());
+        line(out, "reactor_handler_total", label, getHandlerCount());
+        quantiles(out, "reactor_handler_seconds", label, handlerNanos, 1e9);
+    }
+
+    private static void quantiles(StringBuilder out, String name, String label, Log2Histogram histogram, double scale) {
+        line(out, name, label + ",quantile=\"0.5\"", histogram.percentile(50) / scale);
+        line(out, name, label + ",quantile=\"0.99\"", histogram.percentile(99) / scale);
+        line(out, name, label + ",quantile=\"0.999\"", histogram.percentile(99.9) / scale);
+        line(out, name + "_max", label, histogram.max() / scale);
+    }
+
+    private static void line(StringBuilder out, String name, String label, double value) {
+        out.append(name).append(label).append("} ");
+        if (value == (long) value) {
+            out.append((long) value);
+        } else {
+            out.append(value);
+        }
+        out.append('\n');
+    }
+}
@@ -0,0 +1,54 @@
+package com.study.hc.net.nio.reactor;
+
+/**
+ * 一个reactor线程的运行统计, 通过JMX暴露(jconsole/jvisualvm中的com.study.hc.net.nio节点)
+ */
+public interface ReactorMetricsMXBean {
+
+    String getName();
+
+    /** select()调用次数, 也就是事件循环的轮数 */
+    long getSelectCount();
+
+    /** 阻塞在select()上的总时间 */
+    long getSelectWaitMillisTotal();
+
+    long getSelectWaitP99Micros();
+
+    /** 按{@link WaitStrategy}空转(selectNow)、yield、阻塞(select)的次数 */
+    long getSpinCount();
+
+    long getYieldCount();
+
+    long getParkCount();
+
+    /** (空转+yield)/阻塞, 越大说明用CPU换延迟换得越多 */
+    double getSpinParkRatio();
+
+    /** 每轮select返回的就绪key数 */
+    double getReadyKeysMean();
+
+    long getReadyKeysMax();
+
+    /** 任务队列中还没有执行的任务数 */
+    int getPendingTasks();
+
+    long getTasksExecuted();
+
+    long getBytesRead();
+
+    long getBytesWritten();
+
+    long getConnectionsAccepted();
+
+    long getConnectionsClosed();
+
+    int getActiveConnections();
+
+    /** ConnectionHandler.onRead的调用次数和耗时 */
+    long getHandlerCount();
+
+    double getHandlerMeanMicros();
+
+    long getHandlerP99Micros();
+}
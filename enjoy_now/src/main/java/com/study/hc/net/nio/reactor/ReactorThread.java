@@ -0,0 +1,288 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 封装了selector.select()等事件轮询的代码 (从NIOServerV3中抽取出来)
+ */
+public abstract class ReactorThread extends Thread {
+
+    /** 时间轮的精度, 空闲超时这类定时任务不需要更高的精度 */
+    private static final long TIMER_TICK_MILLIS = 100;
+    private static final int TIMER_WHEEL_SIZE = 512;
+    private static final long MAX_SELECT_MILLIS = 1000;
+
+    protected final Selector selector;
+    private final TimerWheel timerWheel = new TimerWheel(TIMER_TICK_MILLIS, TimeUnit.MILLISECONDS, TIMER_WHEEL_SIZE);
+    /** 本轮事件循环select返回时的System.nanoTime(), 处理事件时用它代替反复调用nanoTime() */
+    private long now = System.nanoTime();
+    private final MpscTaskQueue taskQueue = new MpscTaskQueue();
+    /** reactor线程是否阻塞在select()上, 只有阻塞时提交任务才需要selector.wakeup() */
+    private final AtomicBoolean parked = new AtomicBoolean(false);
+    /** 负载统计, 给{@link ReactorChooser}用: 已提交的任务数, 已执行的任务数(只由reactor线程写) */
+    private final AtomicLong submittedTasks = new AtomicLong();
+    private volatile long completedTasks;
+    /** 分配给这个reactor、还没有关闭的连接数 */
+    private final AtomicInteger activeConnections = new AtomicInteger();
+    private final ReactorMetrics metrics = new ReactorMetrics(this);
+    private final WaitStrategy waitStrategy;
+    /** 连续多少轮既没有事件也没有任务 */
+    private int idleIterations;
+
+    private volatile boolean running = false;
+
+    protected ReactorThread(String name) throws IOException {
+        this(name, WaitStrategy.blocking());
+    }
+
+    protected ReactorThread(String name, WaitStrategy waitStrategy) throws IOException {
+        super(name);
+        this.waitStrategy = waitStrategy;
+        selector = Selector.open();
+    }
+
+    /**
+     * Selector监听到有事件后,调用这个方法
+     */
+    protected abstract void processSelectedKey(SelectionKey key) throws Exception;
+
+    /**
+     * 事件循环退出时,关闭此selector上注册的所有channel
+     */
+    protected void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            try {
+                key.channel().close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        // 轮询Selector事件
+        while (running) {
+            try {
+                // 执行队列中的任务
+                long tasks = runAllTasks();
+                long selectStart = System.nanoTime();
+                int ready = select();
+                now = System.nanoTime();
+                metrics.recordSelect(now - selectStart, ready);
+                idleIterations = ready > 0 || tasks > 0 ? 0 : idleIterations + 1;
+
+                // 获取查询结果
+                Set<SelectionKey> selected = selector.selectedKeys();
+                // 遍历查询结果
+                Iterator<SelectionKey> iter = selected.iterator();
+                while (iter.hasNext()) {
+                    // 被封装的查询结果
+                    SelectionKey key = iter.next();
+                    iter.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    try {
+                        processSelectedKey(key);
+                    } catch (Exception ex) {
+                        key.cancel(); // 如果有异常,就取消这个KEY的订阅
+                    }
+                }
+                // 执行到期的定时任务
+                timerWheel.expire(now);
+            } catch (ClosedSelectorException e) {
+                break;
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        runAllTasks();
+        closeAll();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 按等待策略等待事件: 刚处理过事件或任务时先空转, 再yield, 最后才阻塞
+     */
+    private int select() throws IOException {
+        int spins = waitStrategy.spinIterations();
+        int yields = waitStrategy.yieldIterations();
+        if (idleIterations < spins) {
+            metrics.recordSpin();
+            return selector.selectNow();
+        }
+        if (idleIterations < spins + yields) {
+            metrics.recordYield();
+            Thread.yield();
+            return selector.selectNow();
+        }
+        parked.set(true);
+        try {
+            if (!taskQueue.isEmpty()) {
+                // 设置parked之前有新任务进来了, 不能阻塞
+                return selector.selectNow();
+            }
+            metrics.recordPark();
+            return selector.select(selectTimeoutMillis());
+        } finally {
+            parked.set(false);
+        }
+    }
+
+    /**
+     * 有定时任务时, select最多阻塞到下一个tick
+     */
+    private long selectTimeoutMillis() {
+        long nanos = timerWheel.nanosUntilNextTick(System.nanoTime());
+        if (nanos < 0) {
+            return MAX_SELECT_MILLIS;
+        }
+        // select(0)表示永久阻塞, 所以至少是1毫秒
+        return Math.max(1, Math.min(MAX_SELECT_MILLIS, TimeUnit.NANOSECONDS.toMillis(nanos + 999_999)));
+    }
+
+    private long runAllTasks() {
+        Runnable task;
+        long n = 0;
+        while ((task = taskQueue.poll()) != null) {
+            n++;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                t.printStackTrace();
+            }
+        }
+        if (n > 0) {
+            completedTasks += n;
+            metrics.recordTasks(n);
+        }
+        return n;
+    }
+
+    /**
+     * 将channel注册到当前reactor的selector上, 不会阻塞调用线程, 注册完成后future在reactor线程中完成
+     */
+    public CompletableFuture<SelectionKey> register(SelectableChannel channel, int interestOps, Object attachment) {
+        // 为什么register要以任务提交的形式，让reactor线程去处理？
+        // 因为线程在执行channel注册到selector的过程中，会和调用selector.select()方法的线程争用同一把锁
+        // 而select()方法实在eventLoop中通过while循环调用的，争抢的可能性很高，为了让register能更快的执行，就放到同一个线程来处理
+        CompletableFuture<SelectionKey> future = new CompletableFuture<>();
+        Runnable task = () -> {
+            try {
+                future.complete(channel.register(selector, interestOps, attachment));
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        };
+        if (inEventLoop()) {
+            task.run();
+        } else {
+            execute(task);
+        }
+        return future;
+    }
+
+    /**
+     * 提交一个任务到reactor线程执行. 只有reactor线程阻塞在select()上时才唤醒selector
+     */
+    public void execute(Runnable task) {
+        submittedTasks.incrementAndGet();
+        taskQueue.offer(task);
+        if (!inEventLoop() && parked.compareAndSet(true, false)) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * 在delay之后在reactor线程中执行task, 精度是时间轮的一个tick. 只能在reactor线程中调用
+     */
+    public TimerWheel.Timeout schedule(Runnable task, long delay, TimeUnit unit) {
+        checkInEventLoop();
+        return timerWheel.schedule(task, delay, unit, now);
+    }
+
+    /**
+     * 本轮事件循环的时间(System.nanoTime()), 只在reactor线程中有意义
+     */
+    public long now() {
+        return now;
+    }
+
+    TimerWheel timerWheel() {
+        return timerWheel;
+    }
+
+    void checkInEventLoop() {
+        if (!inEventLoop()) {
+            throw new IllegalStateException("must be called from " + getName());
+        }
+    }
+
+    /**
+     * 任务队列中还没有执行的任务数(近似值), 可以在任意线程中调用
+     */
+    public int pendingTasks() {
+        return (int) Math.max(0, submittedTasks.get() - completedTasks);
+    }
+
+    /**
+     * 分配给这个reactor、还没有关闭的连接数, 可以在任意线程中调用
+     */
+    public int activeConnections() {
+        return activeConnections.get();
+    }
+
+    /**
+     * 运行统计, 可以在任意线程中读取
+     */
+    public ReactorMetrics metrics() {
+        return metrics;
+    }
+
+    void connectionOpened() {
+        activeConnections.incrementAndGet();
+    }
+
+    void connectionClosed() {
+        activeConnections.decrementAndGet();
+    }
+
+    /**
+     * 当前线程是否就是这个reactor线程
+     */
+    public boolean inEventLoop() {
+        return Thread.currentThread() == this;
+    }
+
+    public boolean isRunning() {
+        return running;
+    }
+
+    void doStart() {
+        if (!running) {
+            running = true;
+            start();
+        }
+    }
+
+    void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+}
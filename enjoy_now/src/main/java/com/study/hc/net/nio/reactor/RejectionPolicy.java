@@ -0,0 +1,23 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 业务线程池积压的任务达到上限时, 如何处理新提交的任务.
+ * <p>
+ * 总是在连接所属的reactor线程中调用, 并且和这个连接上其他任务的完成回调保持提交顺序
+ */
+@FunctionalInterface
+public interface RejectionPolicy {
+
+    void rejected(Connection connection, WorkerStage.Job<?> job);
+
+    /** 任务以RejectedExecutionException结束, 由完成回调决定如何响应(比如返回503) */
+    RejectionPolicy ABORT = (connection, job) -> job.fail(new RejectedExecutionException("worker stage saturated"));
+
+    /** 在reactor线程中直接执行, reactor忙于执行业务时自然就不再读取新的请求 */
+    RejectionPolicy CALLER_RUNS = (connection, job) -> job.run();
+
+    /** 直接关闭连接 */
+    RejectionPolicy CLOSE = (connection, job) -> connection.close();
+}
@@ -0,0 +1,59 @@
+package com.study.hc.net.nio.reactor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+
+/**
+ * io处理reactor线程 (I/O线程), 负责处理客户端连接以后socketChannel的IO读写
+ */
+final class SubReactor extends ReactorThread {
+
+    /** gathering write一次最多写出的缓冲区个数 */
+    private static final int MAX_GATHER = 16;
+
+    private final BufferPool bufferPool;
+    private final ByteBuffer[] gatherArray = new ByteBuffer[MAX_GATHER];
+
+    SubReactor(String name, int bufferSize, int maxPooledBuffers, WaitStrategy waitStrategy) throws IOException {
+        super(name, waitStrategy);
+        this.bufferPool = new BufferPool(bufferSize, maxPooledBuffers);
+    }
+
+    BufferPool bufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * 所有连接共用的gathering write数组, 只在reactor线程中使用
+     */
+    ByteBuffer[] gatherArray() {
+        return gatherArray;
+    }
+
+    @Override
+    protected void processSelectedKey(SelectionKey key) throws Exception {
+        Connection connection = (Connection) key.attachment();
+        try {
+            int readyOps = key.readyOps();
+            // 先写后读: 先把积压的响应写出去, 再处理新的请求
+            if ((readyOps & SelectionKey.OP_WRITE) != 0) {
+                connection.onWritable();
+            }
+            if ((readyOps & SelectionKey.OP_READ) != 0 && connection.isOpen()) {
+                connection.onReadable();
+            }
+        } catch (Exception e) {
+            connection.close();
+        }
+    }
+
+    @Override
+    protected void closeAll() {
+        for (SelectionKey key : selector.keys()) {
+            if (key.attachment() instanceof Connection) {
+                ((Connection) key.attachment()).close();
+            }
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 哈希时间轮, 只能在一个线程中使用(每个reactor线程一个), 所以不需要任何同步.
+ * <p>
+ * 时间被划分成固定长度的tick, 定时任务按到期的tick放入对应的槽(tick &amp; mask)中, 每个槽是一个双向链表:
+ * <ul>
+ * <li>添加: 计算槽位, 插入链表头, O(1)</li>
+ * <li>取消: 从链表中摘除, O(1)</li>
+ * <li>到期: 每过一个tick只检查一个槽, 到期时间超过一圈的任务留在槽中等下一圈</li>
+ * </ul>
+ * 精度是一个tick, 适合空闲连接超时这类大量、很少真正到期、经常被取消或推迟的定时任务.
+ */
+public final class TimerWheel {
+
+    private final long tickNanos;
+    private final Timeout[] buckets;
+    private final int mask;
+    private final long startTime;
+    /** 已经处理过的tick */
+    private long tick;
+    private int size;
+    /** 一个槽中到期的任务, 先全部摘下来再执行, 复用以免每个tick分配 */
+    private final ArrayList<Timeout> expiring = new ArrayList<>();
+
+    public TimerWheel(long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0) {
+            throw new IllegalArgumentException("tickDuration: " + tickDuration);
+        }
+        if (wheelSize <= 0 || (wheelSize & (wheelSize - 1)) != 0) {
+            throw new IllegalArgumentException("wheelSize must be a power of two: " + wheelSize);
+        }
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.buckets = new Timeout[wheelSize];
+        this.mask = wheelSize - 1;
+        this.startTime = System.nanoTime();
+    }
+
+    /**
+     * 添加一个定时任务, 至少在delay之后(按tick向上取整)执行
+     *
+     * @param now 当前的System.nanoTime()
+     */
+    public Timeout schedule(Runnable task, long delay, TimeUnit unit, long now) {
+        Timeout timeout = new Timeout(task);
+        schedule(timeout, unit.toNanos(delay), now);
+        return timeout;
+    }
+
+    private void schedule(Timeout timeout, long delayNanos, long now) {
+        long elapsed = now - startTime + Math.max(delayNanos, 0);
+        // 向上取整, 并且至少是下一个tick, 不会放进正在处理的槽里
+        long deadlineTick = Math.max((elapsed + tickNanos - 1) / tickNanos, tick + 1);
+        timeout.deadlineTick = deadlineTick;
+        int index = (int) (deadlineTick & mask);
+        Timeout head = buckets[index];
+        timeout.prev = null;
+        timeout.next = head;
+        if (head != null) {
+            head.prev = timeout;
+        }
+        buckets[index] = timeout;
+        timeout.bucket = index;
+        timeout.state = Timeout.PENDING;
+        size++;
+    }
+
+    private void unlink(Timeout timeout) {
+        if (timeout.prev != null) {
+            timeout.prev.next = timeout.next;
+        } else {
+            buckets[timeout.bucket] = timeout.next;
+        }
+        if (timeout.next != null) {
+            timeout.next.prev = timeout.prev;
+        }
+        timeout.prev = null;
+        timeout.next = null;
+        size--;
+    }
+
+    /**
+     * 执行所有到期的任务
+     *
+     * @param now 当前的System.nanoTime()
+     * @return 执行了多少个任务
+     */
+    public int expire(long now) {
+        long targetTick = (now - startTime) / tickNanos;
+        if (size == 0) {
+            // 没有任务, 直接跳过中间的tick
+            tick = Math.max(tick, targetTick);
+            return 0;
+        }
+        int expired = 0;
+        while (tick < targetTick) {
+            tick++;
+            // 先遍历完整个槽, 摘下到期的任务, 再逐个执行: 任务中可能取消或重新安排同一个槽里的其它任务,
+            // 边遍历边执行的话, 记下的next可能已经被摘除, 槽中剩下的任务要等下一圈才会被处理
+            Timeout timeout = buckets[(int) (tick & mask)];
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.deadlineTick <= tick) {
+                    unlink(timeout);
+                    timeout.state = Timeout.EXPIRING;
+                    expiring.add(timeout);
+                }
+                timeout = next;
+            }
+            for (int i = 0; i < expiring.size(); i++) {
+                timeout = expiring.get(i);
+                // 前面执行的任务可能已经取消或重新安排了它
+                if (timeout.state != Timeout.EXPIRING) {
+                    continue;
+                }
+                timeout.state = Timeout.EXPIRED;
+                try {
+                    timeout.task.run();
+                } catch (Throwable t) {
+                    t.printStackTrace();
+                }
+                expired++;
+            }
+            expiring.clear();
+            if (size == 0) {
+                tick = targetTick;
+            }
+        }
+        return expired;
+    }
+
+    /**
+     * 距离下一个tick还有多少纳秒, 没有任务时返回-1. 事件循环用它来计算select的超时时间
+     */
+    public long nanosUntilNextTick(long now) {
+        if (size == 0) {
+            return -1;
+        }
+        long next = startTime + (tick + 1) * tickNanos;
+        return Math.max(next - now, 0);
+    }
+
+    /** 还没有到期也没有被取消的任务数 */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 定时任务的句柄
+     */
+    public final class Timeout {
+        static final int INIT = 0;
+        static final int PENDING = 1;
+        static final int EXPIRED = 2;
+        static final int CANCELLED = 3;
+        /** 已经从槽中摘下, 还没有执行 */
+        static final int EXPIRING = 4;
+
+        private final Runnable task;
+        private Timeout prev;
+        private Timeout next;
+        private int bucket;
+        private long deadlineTick;
+        private int state = INIT;
+
+        Timeout(Runnable task) {
+            this.task = task;
+        }
+
+        /**
+         * 取消任务, O(1). 返回false表示任务已经执行过或者已经取消
+         */
+        public boolean cancel() {
+            if (state == EXPIRING) {
+                state = CANCELLED;
+                return true;
+            }
+            if (state != PENDING) {
+                return false;
+            }
+            unlink(this);
+            state = CANCELLED;
+            return true;
+        }
+
+        /**
+         * 从现在开始重新计时. 已经执行过或者取消了的任务也可以重新安排
+         */
+        public void reschedule(long delay, TimeUnit unit, long now) {
+            if (state == PENDING) {
+                unlink(this);
+            }
+            schedule(this, unit.toNanos(delay), now);
+        }
+
+        public boolean isPending() {
+            return state == PENDING || state == EXPIRING;
+        }
+
+        public boolean isExpired() {
+            return state == EXPIRED;
+        }
+
+        public boolean isCancelled() {
+            return state == CANCELLED;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.study.hc.net.nio.reactor;
+
+/**
+ * reactor线程没有事件时如何等待.
+ * <ul>
+ * <li>先用selectNow()空转spinIterations轮, 事件来了马上就能处理, 没有线程挂起/唤醒的开销</li>
+ * <li>再每轮Thread.yield()之后selectNow(), 一共yieldIterations轮, 让出CPU但不挂起</li>
+ * <li>还是没有事件, 才阻塞在select()上, 这时提交任务需要selector.wakeup()</li>
+ * </ul>
+ * 空转越多, 尾延迟越低, 但空闲时也会占满一个CPU核. 每个reactor的空转/阻塞次数见{@link ReactorMetrics}
+ */
+public final class WaitStrategy {
+
+    private static final WaitStrategy BLOCKING = new WaitStrategy(0, 0);
+
+    private final int spinIterations;
+    private final int yieldIterations;
+
+    private WaitStrategy(int spinIterations, int yieldIterations) {
+        this.spinIterations = spinIterations;
+        this.yieldIterations = yieldIterations;
+    }
+
+    /**
+     * 没有事件就阻塞在select()上(默认)
+     */
+    public static WaitStrategy blocking() {
+        return BLOCKING;
+    }
+
+    /**
+     * 连续spinIterations轮空转, 再yieldIterations轮yield, 然后阻塞
+     */
+    public static WaitStrategy adaptive(int spinIterations, int yieldIterations) {
+        if (spinIterations < 0 || yieldIterations < 0) {
+            throw new IllegalArgumentException("spinIterations: " + spinIterations + ", yieldIterations: " + yieldIterations);
+        }
+        return new WaitStrategy(spinIterations, yieldIterations);
+    }
+
+    int spinIterations() {
+        return spinIterations;
+    }
+
+    int yieldIterations() {
+        return yieldIterations;
+    }
+
+    @Override
+    public String toString() {
+        return "WaitStrategy(spin=" + spinIterations + ", yield=" + yieldIterations + ")";
+    }
+}
@@ -0,0 +1,223 @@
+package com.study.hc.net.nio.reactor;
+
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 业务处理阶段: reactor线程解码出请求后, 把耗时的业务逻辑交给这里的固定大小线程池执行, I/O线程不会被慢业务阻塞.
+ * <ul>
+ * <li>线程数固定, 积压的任务数有上限, 超过上限由{@link RejectionPolicy}处理, 突发流量不会创建成千上万个线程</li>
+ * <li>同一个连接上的任务按提交顺序串行执行, 完成回调通过reactor的任务队列交回连接所属的reactor线程执行,
+ * 所以同一个连接上的响应顺序和请求顺序一致(HTTP流水线要求的)</li>
+ * </ul>
+ * <pre>
+ * workerStage.submit(connection, () -&gt; doBusiness(request), (conn, result, cause) -&gt; conn.write(result));
+ * </pre>
+ */
+public final class WorkerStage {
+
+    /** 一个连接一次最多连续执行多少个任务, 然后让出线程给其他连接 */
+    private static final int MAX_JOBS_PER_RUN = 16;
+
+    /**
+     * 任务完成回调, 在连接所属的reactor线程中执行, 执行完之后会flush这个连接
+     */
+    @FunctionalInterface
+    public interface Completion<T> {
+        void onComplete(Connection connection, T result, Throwable cause) throws Exception;
+    }
+
+    private final ThreadPoolExecutor pool;
+    private final int maxPendingTasks;
+    private final RejectionPolicy rejectionPolicy;
+    private final AtomicInteger pendingTasks = new AtomicInteger();
+
+    public WorkerStage(int threads, int maxPendingTasks, RejectionPolicy rejectionPolicy) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads: " + threads);
+        }
+        if (maxPendingTasks < 1) {
+            throw new IllegalArgumentException("maxPendingTasks: " + maxPendingTasks);
+        }
+        this.maxPendingTasks = maxPendingTasks;
+        this.rejectionPolicy = Objects.requireNonNull(rejectionPolicy, "rejectionPolicy");
+        AtomicInteger threadIndex = new AtomicInteger();
+        // 队列中每个有任务的连接最多只有一项, 总数已经被pendingTasks限制住了
+        this.pool = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+            Thread t = new Thread(r, "worker-" + threadIndex.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * 提交一个业务任务, 只能在连接所属的reactor线程中调用
+     */
+    public <T> void submit(Connection connection, Callable<T> work, Completion<T> completion) {
+        Job<T> job = new Job<>(connection, work, completion);
+        SerialQueue queue = connection.serialQueue;
+        if (queue == null) {
+            queue = new SerialQueue();
+            connection.serialQueue = queue;
+        }
+        if (pool.isShutdown() || !tryAcquire()) {
+            if (queue.isIdle()) {
+                // 这个连接上没有正在执行的任务, 但之前任务的完成回调可能还在reactor任务队列中, 所以也要排到队尾
+                job.handBackRejected();
+            } else {
+                // 排在这个连接之前的任务后面, 轮到它时再交回reactor线程处理
+                job.rejected = true;
+                queue.enqueue(job);
+            }
+            return;
+        }
+        queue.enqueue(job);
+    }
+
+    private boolean tryAcquire() {
+        for (; ; ) {
+            int pending = pendingTasks.get();
+            if (pending >= maxPendingTasks) {
+                return false;
+            }
+            if (pendingTasks.compareAndSet(pending, pending + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** 已提交还没有执行完的任务数 */
+    public int pendingTasks() {
+        return pendingTasks.get();
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+        return pool.awaitTermination(timeout, unit);
+    }
+
+    /**
+     * 一个连接上的任务队列, 同一时刻最多只有一个线程在执行这个队列中的任务
+     */
+    final class SerialQueue implements Runnable {
+        private final ConcurrentLinkedQueue<Job<?>> jobs = new ConcurrentLinkedQueue<>();
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+
+        boolean isIdle() {
+            return !scheduled.get() && jobs.isEmpty();
+        }
+
+        void enqueue(Job<?> job) {
+            jobs.offer(job);
+            schedule();
+        }
+
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    pool.execute(this);
+                } catch (RejectedExecutionException e) {
+                    // 线程池已经关闭, 剩下的任务都交给拒绝策略
+                    Job<?> job;
+                    while ((job = jobs.poll()) != null) {
+                        if (!job.rejected) {
+                            pendingTasks.decrementAndGet();
+                        }
+                        job.handBackRejected();
+                    }
+                    scheduled.set(false);
+                }
+            }
+        }
+
+        @Override
+        public void run() {
+            Job<?> job;
+            int n = 0;
+            while (n < MAX_JOBS_PER_RUN && (job = jobs.poll()) != null) {
+                if (job.rejected) {
+                    job.handBackRejected();
+                } else {
+                    pendingTasks.decrementAndGet();
+                    job.run();
+                }
+                n++;
+            }
+            scheduled.set(false);
+            if (!jobs.isEmpty()) {
+                schedule();
+            }
+        }
+    }
+
+    /**
+     * 一个业务任务以及它的完成回调
+     */
+    public final class Job<T> {
+        private final Connection connection;
+        private final Callable<T> work;
+        private final Completion<T> completion;
+        private boolean rejected;
+
+        Job(Connection connection, Callable<T> work, Completion<T> completion) {
+            this.connection = connection;
+            this.work = work;
+            this.completion = completion;
+        }
+
+        /**
+         * 在当前线程执行业务逻辑, 然后在reactor线程中执行完成回调
+         */
+        public void run() {
+            T result = null;
+            Throwable cause = null;
+            try {
+                result = work.call();
+            } catch (Throwable t) {
+                cause = t;
+            }
+            complete(result, cause);
+        }
+
+        /**
+         * 不执行业务逻辑, 直接以失败结束
+         */
+        public void fail(Throwable cause) {
+            complete(null, cause);
+        }
+
+        private void handBackRejected() {
+            connection.reactor().execute(() -> rejectionPolicy.rejected(connection, this));
+        }
+
+        private void complete(T result, Throwable cause) {
+            ReactorThread reactor = connection.reactor();
+            if (reactor.inEventLoop()) {
+                invokeCompletion(result, cause);
+            } else {
+                // 交回连接所属的reactor线程, 和同一连接上之前的任务一样经过同一个FIFO任务队列, 顺序不会乱
+                reactor.execute(() -> invokeCompletion(result, cause));
+            }
+        }
+
+        private void invokeCompletion(T result, Throwable cause) {
+            try {
+                completion.onComplete(connection, result, cause);
+                connection.flush();
+            } catch (Exception e) {
+                connection.close();
+            }
+        }
+    }
+}
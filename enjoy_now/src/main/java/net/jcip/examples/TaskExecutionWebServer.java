@@ -5,17 +5,31 @@ import java.net.ServerSocket;
 import java.net.Socket;
 import java.util.concurrent.*;
 
+import com.study.hc.net.bio.ConnectionExecutors;
+
 /**
  * TaskExecutionWebServer
  * <p/>
  * Web server using a thread pool
+ * <p/>
+ * -Dexecutor=virtual swaps the fixed pool for a virtual thread per task;
+ * the NTHREADS bound is then enforced by a semaphore instead of the pool size.
  *
  * @author Brian Goetz and Tim Peierls
  */
 public class TaskExecutionWebServer {
     private static final int NTHREADS = 100;
-    private static final Executor exec
-            = Executors.newFixedThreadPool(NTHREADS);
+    private static final String EXECUTOR = System.getProperty("executor", "fixed");
+    private static final Executor exec = newExecutor();
+
+    private static Executor newExecutor() {
+        Executor executor = ConnectionExecutors.newExecutor(EXECUTOR, NTHREADS);
+        // the fixed pool already bounds concurrency and queues the rest; a semaphore in
+        // front of it would only stall the accept loop
+        if ("virtual".equals(EXECUTOR))
+            return ConnectionExecutors.bounded(executor, Integer.getInteger("maxConnections", NTHREADS));
+        return executor;
+    }
 
     public static void main(String[] args) throws IOException {
         ServerSocket socket = new ServerSocket(80);
@@ -3,15 +3,25 @@ package net.jcip.examples;
 import java.io.IOException;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.util.concurrent.*;
+
+import com.study.hc.net.bio.ConnectionExecutors;
 
 /**
  * ThreadPerTaskWebServer
  * <p/>
  * Web server that starts a new thread for each request
+ * <p/>
+ * With -Dexecutor=virtual each request gets a virtual thread instead,
+ * throttled by a BoundedExecutor to -DmaxConnections concurrent requests.
  *
  * @author Brian Goetz and Tim Peierls
  */
 public class ThreadPerTaskWebServer {
+    private static final boolean VIRTUAL = "virtual".equals(System.getProperty("executor"));
+    private static final int MAX_CONNECTIONS = Integer.getInteger("maxConnections", 10000);
+    private static final ThreadFactory threads = ConnectionExecutors.threadFactory(VIRTUAL);
+
     public static void main(String[] args) throws IOException {
         ServerSocket socket = new ServerSocket(80);
         while (true) {
@@ -21,7 +31,24 @@ public class ThreadPerTaskWebServer {
                     handleRequest(connection);
                 }
             };
-            new Thread(task).start();
+            if (VIRTUAL)
+                startBounded(task);
+            else
+                new Thread(task).start();
+        }
+    }
+
+    private static final BoundedExecutor bounded = new BoundedExecutor(new Executor() {
+        public void execute(Runnable command) {
+            threads.newThread(command).start();
+        }
+    }, MAX_CONNECTIONS);
+
+    private static void startBounded(Runnable task) {
+        try {
+            bounded.submitTask(task);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
         }
     }
 
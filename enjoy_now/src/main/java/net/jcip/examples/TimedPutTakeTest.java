@@ -2,15 +2,25 @@ package net.jcip.examples;
 
 import java.util.concurrent.*;
 
+import com.study.hc.metrics.LatencyRecorder;
+
 /**
  * TimedPutTakeTest
  * <p/>
  * Testing with a barrier-based timer
+ * <p/>
+ * With -Dlatency=true also times every put and take and reports their latency
+ * percentiles. The extra nanoTime calls and recording slow each operation down,
+ * so the throughput printed in that mode is marked as timed and is not
+ * comparable with the default, untimed run.
  *
  * @author Brian Goetz and Tim Peierls
  */
 public class TimedPutTakeTest extends PutTakeTest {
+    private static final boolean LATENCY = Boolean.getBoolean("latency");
     private BarrierTimer timer = new BarrierTimer();
+    private final LatencyRecorder putTimes = new LatencyRecorder();
+    private final LatencyRecorder takeTimes = new LatencyRecorder();
 
     public TimedPutTakeTest(int cap, int pairs, int trials) {
         super(cap, pairs, trials);
@@ -21,19 +31,65 @@ public class TimedPutTakeTest extends PutTakeTest {
         try {
             timer.clear();
             for (int i = 0; i < nPairs; i++) {
-                pool.execute(new PutTakeTest.Producer());
-                pool.execute(new PutTakeTest.Consumer());
+                pool.execute(LATENCY ? new TimedProducer() : new Producer());
+                pool.execute(LATENCY ? new TimedConsumer() : new Consumer());
             }
             barrier.await();
             barrier.await();
             long nsPerItem = timer.getTime() / (nPairs * (long) nTrials);
             System.out.print("Throughput: " + nsPerItem + " ns/item");
+            if (LATENCY) {
+                System.out.print(" (timed)");
+                System.out.print("\tput(us): " + putTimes.intervalSnapshot().summary(1e3));
+                System.out.print("\ttake(us): " + takeTimes.intervalSnapshot().summary(1e3));
+            }
             assertEquals(putSum.get(), takeSum.get());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    class TimedProducer implements Runnable {
+        public void run() {
+            try {
+                LatencyRecorder.Writer times = putTimes.writer();
+                int seed = (this.hashCode() ^ (int) System.nanoTime());
+                int sum = 0;
+                barrier.await();
+                for (int i = nTrials; i > 0; --i) {
+                    long start = System.nanoTime();
+                    bb.put(seed);
+                    times.record(System.nanoTime() - start);
+                    sum += seed;
+                    seed = xorShift(seed);
+                }
+                putSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
+    class TimedConsumer implements Runnable {
+        public void run() {
+            try {
+                LatencyRecorder.Writer times = takeTimes.writer();
+                barrier.await();
+                int sum = 0;
+                for (int i = nTrials; i > 0; --i) {
+                    long start = System.nanoTime();
+                    sum += bb.take();
+                    times.record(System.nanoTime() - start);
+                }
+                takeSum.getAndAdd(sum);
+                barrier.await();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     public static void main(String[] args) throws Exception {
         int tpt = 100000; // trials per thread
         for (int cap = 1; cap <= 1000; cap *= 10) {
@@ -1,13 +1,17 @@
 package net.jcip.examples;
 
 import java.util.concurrent.*;
-import java.util.concurrent.atomic.*;
 import java.util.logging.*;
 
+import com.study.hc.metrics.LatencyRecorder;
+
 /**
  * TimingThreadPool
  * <p/>
  * Thread pool extended with logging and timing
+ * <p/>
+ * Task times go into a per-thread latency histogram, so termination reports
+ * percentiles rather than just the mean.
  *
  * @author Brian Goetz and Tim Peierls
  */
@@ -19,8 +23,7 @@ public class TimingThreadPool extends ThreadPoolExecutor {
 
     private final ThreadLocal<Long> startTime = new ThreadLocal<Long>();
     private final Logger log = Logger.getLogger("TimingThreadPool");
-    private final AtomicLong numTasks = new AtomicLong();
-    private final AtomicLong totalTime = new AtomicLong();
+    private final LatencyRecorder taskTimes = new LatencyRecorder();
 
     protected void beforeExecute(Thread t, Runnable r) {
         super.beforeExecute(t, r);
@@ -32,8 +35,7 @@ public class TimingThreadPool extends ThreadPoolExecutor {
         try {
             long endTime = System.nanoTime();
             long taskTime = endTime - startTime.get();
-            numTasks.incrementAndGet();
-            totalTime.addAndGet(taskTime);
+            taskTimes.record(taskTime);
             log.fine(String.format("Thread %s: end %s, time=%dns",
                     t, r, taskTime));
         } finally {
@@ -43,8 +45,8 @@ public class TimingThreadPool extends ThreadPoolExecutor {
 
     protected void terminated() {
         try {
-            log.info(String.format("Terminated: avg time=%dns",
-                    totalTime.get() / numTasks.get()));
+            log.info(String.format("Terminated: time(us) %s",
+                    taskTimes.snapshot().summary(1e3)));
         } finally {
             super.terminated();
         }
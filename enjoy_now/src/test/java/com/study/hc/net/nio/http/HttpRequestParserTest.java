@@ -0,0 +1,161 @@
+package com.study.hc.net.nio.http;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class HttpRequestParserTest {
+
+    private static ByteBuffer ascii(String s) {
+        return ByteBuffer.wrap(s.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertStatus(int status, ByteBuffer in, HttpRequestParser parser) {
+        try {
+            parser.parse(in);
+            fail("应该返回" + status);
+        } catch (HttpParseException e) {
+            assertEquals(status, e.status());
+        }
+    }
+
+    private static String body(HttpRequestParser parser) {
+        byte[] body = new byte[parser.bodyLength()];
+        parser.copyBody(body, 0);
+        return new String(body, StandardCharsets.US_ASCII);
+    }
+
+    private static ByteBuffer request(String transferEncoding) {
+        String request = "POST /upload HTTP/1.1\r\nHost: x\r\nTransfer-Encoding: " + transferEncoding + "\r\n\r\n"
+                + "5\r\nhello\r\n0\r\n\r\n";
+        return ByteBuffer.wrap(request.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    private static void assertRejected(String transferEncoding) {
+        try {
+            new HttpRequestParser().parse(request(transferEncoding));
+            fail("Transfer-Encoding: " + transferEncoding + " 应该被拒绝");
+        } catch (HttpParseException e) {
+            assertEquals(400, e.status());
+        }
+    }
+
+    private static void assertChunked(String transferEncoding) throws HttpParseException {
+        HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(request(transferEncoding)));
+        assertTrue(parser.isChunked());
+        assertEquals(5, parser.bodyLength());
+    }
+
+    @Test
+    public void chunked() throws HttpParseException {
+        assertChunked("chunked");
+        assertChunked("Chunked ");
+        assertChunked("gzip, chunked");
+        assertChunked("gzip,chunked");
+    }
+
+    @Test
+    public void chunkedMustBeAWholeToken() {
+        assertRejected("xchunked");
+        assertRejected("gzip-chunked");
+        assertRejected("gzip, xchunked");
+    }
+
+    @Test
+    public void chunkedMustBeTheLastCoding() {
+        assertRejected("chunked, gzip");
+        assertRejected("chunked,");
+        assertRejected("gzip");
+    }
+
+    @Test
+    public void chunkedBody() throws HttpParseException {
+        HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(ascii("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "5;ext=1\r\nhello\r\n6\r\n world\r\n0\r\nX-Trailer: 1\r\n\r\n")));
+        assertEquals(2, parser.bodySegmentCount());
+        assertEquals("hello world", body(parser));
+    }
+
+    @Test
+    public void chunkedBodyInPieces() throws HttpParseException {
+        String request = "POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n5\r\nhello\r\n0\r\n\r\n";
+        HttpRequestParser parser = new HttpRequestParser();
+        ByteBuffer in = ByteBuffer.allocate(256);
+        // 一次只到一个字节, 每次都要从上次停下的地方继续
+        for (int i = 0; i < request.length() - 1; i++) {
+            in.put((byte) request.charAt(i)).flip();
+            assertFalse(parser.parse(in));
+            in.compact();
+        }
+        in.put((byte) request.charAt(request.length() - 1)).flip();
+        assertTrue(parser.parse(in));
+        assertEquals("hello", body(parser));
+        assertFalse(in.hasRemaining());
+    }
+
+    @Test
+    public void contentLengthWithTransferEncodingIsRejected() {
+        assertStatus(400, ascii("POST / HTTP/1.1\r\nContent-Length: 5\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "0\r\n\r\n"), new HttpRequestParser());
+        assertStatus(400, ascii("POST / HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 5\r\n\r\n"
+                + "0\r\n\r\n"), new HttpRequestParser());
+        assertStatus(400, ascii("POST / HTTP/1.1\r\nContent-Length: 5\r\nContent-Length: 6\r\n\r\n"),
+                new HttpRequestParser());
+    }
+
+    @Test
+    public void pipelining() throws HttpParseException {
+        ByteBuffer in = ascii("GET /a HTTP/1.1\r\n\r\n"
+                + "POST /b HTTP/1.1\r\nContent-Length: 3\r\n\r\nabc"
+                + "GET /c HTTP/1.0\r\n\r\n"
+                + "GET /d HTT");
+        HttpRequestParser parser = new HttpRequestParser();
+        assertTrue(parser.parse(in));
+        assertEquals("/a", parser.uri());
+        assertTrue(parser.isKeepAlive());
+        assertTrue(parser.parse(in));
+        assertEquals(HttpMethod.POST, parser.method());
+        assertEquals("/b", parser.uri());
+        assertEquals("abc", body(parser));
+        assertTrue(parser.parse(in));
+        assertEquals("/c", parser.uri());
+        assertFalse(parser.isKeepAlive());
+        // 最后一个请求不完整, position停在它的起始位置
+        int position = in.position();
+        assertFalse(parser.parse(in));
+        assertEquals(position, in.position());
+    }
+
+    @Test
+    public void headersTooLarge() {
+        // 请求头占满了整个读缓冲区
+        StringBuilder request = new StringBuilder("GET / HTTP/1.1\r\n");
+        while (request.length() < 256) {
+            request.append("X-Padding: 0123456789\r\n");
+        }
+        ByteBuffer in = ascii(request.substring(0, 256));
+        assertStatus(431, in, new HttpRequestParser());
+        assertStatus(431, ascii("GET / HTTP/1.1\r\nA: 1\r\nB: 2\r\nC: 3\r\n\r\n"), new HttpRequestParser(2));
+    }
+
+    @Test
+    public void bodyTooLarge() {
+        String head = "POST / HTTP/1.1\r\nContent-Length: 1000\r\n\r\n";
+        ByteBuffer in = ByteBuffer.allocate(128);
+        in.put(head.getBytes(StandardCharsets.US_ASCII));
+        while (in.hasRemaining()) {
+            in.put((byte) 'x');
+        }
+        in.flip();
+        assertStatus(413, in, new HttpRequestParser());
+        assertStatus(413, ascii("POST / HTTP/1.1\r\nContent-Length: 99999999999\r\n\r\n"), new HttpRequestParser());
+    }
+}